@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole;
+
+import com.eleet.dragonconsole.util.MarkupTokenizer;
+import java.util.ArrayList;
+
+/**
+ * A ConsoleTemplate is a piece of console output that is parsed for DCCCs,
+ * ANSI codes and input scripts once and printed many times. The template text
+ * may contain numbered parameter slots ("{0}", "{1}", ...) that are filled in
+ * each time the template is printed, for example:<br /><br />
+ * <code>ConsoleTemplate log = ConsoleTemplate.compile("&c-[&00{0}&c-]&00 {1}");
+ * <br />console.append(log, "INFO", "Server started");</code><br /><br />
+ * The template is compiled into a list of parts (text, color codes, ANSI
+ * codes, input scripts and parameter slots) so printing it never scans the
+ * template again, the console only substitutes the values and adds the
+ * pre-split text runs with their styles. Values are printed as is with the
+ * style that is current at their slot, they are never processed for color
+ * codes. Use "{{" for a literal '{'. A "%%" escape is kept as it is and
+ * printed as a single '%' only when the console processes input scripts,
+ * just like output passed to <code>append(String)</code>.<br /><br />
+ * A ConsoleTemplate is immutable and can be shared between Threads and
+ * consoles.
+ * @version 1.0
+ */
+public final class ConsoleTemplate {
+    // Part Types
+    private static final int TEXT = 0;
+    private static final int COLOR_CODE = 1;
+    private static final int ESCAPE = 2;
+    private static final int INPUT = 3;
+    private static final int PARAMETER = 4;
+    private static final int PERCENT = 5;
+
+    /**
+     * The "%%" escape, printed as is when input scripts are not processed.
+     */
+    private static final char[] PERCENT_ESCAPE = {'%', '%'};
+
+    /**
+     * The text the template was compiled from.
+     */
+    private final String source;
+
+    /**
+     * The compiled parts of the template in the order they are printed.
+     */
+    private final Part[] parts;
+
+    /**
+     * The number of values the template expects, one more than the highest
+     * parameter slot.
+     */
+    private final int parameterCount;
+
+    /**
+     * The number of characters the template prints without it's values.
+     */
+    private final int literalLength;
+
+    /**
+     * The Handler a template is printed to. Besides the parts that the
+     * MarkupTokenizer would report it's given the values of the parameter
+     * slots as they are, so a value is printed straight from it's String
+     * without being copied into a char array first.
+     */
+    interface Printer extends MarkupTokenizer.Handler {
+        /**
+         * Called with the value of a parameter slot.
+         * @param value The value.
+         * @param start The index of the first character of the value.
+         * @param end The index after the last character of the value.
+         */
+        void value(CharSequence value, int start, int end);
+    }
+
+    /**
+     * Creates a ConsoleTemplate from the compiled parts.
+     */
+    private ConsoleTemplate(String source, Part[] parts) {
+        this.source = source;
+        this.parts = parts;
+
+        int count = 0;
+        int length = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].type == PARAMETER)
+                count = Math.max(count, parts[i].parameter + 1);
+            else if (parts[i].type == TEXT)
+                length += parts[i].chars.length;
+            else if (parts[i].type == PERCENT)
+                length++;
+        }
+
+        this.parameterCount = count;
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles a template that uses the default color code character '&'.
+     * @param template The template text.
+     * @return The compiled ConsoleTemplate.
+     */
+    public static ConsoleTemplate compile(String template) {
+        return compile(template, '&');
+    }
+
+    /**
+     * Compiles a template that uses the given color code character, this
+     * should match the <code>colorCodeChar</code> of the console it's printed
+     * in.
+     * @param template The template text.
+     * @param colorCodeChar The character that begins a DCCC.
+     * @return The compiled ConsoleTemplate.
+     */
+    public static ConsoleTemplate compile(String template, char colorCodeChar) {
+        if (template == null)
+            throw new NullPointerException("template");
+
+        Compiler compiler = new Compiler();
+        MarkupTokenizer tokenizer = new MarkupTokenizer(colorCodeChar);
+        tokenizer.setKeepPercentEscapes(true);
+        tokenizer.feed(template, 0, template.length(), compiler);
+        tokenizer.finish(compiler);
+        compiler.flushText();
+
+        return new ConsoleTemplate(template,
+                compiler.parts.toArray(new Part[compiler.parts.size()]));
+    }
+
+    /**
+     * Returns the number of values this template expects, missing values are
+     * printed as empty text.
+     * @return One more than the highest parameter slot in the template.
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Returns the text this template was compiled from.
+     * @return The template text.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the number of characters this template prints with the given
+     * values, not counting any blank input range.
+     * @param values The values for the parameter slots.
+     * @return The length of the printed text.
+     */
+    int getLength(String[] values) {
+        int length = literalLength;
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].type == PARAMETER
+                    && parts[i].parameter < values.length)
+                length += values[parts[i].parameter].length();
+        }
+
+        return length;
+    }
+
+    /**
+     * Plays the compiled parts of this template to a Printer just as the
+     * MarkupTokenizer would if it had scanned the template with the values in
+     * place of their slots, the values themselves are given to
+     * <code>value</code>.
+     * @param handler The Printer that prints the parts.
+     * @param values The values for the parameter slots.
+     * @param processInput <code>false</code> if input scripts should be
+     *  printed as text.
+     */
+    void print(Printer handler, String[] values, boolean processInput) {
+        for (int i = 0; i < parts.length; i++) {
+            Part part = parts[i];
+
+            switch (part.type) {
+                case TEXT:
+                    handler.text(part.chars, 0, part.chars.length);
+                    break;
+                case COLOR_CODE:
+                    handler.colorCode(part.foreground, part.background);
+                    break;
+                case ESCAPE:
+                    handler.escape(part.chars, 0, part.chars.length);
+                    break;
+                case PERCENT:
+                    handler.text(PERCENT_ESCAPE, 0, processInput ? 1 : 2);
+                    break;
+                case INPUT:
+                    if (!processInput)
+                        handler.text(part.chars, 0, part.chars.length);
+                    else if (handler.input(part.chars, 0, part.chars.length))
+                        return; // Infinite input, the rest is ignored
+                    break;
+                case PARAMETER:
+                    if (part.parameter < values.length) {
+                        String value = values[part.parameter];
+                        if (value.length() > 0)
+                            handler.value(value, 0, value.length());
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the text this template was compiled from.
+     * @return The template text.
+     */
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * A single compiled piece of a template.
+     */
+    private static final class Part {
+        private final int type;
+        private final char[] chars;
+        private final char foreground;
+        private final char background;
+        private final int parameter;
+
+        private Part(int type, char[] chars, char foreground, char background,
+                int parameter) {
+            this.type = type;
+            this.chars = chars;
+            this.foreground = foreground;
+            this.background = background;
+            this.parameter = parameter;
+        }
+    }
+
+    /**
+     * Collects the tokens of the template into Parts, plain text is gathered
+     * until the next code so that parameter slots split between two pieces of
+     * text are still found. The tokenizer keeps "%%" escapes in the text, they
+     * become Parts of their own.
+     */
+    private static final class Compiler implements MarkupTokenizer.Handler {
+        private final ArrayList<Part> parts = new ArrayList<Part>();
+        private final StringBuilder text = new StringBuilder();
+
+        public void text(char[] chars, int offset, int length) {
+            text.append(chars, offset, length);
+        }
+
+        public void colorCode(char foreground, char background) {
+            flushText();
+            parts.add(new Part(COLOR_CODE, null, foreground, background, -1));
+        }
+
+        public void escape(char[] sequence, int offset, int length) {
+            flushText();
+            parts.add(new Part(ESCAPE, copy(sequence, offset, length), ' ', ' ',
+                    -1));
+        }
+
+        public boolean input(char[] script, int offset, int length) {
+            flushText();
+            parts.add(new Part(INPUT, copy(script, offset, length), ' ', ' ',
+                    -1));
+
+            return false; // Keep compiling, the console decides at print time
+        }
+
+        /**
+         * Splits the gathered text into literal text, "%%" escapes and
+         * parameter slots.
+         */
+        private void flushText() {
+            StringBuilder literal = new StringBuilder();
+            int length = text.length();
+            int i = 0;
+            while (i < length) {
+                char c = text.charAt(i);
+                if (c == '{' && i + 1 < length && text.charAt(i + 1) == '{') {
+                    literal.append('{');
+                    i += 2;
+                    continue;
+                }
+
+                if (c == '%' && i + 1 < length && text.charAt(i + 1) == '%') {
+                    addLiteral(literal);
+                    parts.add(new Part(PERCENT, null, ' ', ' ', -1));
+                    i += 2;
+                    continue;
+                }
+
+                int end = (c == '{') ? findSlotEnd(i + 1) : -1;
+                if (end == -1) {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+
+                addLiteral(literal);
+                parts.add(new Part(PARAMETER, null, ' ', ' ',
+                        Integer.parseInt(text.substring(i + 1, end))));
+                i = end + 1;
+            }
+
+            addLiteral(literal);
+            text.setLength(0);
+        }
+
+        /**
+         * Returns the index of the '}' that closes a parameter slot starting
+         * at the given index, or -1 if the text is not a parameter slot.
+         */
+        private int findSlotEnd(int start) {
+            int i = start;
+            while (i < text.length() && i - start < 6
+                    && text.charAt(i) >= '0' && text.charAt(i) <= '9')
+                i++;
+
+            if (i == start || i >= text.length() || text.charAt(i) != '}')
+                return -1;
+
+            return i;
+        }
+
+        /**
+         * Adds the literal text as a Part and empties the builder.
+         */
+        private void addLiteral(StringBuilder literal) {
+            if (literal.length() == 0)
+                return;
+
+            char[] chars = new char[literal.length()];
+            literal.getChars(0, chars.length, chars, 0);
+            parts.add(new Part(TEXT, chars, ' ', ' ', -1));
+            literal.setLength(0);
+        }
+
+        private static char[] copy(char[] chars, int offset, int length) {
+            char[] copy = new char[length];
+            System.arraycopy(chars, offset, copy, 0, length);
+            return copy;
+        }
+    }
+}
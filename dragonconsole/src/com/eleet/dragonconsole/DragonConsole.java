@@ -31,6 +31,8 @@ import java.util.*;
 import com.eleet.dragonconsole.util.*;
 import com.eleet.dragonconsole.file.*;
 import java.awt.datatransfer.DataFlavor;;
+import java.io.*;
+import java.nio.charset.Charset;
 
 /**
  * DragonConsole is a console mimic designed to give Java programmers a RTF
@@ -160,6 +162,42 @@ public class DragonConsole extends JPanel implements KeyListener,
      */
     public static final Color GOLD = INTENSE_GOLD.darker();
 
+    /**
+     * Output Backpressure Policy: a Thread appending to a full output queue
+     * waits until the queue has been flushed.
+     */
+    public static final int BACKPRESSURE_BLOCK = OutputQueue.BLOCK;
+
+    /**
+     * Output Backpressure Policy: output appended to a full output queue is
+     * thrown away and a message saying how many lines were suppressed is
+     * printed in it's place.
+     */
+    public static final int BACKPRESSURE_DROP = OutputQueue.DROP;
+
+    /**
+     * Output Backpressure Policy: the oldest queued output is thrown away to
+     * make room for new output and a message saying how many lines were
+     * omitted is printed in it's place.
+     */
+    public static final int BACKPRESSURE_SUMMARIZE = OutputQueue.SUMMARIZE;
+
+    /**
+     * Export Format: text with ANSI escape sequences for it's colors.
+     */
+    public static final int EXPORT_ANSI = ConsoleExporter.FORMAT_ANSI;
+
+    /**
+     * Export Format: an HTML page with the text in it's colors.
+     */
+    public static final int EXPORT_HTML = ConsoleExporter.FORMAT_HTML;
+
+    /**
+     * The name of the property that is fired while text is pasted into inline
+     * input, it's value is the progress of the paste from 0 to 100.
+     */
+    public static final String PASTE_PROGRESS_PROPERTY = "pasteProgress";
+
     // GUI
     /**
      * The JTextPane that represents the Console output (and input with
@@ -208,6 +246,11 @@ public class DragonConsole extends JPanel implements KeyListener,
      */
     private InputController inputControl;
 
+    /**
+     * The paste into inline input that is running, or <code>null</code>.
+     */
+    private PasteTask pasteTask;
+
     // Console GUI (fonts/colors/etc)
     /**
      * The Font that is displayed in both the <code>inputArea</code> and
@@ -222,20 +265,23 @@ public class DragonConsole extends JPanel implements KeyListener,
     private PromptPanel consolePrompt;
 
     /** 
-     * The list of Text Colors that have been added to this Console.
+     * The Text Colors that have been added to this Console, shared with the
+     * <code>consolePrompt</code>.
      */
-    private ArrayList<TextColor> textColors;
+    private Palette palette;
 
-    // Input Utility
-    /** 
-     * The list of previous entries, used for navigating previous input
+    /**
+     * Creates the Style of each foreground and background pair of the
+     * <code>palette</code> the first time it's printed.
      */
-    private ArrayList<String> previousEntries;
+    private StyleCache styleCache;
 
+    // Input Utility
     /** 
-     * The maximum number of previous entries to store, can be adjusted.
+     * The history of previous entries, used for navigating previous input, it
+     * can be shared with other consoles.
      */
-    private int numberOfPreviousEntries;
+    private CommandHistory history;
 
     /**
      * The Current entry in the list of Previous Entries, changed when the user
@@ -294,7 +340,51 @@ public class DragonConsole extends JPanel implements KeyListener,
      */
     private boolean ignoreAdjustment = false;
 
+    /**
+     * Combines all requests to set the JScrollBar to it's max value into a
+     * single change on the Event Dispatch Thread per frame.
+     */
+    private FrameScheduler scrollScheduler;
+
+    // Output Regions
+    /**
+     * The OutputRegions that are following their text in the Document, in the
+     * order they were printed. Only used on the Event Dispatch Thread.
+     */
+    private ArrayList<OutputRegion> regions;
+
+    /**
+     * The OutputRegions that have changed since the last region update, this
+     * list is guarded by itself since regions can change on any Thread.
+     */
+    private ArrayList<OutputRegion> changedRegions;
+
+    /**
+     * Combines region changes into a single update on the Event Dispatch
+     * Thread per frame.
+     */
+    private FrameScheduler regionScheduler;
+
+    /**
+     * The number of exports that are reading the Document, while it's more
+     * than 0 the scrollback isn't trimmed and OutputRegions aren't rewritten
+     * so the text being exported stays as it was. Only used on the Event
+     * Dispatch Thread.
+     */
+    private int runningExports = 0;
+
     // Default text variables
+    /**
+     * The names of the role Styles of the <code>styleCache</code>, text
+     * printed in the <code>defaultColor</code>, <code>systemColor</code>,
+     * <code>errorColor</code> or <code>inputColor</code> is printed with the
+     * role's Style so it's recolored when the color of the role changes.
+     */
+    private static final String DEFAULT_ROLE = "defaultColor";
+    private static final String SYSTEM_ROLE = "systemColor";
+    private static final String ERROR_ROLE = "errorColor";
+    private static final String INPUT_ROLE = "inputColor";
+
     /**
      * The two character Default Style that text will use. This is the DCCC
      * for the Style without the <code>colorCodeChar</code>.
@@ -369,7 +459,20 @@ public class DragonConsole extends JPanel implements KeyListener,
      * appended if no new ANSI style is specified. This value is null until
      * <code>setUseANSIColorCodes(true);</code> is called.
      */
-    private SimpleAttributeSet ANSIStyle = null;
+    private AttributeSet ANSIStyle = null;
+
+    /**
+     * The colors set by the ANSI codes processed so far, the
+     * <code>ANSIStyle</code> is taken from the <code>ANSIStyles</code> for
+     * them.
+     */
+    private SGRState ANSIState = new SGRState();
+
+    /**
+     * The shared AttributeSets for every combination of ANSI colors used so
+     * far, the same combination always uses the same AttributeSet.
+     */
+    private ANSIStylePool ANSIStyles = new ANSIStylePool(null);
 
     /**
      * The two character DCCC that represents the current DCCC to use to style
@@ -379,6 +482,84 @@ public class DragonConsole extends JPanel implements KeyListener,
      */
     private String currentStyle = defaultColor;
 
+    /**
+     * The role text is currently printed in, which is the
+     * <code>defaultColor</code> until a DCCC sets an explicit color and again
+     * after a DCCC resets to the default. Text printed in a role follows the
+     * role when it's color is changed, text printed with an explicit DCCC
+     * keeps that DCCC's colors. <code>null</code> when an explicit DCCC is
+     * in use.
+     */
+    private String currentRole = DEFAULT_ROLE;
+
+    // Output Queue
+    /**
+     * The queue that holds all output appended to the console until it is
+     * flushed to the Document on the Event Dispatch Thread.
+     */
+    private OutputQueue outputQueue;
+
+    /**
+     * Text that has been printed during the current flush but has not yet been
+     * inserted into the Document, stored as runs of text with their styles.
+     */
+    private StyledRuns pendingRuns = new StyledRuns();
+
+    /**
+     * The MarkupTokenizer used to find the color codes, ANSI codes and input
+     * scripts in output passed to <code>append(String)</code>.
+     */
+    private MarkupTokenizer outputTokenizer = new MarkupTokenizer(colorCodeChar);
+
+    /**
+     * Receives the tokens from the <code>outputTokenizer</code> and prints
+     * them according to the current style.
+     */
+    private OutputHandler outputHandler = new OutputHandler();
+
+    /**
+     * <code>true</code> while the console is flushing the
+     * <code>outputQueue</code>, while this is set printed text is collected in
+     * <code>pendingRuns</code> instead of being inserted right away.
+     */
+    private boolean isFlushing = false;
+
+    /**
+     * The number of characters read from a stream at a time by
+     * <code>appendStream</code>.
+     */
+    private static final int STREAM_CHUNK_SIZE = 4096;
+
+    // Scrollback
+    /**
+     * The maximum number of lines kept in the console, older lines are removed
+     * once there are more. A value of 0 means the number of lines is not
+     * limited.
+     */
+    private int maxScrollbackLines = 0;
+
+    /**
+     * The maximum number of characters kept in the console, older lines are
+     * removed once there are more. A value of 0 means the number of characters
+     * is not limited.
+     */
+    private int maxScrollbackChars = 0;
+
+    /**
+     * When the scrollback grows past one of it's limits it is trimmed to this
+     * percentage of the limit, so that old output is removed in batches
+     * instead of a line at a time with every append.
+     */
+    private static final int SCROLLBACK_TRIM_PERCENT = 90;
+
+    // Rendering
+    /**
+     * Determines if the console text is painted by a ConsoleView on a fixed
+     * monospace grid instead of the views of the JTextPane, by default this
+     * value is <code>false</code>.
+     */
+    private boolean useGridRenderer = false;
+
     /**
      * Default Constructor uses all the default values.
      */
@@ -477,7 +658,9 @@ public class DragonConsole extends JPanel implements KeyListener,
      * Set the background to White and the foreground text to Black to mimic
      * the default color settings of a Mac Terminal.
      * Also changes the defaultColor, systemColor, and errorColor codes so
-     * that they take into account the new background/foreground colors.
+     * that they take into account the new background/foreground colors. The
+     * text already in the console is kept, text printed in these colors is
+     * recolored to the new ones.
      */
     public void setMacStyle() {
         consolePane.setBackground(defaultMacBackground);
@@ -493,17 +676,16 @@ public class DragonConsole extends JPanel implements KeyListener,
         errorColor = "rw";
         inputColor = "bw";
 
-        setInputAttribute();
+        setRoleStyles();
         if (!useInlineInput)
             consolePrompt.setDefaultColor(defaultColor);
-        clearConsole();
-        printDefault();
     }
 
     /** 
      * Sets the default styles so the console colors mimic that of a standard
      * Gray on Black color setting. Sets the default colors for defaultColor,
-     * systemColor, and errorColor.
+     * systemColor, and errorColor. The text already in the console is kept,
+     * text printed in these colors is recolored to the new ones.
      */
     public void setDefaultStyle() {
         consolePane.setBackground(defaultBackground);
@@ -519,11 +701,9 @@ public class DragonConsole extends JPanel implements KeyListener,
         errorColor = "rb";
         inputColor = "xb";
 
-        setInputAttribute();
+        setRoleStyles();
         if (!useInlineInput)
             consolePrompt.setDefaultColor(defaultColor);
-        clearConsole();
-        printDefault();
     }
 
     /** 
@@ -531,7 +711,29 @@ public class DragonConsole extends JPanel implements KeyListener,
      * a "reset."
      */
     public void clearConsole() {
+        cancelPaste();
+        outputQueue.clear();
+        pendingRuns.clear();
         inputControl.clearText();
+
+        for (int i = 0; i < regions.size(); i++)
+            regions.get(i).detach();
+        regions.clear();
+    }
+
+    /**
+     * Points the role Styles at the current <code>defaultColor</code>,
+     * <code>systemColor</code>, <code>errorColor</code> and
+     * <code>inputColor</code>. This only changes the few role Styles, the text
+     * printed with them is repainted in it's new colors.
+     */
+    private void setRoleStyles() {
+        styleCache.setRole(DEFAULT_ROLE, defaultColor);
+        styleCache.setRole(SYSTEM_ROLE, systemColor);
+        styleCache.setRole(ERROR_ROLE, errorColor);
+        styleCache.setRole(INPUT_ROLE, inputColor);
+
+        setInputAttribute();
     }
 
     /**
@@ -539,7 +741,7 @@ public class DragonConsole extends JPanel implements KeyListener,
      * with the AttributeSet (Style) that has been specified for input.
      */
     private void setInputAttribute() {
-        inputControl.setInputAttributeSet(consoleStyledDocument.getStyle(inputColor));
+        inputControl.setInputAttributeSet(styleCache.getStyle(INPUT_ROLE));
 
         if (!useInlineInput) {
             inputArea.setForeground(getStyleColorFromCode(inputColor.charAt(0))); // Foreground
@@ -548,7 +750,7 @@ public class DragonConsole extends JPanel implements KeyListener,
     }
 
     /** 
-     * Scans the list of TextColors added to the console for one matching the
+     * Looks up the TextColor added to the console matching the
      * <code>char code</code> passed and returns the Color that corresponds to
      * the <code>char code</code> given. If no Color that matches the
      * <code>code</code> is found returns <code>Color.WHITE</code>
@@ -558,13 +760,11 @@ public class DragonConsole extends JPanel implements KeyListener,
      *  White if none is found.
      */
     private Color getStyleColorFromCode(char code) {
-        for (int i = 0; i < textColors.size(); i++) {
-            TextColor tc = textColors.get(i);
-            if (tc.equals(code))
-                return tc.getColor();
-        }
+        Color color = palette.getColor(code);
+        if (color == null)
+            return Color.WHITE;
 
-        return Color.WHITE;
+        return color;
     }
 
     /** 
@@ -583,6 +783,123 @@ public class DragonConsole extends JPanel implements KeyListener,
         this.alwaysKeepScrollBarMaxed = alwaysScrollMax;
     }
 
+    /**
+     * Limits the number of lines the console keeps. When there are more lines
+     * than this the oldest lines are removed, in batches, so that roughly 90%
+     * of the limit remains. Passing 0 removes the limit.
+     * @param maxScrollbackLines The maximum number of lines to keep, or 0 to
+     *  keep all lines.
+     */
+    public void setMaxScrollbackLines(int maxScrollbackLines) {
+        this.maxScrollbackLines = Math.max(maxScrollbackLines, 0);
+        trimScrollback();
+    }
+
+    /**
+     * Returns the maximum number of lines the console keeps.
+     * @return The maximum number of lines, or 0 if it's not limited.
+     */
+    public int getMaxScrollbackLines() {
+        return maxScrollbackLines;
+    }
+
+    /**
+     * Limits the number of characters the console keeps. When there are more
+     * characters than this the oldest lines are removed, in batches, so that
+     * roughly 90% of the limit remains. Passing 0 removes the limit.
+     * @param maxScrollbackChars The maximum number of characters to keep, or 0
+     *  to keep all characters.
+     */
+    public void setMaxScrollbackChars(int maxScrollbackChars) {
+        this.maxScrollbackChars = Math.max(maxScrollbackChars, 0);
+        trimScrollback();
+    }
+
+    /**
+     * Returns the maximum number of characters the console keeps.
+     * @return The maximum number of characters, or 0 if it's not limited.
+     */
+    public int getMaxScrollbackChars() {
+        return maxScrollbackChars;
+    }
+
+    /**
+     * Sets what happens when output is appended faster than the console can
+     * display it and the output queue is full. By default the appending
+     * Thread is blocked until there is room. Output appended on the Event
+     * Dispatch Thread is never blocked or dropped. The PrintStreams of
+     * <code>asPrintStream</code> never block, with
+     * <code>BACKPRESSURE_BLOCK</code> their output is dropped instead.
+     * @param policy <code>BACKPRESSURE_BLOCK</code>,
+     *  <code>BACKPRESSURE_DROP</code> or <code>BACKPRESSURE_SUMMARIZE</code>.
+     */
+    public void setBackpressurePolicy(int policy) {
+        outputQueue.setPolicy(policy);
+    }
+
+    /**
+     * Returns what happens when the output queue is full.
+     * @return <code>BACKPRESSURE_BLOCK</code>, <code>BACKPRESSURE_DROP</code>
+     *  or <code>BACKPRESSURE_SUMMARIZE</code>.
+     */
+    public int getBackpressurePolicy() {
+        return outputQueue.getPolicy();
+    }
+
+    /**
+     * Sets the maximum number of characters that can wait in the output queue
+     * before the backpressure policy is applied.
+     * @param maxQueuedChars The maximum number of queued characters, 0 means
+     *  the output queue is not bounded (the default).
+     */
+    public void setMaxQueuedChars(int maxQueuedChars) {
+        outputQueue.setMaxQueuedCharacters(maxQueuedChars);
+    }
+
+    /**
+     * Returns the maximum number of characters that can wait in the output
+     * queue.
+     * @return The maximum number of queued characters, 0 if the output queue
+     *  is not bounded.
+     */
+    public int getMaxQueuedChars() {
+        return outputQueue.getMaxQueuedCharacters();
+    }
+
+    /**
+     * Returns the number of appended Strings waiting to be displayed.
+     * @return The depth of the output queue.
+     */
+    public int getQueuedOutputCount() {
+        return outputQueue.getQueuedEntries();
+    }
+
+    /**
+     * Returns the number of characters waiting to be displayed.
+     * @return The number of characters in the output queue.
+     */
+    public int getQueuedOutputChars() {
+        return outputQueue.getQueuedCharacters();
+    }
+
+    /**
+     * Returns the total number of lines of output thrown away by the
+     * backpressure policy.
+     * @return The number of dropped lines.
+     */
+    public long getDroppedOutputLines() {
+        return outputQueue.getDroppedLines();
+    }
+
+    /**
+     * Returns the total number of characters of output thrown away by the
+     * backpressure policy.
+     * @return The number of dropped characters.
+     */
+    public long getDroppedOutputChars() {
+        return outputQueue.getDroppedCharacters();
+    }
+
     /** 
      * This method is overridden so that it will change the Maximum, Minimum,
      * and Preferred Size, as well as call the super.setSize(dim) method.
@@ -625,33 +942,54 @@ public class DragonConsole extends JPanel implements KeyListener,
         // Navigating Previous Entries default behaviour
         //  Default holds 10 values, most recent entry at index 0, and oldest at
         //  the end.
-        previousEntries = new ArrayList<String>();
-        numberOfPreviousEntries = 10;
+        history = new MemoryHistory(10);
         currentPreviousEntry = 0;
 
-        // Initialzie textColors ArrayList
-        textColors = new ArrayList<TextColor>();
+        // Initialzie the Palette of TextColors
+        palette = new Palette();
+
+        // Output is flushed to the Document on the Event Dispatch Thread
+        outputQueue = new OutputQueue(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                flushOutput();
+            }
+        });
+
+        // The JScrollBar is moved to it's max value at most once a frame
+        scrollScheduler = new FrameScheduler(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                scrollToMax();
+            }
+        });
+
+        // OutputRegions are rewritten at most once a frame as well
+        regions = new ArrayList<OutputRegion>();
+        changedRegions = new ArrayList<OutputRegion>();
+        regionScheduler = new FrameScheduler(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                updateRegions();
+            }
+        });
 
         // Create a new input controller
         inputControl = new InputController(null);
 
         // Initialize consolePrompt
-        consolePrompt = new PromptPanel(">> ", defaultColor);
+        consolePrompt = new PromptPanel(">> ", defaultColor, palette);
 
         // Setting the Font properly for the Prompt
         consoleFont = FileProcessor.getConsoleFont().deriveFont(Font.PLAIN, 14f);
         consolePrompt.setPromptFont(consoleFont);
 
         if (useInlineInput) {
-            consolePane = new JTextPane() {
+            consolePane = new JTextPane(new ConsoleDocument()) {
                 @Override
                 public void paste() {
                     try {
                         String pasteText = (String)(Toolkit.getDefaultToolkit()
                                 .getSystemClipboard()
                                 .getData(DataFlavor.stringFlavor));
-                        getDocument().insertString(getCaretPosition(),
-                                pasteText, null);
+                        pasteInput(pasteText);
                     } catch (Exception exc) {
                         JOptionPane.showMessageDialog(this,
                                 "Error #0001\nFailed to paste text to the "
@@ -665,11 +1003,15 @@ public class DragonConsole extends JPanel implements KeyListener,
             consolePane.addCaretListener(this);
 
         } else {
-            consolePane = new JTextPane();
+            consolePane = new JTextPane(new ConsoleDocument());
             //consolePane.setFocusable(false);
             consolePane.setEditable(false);
         }
 
+        // Recoloring printed text only repaints it with the ConsoleEditorKit,
+        // it installs a new ConsoleDocument of it's own
+        consolePane.setEditorKit(new ConsoleEditorKit(useGridRenderer));
+
         consolePane.setBackground(defaultBackground);
         consolePane.setForeground(defaultForeground);
         consolePane.setCaretColor(defaultCaret);
@@ -697,6 +1039,7 @@ public class DragonConsole extends JPanel implements KeyListener,
 
         // Get the outputPanes StyledDocument and add the DocumentFilter to it
         consoleStyledDocument = consolePane.getStyledDocument();
+        styleCache = new StyleCache(consoleStyledDocument, palette);
 
         if (useInlineInput)
             ((AbstractDocument)consoleStyledDocument).setDocumentFilter(inputControl);
@@ -731,6 +1074,7 @@ public class DragonConsole extends JPanel implements KeyListener,
 
         setOutputStyles();
         setDefaultStyle();
+        printDefault();
     }
 
     /** 
@@ -810,7 +1154,7 @@ public class DragonConsole extends JPanel implements KeyListener,
      */
     public void setInputColor(String inputColor) {
         this.inputColor = inputColor;
-        setInputAttribute();
+        setRoleStyles();
     }
 
     /** 
@@ -834,6 +1178,8 @@ public class DragonConsole extends JPanel implements KeyListener,
      */
     public void setColorCodeChar(char colorCodeChar) {
         this.colorCodeChar = colorCodeChar;
+        outputTokenizer.setColorCodeChar(colorCodeChar);
+        outputQueue.setColorCodeChar(colorCodeChar);
     }
 
     /** 
@@ -849,41 +1195,88 @@ public class DragonConsole extends JPanel implements KeyListener,
     }
 
     /**
-     * Sets the default output color for all uncolored text.
+     * Sets the default output color for all uncolored text, text already
+     * printed in the default color is recolored.
      * @param defaultColor The new default color for console text.
      */
     public void setDefaultColor(String defaultColor) {
         this.defaultColor = defaultColor;
+        setRoleStyles();
     }
 
     /**
-     * Sets the default color for all Error messages sent to the console.
+     * Sets the default color for all Error messages sent to the console, text
+     * already printed in the error color is recolored.
      * @param errorColor The new color for default error messages.
      */
     public void setErrorColor(String errorColor) {
         this.errorColor = errorColor;
+        setRoleStyles();
     }
 
     /**
-     * Sets the default font for the console and changes the styles to match.
+     * Sets the default font for the console. The Font is set on the
+     * consolePane, which keeps it in the default Style of the Document that
+     * every Style of the console resolves to, so the text is only laid out
+     * again and none of it's attributes are changed.
      * @param consoleFont The new Font for the console to use.
      */
     public void setConsoleFont(Font consoleFont) {
         this.consoleFont = consoleFont;
-        this.setOutputStyles();
         consolePane.setFont(consoleFont);
         inputArea.setFont(consoleFont);
         consolePrompt.setPromptFont(consoleFont);
+    }
+
+    /**
+     * Sets whether the console text is painted on a fixed monospace grid by a
+     * ConsoleView. The grid renderer only paints the lines that are visible
+     * and works out where each line is instead of laying out the whole
+     * Document, so it stays fast no matter how much text the console holds.
+     * Long lines are not wrapped by the grid renderer, they scroll
+     * horizontally instead. Either way recoloring printed text only repaints
+     * the console.
+     * @param useGridRenderer <code>true</code> to paint the console on a
+     *  monospace grid, or <code>false</code> to use the default JTextPane
+     *  views.
+     */
+    public void setUseGridRenderer(boolean useGridRenderer) {
+        if (this.useGridRenderer == useGridRenderer)
+            return;
+
+        this.useGridRenderer = useGridRenderer;
+
+        // Changing the EditorKit briefly installs a new Document, the caret
+        // must not be checked against the input range while it's there
+        int caretPosition = consolePane.getCaretPosition();
+        consolePane.removeCaretListener(this);
+
+        consolePane.setEditorKit(new ConsoleEditorKit(useGridRenderer));
+        consolePane.setStyledDocument(consoleStyledDocument);
+        consolePane.setCaretPosition(Math.min(caretPosition,
+                consoleStyledDocument.getLength()));
+
+        if (useInlineInput)
+            consolePane.addCaretListener(this);
+    }
 
-        DocumentStyler.changeFont(consoleStyledDocument, consoleFont);
+    /**
+     * Returns <code>true</code> if the console text is painted on a fixed
+     * monospace grid.
+     * @return <code>true</code> if the grid renderer is in use.
+     */
+    public boolean isUseGridRenderer() {
+        return this.useGridRenderer;
     }
 
     /**
-     * Sets the default system color for system messages passed to the console.
+     * Sets the default system color for system messages passed to the console,
+     * text already printed in the system color is recolored.
      * @param systemColor The new color for default system messages.
      */
     public void setSystmeColor(String systemColor) {
         this.systemColor = systemColor;
+        setRoleStyles();
     }
 
     /** 
@@ -932,71 +1325,58 @@ public class DragonConsole extends JPanel implements KeyListener,
      * Removes a TextColor from the list of TextColors added to the Console that
      * matches the character code provided. If no such TextColor is found this
      * method will return null. If a TextColor was successfully removed from the
-     * list of TextColors then it will also purge the StyledDocument of all
-     * Styles containing the Color so that it will no longer render.
+     * list of TextColors the cached Styles using it are removed from the
+     * StyledDocument, text already printed with it keeps it's colors and new
+     * text can no longer use the code.
      * @param code The Character code of the TextColor to remove.
      * @return The TextColor object that was removed, or null if nothing was
      *  removed.
      */
     public TextColor removeTextColor(char code) {
-        TextColor test = TextColor.getTestTextColor(code);
-        for (int i = 0; i < textColors.size(); i++) {
-            if (textColors.get(i).equals(test)) {
-                TextColor remove = textColors.remove(i);
-                DocumentStyler.removeColor(consoleStyledDocument, remove, 
-                        textColors);
-
-                if (!useInlineInput)
-                    consolePrompt.removeColor(remove);
+        TextColor remove = palette.remove(code);
+        if (remove != null) {
+            styleCache.removeColor(remove.getCharCode());
 
-                return remove;
-            }
+            if (!useInlineInput)
+                consolePrompt.repaint();
         }
 
-        return null;
+        return remove;
     }
 
     /** 
-     * This method will remove all TextColors from the Console as well as the
-     * StyledDocument so they will no longer Render.
+     * This method will remove all TextColors from the Console as well as their
+     * cached Styles from the StyledDocument, text already printed keeps it's
+     * colors and new text can't use any code until TextColors are added again.
      */
     public void clearTextColors() {
-        for (int i = 0; i < textColors.size(); i++) {
-            TextColor temp = textColors.get(i);
-            DocumentStyler.removeColor(consoleStyledDocument, temp, textColors);
-        }
-
-        textColors.clear();
+        styleCache.clear();
+        palette.clear();
         if (!useInlineInput)
-            consolePrompt.clearColors();
+            consolePrompt.repaint();
     }
 
     /** 
      * Removes a TextColor from the list of TextColors added to the Console that
      * matches the Color provided. If no such TextColor is found this
      * method will return null. If a TextColor was successfully removed from the
-     * list of TextColors then it will also purge the StyledDocument of all
-     * Styles containing the Color so that it will no longer render.
+     * list of TextColors the cached Styles using it are removed from the
+     * StyledDocument, text already printed with it keeps it's colors and new
+     * text can no longer use the code.
      * @param color The Color of the TextColor to remove.
      * @return The TextColor object that was removed, or null if nothing was
      *  removed.
      */
     public TextColor removeTextColor(Color color) {
-        TextColor test = TextColor.getTestTextColor(color);
-        for (int i = 0; i < textColors.size(); i++) {
-            if (textColors.get(i).equals(test)) {
-                TextColor remove = textColors.remove(i);
-                DocumentStyler.removeColor(consoleStyledDocument, remove,
-                        textColors);
-
-                if (!useInlineInput)
-                    consolePrompt.removeColor(remove);
+        TextColor remove = palette.remove(color);
+        if (remove != null) {
+            styleCache.removeColor(remove.getCharCode());
 
-                return remove;
-            }
+            if (!useInlineInput)
+                consolePrompt.repaint();
         }
 
-        return null;
+        return remove;
     }
 
     /** 
@@ -1010,32 +1390,27 @@ public class DragonConsole extends JPanel implements KeyListener,
      *  Character Code.
      */
     private boolean containsColorCode(char code) {
-        TextColor test = TextColor.getTestTextColor(code);
-
-        return textColors.contains(test);
+        return palette.contains(code);
     }
 
     /** 
      * This method takes a Character Code identifier to find the TextColor that
-     * the new Color should be added to.
+     * the new Color should be added to. The Styles using the code are changed
+     * in place, so text already printed with the code is recolored.
      * @param code The Character Code Identifier used to search for the
      *  TextColor.
      * @param newColor The New Color for the given TextColor.
      */
     public void updateTextColor(char code, Color newColor) {
-        TextColor removed = removeTextColor(code);
-
-        if (removed != null) {
+        if (palette.contains(code)) {
             try {
-                addTextColor(code, newColor);
+                addTextColor(code, newColor); // Replaces the old color
             } catch (Exception exc) {
                 JOptionPane.showMessageDialog(this,
                         "Error #0004\n"
                       + "Failed to update the TextColor!\n"
                       + exc.getMessage(),
                       "Error Caught", JOptionPane.ERROR_MESSAGE);
-            } finally {
-                textColors.add(removed);
             }
         }
     }
@@ -1053,13 +1428,13 @@ public class DragonConsole extends JPanel implements KeyListener,
             try {
                 addTextColor(newCode, color);
             } catch (Exception exc) {
+                palette.add(removed); // Keep the old color
+
                 JOptionPane.showMessageDialog(this,
                         "Error #0004\n"
                       + "Failed to update the TextColor!\n"
                       + exc.getMessage(),
                       "Error Caught", JOptionPane.ERROR_MESSAGE);
-            } finally {
-                textColors.add(removed);
             }
         }
     }
@@ -1068,6 +1443,8 @@ public class DragonConsole extends JPanel implements KeyListener,
      * This method adds a new Character to the Console with the given
      * Character code and Color. If '0' (zero) or '-' (hyphen) are passed as a
      * Character code then this method will throw an InvalidCharCodeException.
+     * If there already is a TextColor with the code it's replaced and the text
+     * printed with it is recolored.
      * @param code The Character code for the new TextColor.
      * @param color The background color for the new Character code.
      * @throws
@@ -1076,12 +1453,12 @@ public class DragonConsole extends JPanel implements KeyListener,
     public void addTextColor(char code, Color color) 
             throws com.eleet.dragonconsole.util.TextColor.InvalidCharCodeException {
         TextColor newColor = new TextColor(code, color);
-        textColors.add(newColor);
+        palette.add(newColor);
         if (!useInlineInput)
-            consolePrompt.addColor(newColor);
+            consolePrompt.repaint();
 
-        consoleStyledDocument =
-                DocumentStyler.addNewColor(consoleStyledDocument, consoleFont, newColor, textColors);
+        // Styles that used an earlier color with this code are recolored
+        styleCache.updateColor(code);
     }
 
     /** 
@@ -1152,7 +1529,7 @@ public class DragonConsole extends JPanel implements KeyListener,
      *  ANSI Codes.
      */
     public String convertToANSIColors(String toConvert) {
-        return ANSI.convertDCtoANSIColors(toConvert, textColors, colorCodeChar);
+        return ANSI.convertDCtoANSIColors(toConvert, palette, colorCodeChar);
     }
 
     /** 
@@ -1164,7 +1541,34 @@ public class DragonConsole extends JPanel implements KeyListener,
      *  DragonConsole Codes.
      */
     public String convertToDCColors(String toConvert) {
-        return ANSI.convertANSIToDCColors(toConvert, textColors, colorCodeChar, defaultColor);
+        return ANSI.convertANSIToDCColors(toConvert, palette, colorCodeChar, defaultColor);
+    }
+
+    /**
+     * Converts the DragonConsole Color Codes in everything read from the
+     * Reader into their ANSI equivalent and writes it to the Writer. The text
+     * is converted in a single pass as it's read, so this should be used for
+     * large text like log files. Neither stream is closed.
+     * @param in The Reader the text to convert is read from.
+     * @param out The Writer the converted text is written to.
+     * @throws IOException If reading or writing fails.
+     */
+    public void convertToANSIColors(Reader in, Writer out) throws IOException {
+        ANSI.convertDCtoANSIColors(in, out, palette, colorCodeChar);
+    }
+
+    /**
+     * Converts the ANSI Color Codes in everything read from the Reader into
+     * their DragonConsole Color Code equivalent and writes it to the Writer.
+     * The text is converted in a single pass as it's read, so this should be
+     * used for large text like log files. Neither stream is closed.
+     * @param in The Reader the text to convert is read from.
+     * @param out The Writer the converted text is written to.
+     * @throws IOException If reading or writing fails.
+     */
+    public void convertToDCColors(Reader in, Writer out) throws IOException {
+        ANSI.convertANSIToDCColors(in, out, palette, colorCodeChar,
+                defaultColor);
     }
 
     /** 
@@ -1172,99 +1576,657 @@ public class DragonConsole extends JPanel implements KeyListener,
      * processing it for scripts or color codes. This would be used if you
      * wanted to directly post user input to the console to prevent the user
      * from creating his/her own input areas that would cause issues with your
-     * program.
+     * program. This method can be called from any Thread.
      * @param ouput The output to print.
      */
     public void appendWithoutProcessing(String ouput) {
-        print(ouput, defaultColor);
-        inputControl.setBasicInput(consoleStyledDocument.getLength());
+        enqueueOutput(OutputQueue.PLAIN, ouput, DEFAULT_ROLE);
     }
 
     /**
      * Processes a String and prints the String according to all embedded
      * color codes. If called from the CommandProcessor you can add in your
-     * own color codes to the String to give a "System" color.
+     * own color codes to the String to give a "System" color.<br /><br />
+     * This method can be called from any Thread. When called from the Event
+     * Dispatch Thread the output is added to the console right away, otherwise
+     * it's queued and all output queued during the same frame is added to the
+     * console together.
      * @param outputToProcess The string to be color coded and printed.
      */
     public void append(String outputToProcess) {
-        if (!ignoreInput && inputCarryOver && inputControl.isReceivingInput()) {
-            inputControl.storeInput();
+        enqueueOutput(OutputQueue.PROCESS, outputToProcess, null);
+    }
+
+    /**
+     * Prints a compiled ConsoleTemplate with the given values in it's
+     * parameter slots. The template was parsed when it was compiled so only
+     * the values are added to the printed text, they are printed as is with
+     * the style that is current at their slot and are never processed for
+     * color codes. This method can be called from any Thread.
+     * @param template The compiled template to print.
+     * @param values The values for the parameter slots, <code>null</code>
+     *  values are printed as "null".
+     */
+    public void append(ConsoleTemplate template, Object... values) {
+        if (template == null)
+            return;
+
+        String[] strings = new String[(values == null) ? 0 : values.length];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = String.valueOf(values[i]);
+
+        outputQueue.addTemplate(template, strings, template.getLength(strings));
+
+        if (SwingUtilities.isEventDispatchThread())
+            flushOutput();
+    }
+
+    /**
+     * Prints the given text with the <code>defaultColor</code> and returns an
+     * OutputRegion that can rewrite it in place later on. See
+     * <code>appendRegion(String, String)</code>.
+     * @param text The first text of the region.
+     * @return The OutputRegion that follows the printed text.
+     */
+    public OutputRegion appendRegion(String text) {
+        return appendRegion(text, null);
+    }
+
+    /**
+     * Prints the given text with the given style and returns an OutputRegion
+     * that can rewrite it in place later on, which is meant for progress
+     * bars, spinners, counters and other output that changes often. The text
+     * is printed as is, it's not processed for color codes. This method can
+     * be called from any Thread, the region is printed in order with all
+     * other output.
+     * @param text The first text of the region.
+     * @param style The two character DCCC (without the
+     *  <code>colorCodeChar</code>) to print the region with, or
+     *  <code>null</code> for the <code>defaultColor</code>, which follows the
+     *  <code>defaultColor</code> when it's changed.
+     * @return The OutputRegion that follows the printed text.
+     */
+    public OutputRegion appendRegion(String text, String style) {
+        if (text == null)
+            text = "";
+        if (style == null)
+            style = DEFAULT_ROLE;
+
+        OutputRegion region = new OutputRegion(this, text, style);
+        outputQueue.add(OutputQueue.REGION, region, text.length());
+
+        if (SwingUtilities.isEventDispatchThread())
+            flushOutput();
+
+        return region;
+    }
+
+    /**
+     * Reads the given InputStream to it's end, decoding it with the given
+     * Charset, and appends everything read as if it were passed to
+     * <code>append(String)</code>. See <code>appendStream(Reader)</code>.
+     * @param in The InputStream to read, it's closed once it ends.
+     * @param charset The Charset the stream is encoded with.
+     * @return The Thread that reads the stream.
+     */
+    public Thread appendStream(InputStream in, Charset charset) {
+        return appendStream(new InputStreamReader(in, charset));
+    }
+
+    /**
+     * Reads the given Reader to it's end and appends everything read as if it
+     * were passed to <code>append(String)</code>. The Reader is read in chunks
+     * on a new Thread, never on the Event Dispatch Thread, and each chunk is
+     * queued for the console as soon as it's read. The parse state is carried
+     * from one chunk to the next so a DCCC, ANSI code or input script that is
+     * split between two chunks is still processed correctly. If the output
+     * queue is full the reading Thread is held back by the backpressure
+     * policy.
+     * @param reader The Reader to read, it's closed once it ends.
+     * @return The Thread that reads the stream, it can be joined to wait for
+     *  the whole stream to be queued.
+     */
+    public Thread appendStream(final Reader reader) {
+        final StreamTokenizer tokenizer = new StreamTokenizer(colorCodeChar);
+
+        Thread pump = new Thread("DragonConsole Stream") {
+            @Override
+            public void run() {
+                char[] buffer = new char[STREAM_CHUNK_SIZE];
+                try {
+                    int read;
+                    while ((read = reader.read(buffer)) != -1) {
+                        if (read > 0)
+                            outputQueue.addStream(tokenizer,
+                                    new String(buffer, 0, read), false);
+                    }
+                } catch (final IOException exc) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            JOptionPane.showMessageDialog(null,
+                                    "Error #0015\n"
+                                  + "Failed to read the stream!\n"
+                                  + exc.getMessage(),
+                                  "Error Caught", JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException exc) { }
+
+                    outputQueue.addStream(tokenizer, "", true);
+                }
+            }
+        };
+
+        pump.setDaemon(true);
+        pump.start();
+
+        return pump;
+    }
+
+    /**
+     * Returns a PrintStream that prints everything written to it in the
+     * console with the given style, the text is not processed for color codes
+     * or input scripts. The PrintStream is thread-safe and buffered, all of the
+     * text written to it during a frame is added to the console together no
+     * matter how often it's flushed, which makes it suitable for
+     * <code>System.setOut</code> and <code>System.setErr</code>. The bytes
+     * are decoded with the platform's default Charset. Writing to the
+     * PrintStream never waits for the output queue, if it's full the text is
+     * dropped (see <code>setBackpressurePolicy</code>).
+     * @param style The two character DCCC (without the
+     *  <code>colorCodeChar</code>) to print the text with, or
+     *  <code>null</code> for the <code>defaultColor</code>, which follows the
+     *  <code>defaultColor</code> when it's changed.
+     * @return A PrintStream that prints to this console.
+     */
+    public PrintStream asPrintStream(String style) {
+        if (style == null)
+            style = DEFAULT_ROLE;
+
+        return new PrintStream(new ConsoleOutputStream(outputQueue, style,
+                Charset.defaultCharset()), false);
+    }
+
+    /**
+     * Pastes text into the inline input at the caret, this must be called on
+     * the Event Dispatch Thread. How much of the text fits is checked before
+     * anything is pasted, ranged input only takes as much of the first line as
+     * fits in the range. Large pastes into infinite input are inserted a chunk
+     * at a time across several turns of the Event Dispatch Thread so input and
+     * painting never wait on them for more than a frame, the progress is fired
+     * as the <code>PASTE_PROGRESS_PROPERTY</code>. A new paste cancels the
+     * one that is running.
+     * @param text The text to paste.
+     */
+    private void pasteInput(String text) {
+        cancelPaste();
+
+        pasteTask = new PasteTask(consolePane, inputControl, text,
+                new ChangeListener() {
+            private int progress = 0;
+
+            public void stateChanged(ChangeEvent e) {
+                PasteTask task = (PasteTask)e.getSource();
+                int oldProgress = progress;
+                progress = task.getProgress();
+
+                firePropertyChange(PASTE_PROGRESS_PROPERTY, oldProgress, progress);
+                if (task.isDone() && pasteTask == task)
+                    pasteTask = null;
+            }
+        });
+        pasteTask.start();
+    }
+
+    /**
+     * Returns <code>true</code> while text is being pasted into the inline
+     * input a chunk at a time.
+     * @return <code>true</code> if a paste is running.
+     */
+    public boolean isPasting() {
+        return (pasteTask != null);
+    }
+
+    /**
+     * Stops the paste that is running, the text that was already pasted stays
+     * in the input.
+     */
+    public void cancelPaste() {
+        if (pasteTask != null) {
+            PasteTask task = pasteTask;
+            pasteTask = null;
+            task.cancel();
         }
+    }
 
-        boolean hasInput = false;
-        String processed = "";
+    /**
+     * Sets the history the console adds it's input to and the user steps
+     * through with SHIFT + LEFT and SHIFT + RIGHT. By default the console
+     * keeps the last 10 entries in memory, a <code>HistoryFile</code> keeps
+     * every entry on disk across runs. Several consoles can be given the same
+     * CommandHistory to share it.
+     * @param history The new history, which can't be <code>null</code>.
+     */
+    public void setCommandHistory(CommandHistory history) {
+        if (history == null)
+            throw new IllegalArgumentException("history can't be null");
+
+        this.history = history;
+        currentPreviousEntry = history.size();
+    }
 
-        for (int i = 0; i < outputToProcess.length(); i++) {
-            if (outputToProcess.charAt(i) == colorCodeChar) {
-                if ( ((i + 1) < outputToProcess.length()) &&
-                        (outputToProcess.charAt(i + 1) == colorCodeChar)) {
-                    processed += colorCodeChar;
-                    i += 1; // Jump past the - (&&)
+    /**
+     * Returns the history the console adds it's input to.
+     * @return The CommandHistory of the console.
+     */
+    public CommandHistory getCommandHistory() {
+        return history;
+    }
 
-                } else if ((i + 2) < outputToProcess.length()) {
-                    print(processed);
-                    processed = "";
+    /**
+     * Writes everything currently in the console, in it's colors, to the
+     * Writer in the given format (<code>EXPORT_ANSI</code> or
+     * <code>EXPORT_HTML</code>). The export is done on a new Thread, never on
+     * the Event Dispatch Thread, which reads the Document a slice at a time
+     * and writes each slice as it's read, so the console can go on printing
+     * while a large scrollback is exported and the text is never copied as a
+     * whole. Output printed after the export starts is not included. Output
+     * still waiting in the queue is printed first if this is called from the
+     * Event Dispatch Thread.<br /><br />
+     * While the export runs the scrollback isn't trimmed and OutputRegions
+     * aren't rewritten, both are caught up once it's done, so the export is a
+     * snapshot of the console. If the exported text is still changed (by
+     * <code>clearConsole</code>, for example) the export ends with a marker
+     * saying how many characters changed.
+     * @param out The Writer to write to, it's closed once the export is done.
+     * @param format The format of the export.
+     * @return The Thread that writes the export, it can be joined to wait for
+     *  the export to finish.
+     */
+    public Thread export(final Writer out, int format) {
+        final boolean pinned = SwingUtilities.isEventDispatchThread();
+        if (pinned) {
+            flushOutput();
+            runningExports++;
+        }
 
-                    setCurrentStyle(outputToProcess.substring(i + 1, i + 3));
+        final ConsoleExporter exporter = new ConsoleExporter(format,
+                styleCache.getStyle(DEFAULT_ROLE));
+        final StyledDocument doc = consoleStyledDocument;
+
+        Thread writer = new Thread("DragonConsole Export") {
+            @Override
+            public void run() {
+                boolean started = pinned;
+                try {
+                    if (!started) {
+                        SwingUtilities.invokeAndWait(new Runnable() {
+                            public void run() {
+                                runningExports++;
+                            }
+                        });
+                        started = true;
+                    }
 
-                    i += 2; // Jump past the two character color code
+                    exporter.write(doc, out);
+                } catch (InterruptedException exc) {
+                } catch (java.lang.reflect.InvocationTargetException exc) {
+                } catch (final IOException exc) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            JOptionPane.showMessageDialog(null,
+                                    "Error #0017\n"
+                                  + "Failed to export the console!\n"
+                                  + exc.getMessage(),
+                                  "Error Caught", JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                } finally {
+                    if (started) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                endExport();
+                            }
+                        });
+                    }
 
-                } else
-                    processed += outputToProcess.charAt(i);
+                    try {
+                        out.close();
+                    } catch (IOException exc) { }
+                }
+            }
+        };
 
-            } else if (outputToProcess.charAt(i) == '\033') {
-                if (outputToProcess.indexOf('m', i) < outputToProcess.length()) {
-                    print(processed);
-                    processed = "";
+        writer.setDaemon(true);
+        writer.start();
 
-                    ANSIStyle = ANSI.getANSIAttribute(ANSIStyle,
-                            outputToProcess.substring(i,
-                                outputToProcess.indexOf('m', i) + 1),
-                            consoleStyledDocument.getStyle(defaultColor));
+        return writer;
+    }
+
+    /**
+     * Called on the Event Dispatch Thread when an export is done, once the
+     * last export is done the scrollback is trimmed and the OutputRegions that
+     * changed in the meantime are rewritten.
+     */
+    private void endExport() {
+        if (--runningExports > 0)
+            return;
+
+        trimScrollback();
+
+        synchronized (changedRegions) {
+            if (changedRegions.isEmpty())
+                return;
+        }
+
+        regionScheduler.request();
+    }
+
+    /**
+     * Redirects <code>System.out</code> to this console with the
+     * <code>defaultColor</code> and <code>System.err</code> with the
+     * <code>errorColor</code>.
+     */
+    public void redirectSystemStreams() {
+        System.setOut(asPrintStream(DEFAULT_ROLE));
+        System.setErr(asPrintStream(ERROR_ROLE));
+    }
 
-                    i = outputToProcess.indexOf('m', i);
+    /**
+     * Adds output to the <code>outputQueue</code> and, if called from the
+     * Event Dispatch Thread, flushes the queue immediately so that output
+     * from the Event Dispatch Thread keeps its order with any output already
+     * queued by other Threads.
+     * @param type The OutputQueue type of the output.
+     * @param output The output text.
+     * @param style The two character style for non processed output.
+     */
+    private void enqueueOutput(int type, String output, String style) {
+        outputQueue.add(type, output, style);
+
+        if (SwingUtilities.isEventDispatchThread())
+            flushOutput();
+    }
+
+    /**
+     * Drains the <code>outputQueue</code> and adds all of the queued output
+     * to the Document. Text is collected and inserted together, and the caret
+     * and JScrollBar are only updated once per flush regardless of how much
+     * output was queued. This method must be called on the Event Dispatch
+     * Thread.
+     */
+    protected void flushOutput() {
+        if (isFlushing)
+            return;
+
+        ArrayList<OutputQueue.Entry> entries = outputQueue.drain();
+        if (entries.isEmpty())
+            return;
+
+        boolean updateCaret = false;
+        isFlushing = true;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                OutputQueue.Entry entry = entries.get(i);
+                outputHandler.discardText = entry.isCollapsed();
+
+                switch (entry.getType()) {
+                    case OutputQueue.PROCESS:
+                        processOutput(entry.getText());
+                        updateCaret = true;
+                        break;
+                    case OutputQueue.PLAIN:
+                        print(entry.getText(), entry.getStyle());
+                        inputControl.setBasicInput(getOutputLength());
+                        break;
+                    case OutputQueue.SUPPRESSED:
+                        printSuppressedMarker(entry.getText());
+                        break;
+                    case OutputQueue.STREAM:
+                        processStream((StreamTokenizer) entry.getTokenizer(),
+                                entry.getText(), entry.isEndOfStream());
+                        updateCaret = true;
+                        break;
+                    case OutputQueue.TEMPLATE:
+                        processTemplate((ConsoleTemplate) entry.getData(),
+                                entry.getValues());
+                        updateCaret = true;
+                        break;
+                    case OutputQueue.REGION:
+                        printRegion((OutputRegion) entry.getData());
+                        updateCaret = true;
+                        break;
+                    default:
+                        print(entry.getText(), entry.getStyle());
+                        break;
                 }
-            } else if (outputToProcess.charAt(i) == '%' && !ignoreInput) {
+            }
+        } finally {
+            outputHandler.discardText = false;
+            isFlushing = false;
+            printPendingOutput();
+        }
 
-                if ((i + 1) < outputToProcess.length() &&
-                        outputToProcess.charAt(i + 1) == '%') {
-                    processed += "%";
-                    i += 1; // Jump past the "%%"
+        if (updateCaret)
+            setConsoleCaretPosition();
+    }
 
-                } else if (outputToProcess.indexOf(';', i) > i) {
-                    if (outputToProcess.charAt(i + 1) == 'i') {
-                        hasInput = true;
-                        String inputCommand = outputToProcess.substring(i, outputToProcess.indexOf(';', i) + 1);
+    /**
+     * Prints the first text of an OutputRegion and starts following it. The
+     * region's latest text is printed, so any change made while it was queued
+     * is already included.
+     * @param region The OutputRegion to print.
+     */
+    private void printRegion(OutputRegion region) {
+        region.start = getOutputLength();
+        region.shownText = region.getText();
 
-                        if (inputControl.setInputStyle(inputCommand)) {
-                            print(processed);
-                            processed = "";
+        print(region.shownText, region.getStyle());
+        inputControl.setBasicInput(getOutputLength());
 
-                            inputControl.setRangeStart(consoleStyledDocument.getLength());
-                            print(inputControl.getInputRangeString(), defaultColor); // Print the blank space if the input is not infinite
+        if (region.isActive())
+            regions.add(region);
+    }
 
-                        } else {
-                            outputToProcess = ""; // Clear out the output to process if input is infinite, which means anything after the input string is ignored.
-                            
-                            print(processed);
-                            processed = "";
+    /**
+     * Marks an OutputRegion as changed so that it's rewritten with the next
+     * frame, called by the region from any Thread.
+     * @param region The OutputRegion that changed.
+     */
+    void scheduleRegionUpdate(OutputRegion region) {
+        synchronized (changedRegions) {
+            if (!changedRegions.contains(region))
+                changedRegions.add(region);
+        }
 
-                            inputControl.setRangeStart(consoleStyledDocument.getLength());
-                        }
+        regionScheduler.request();
+    }
 
-                        i = outputToProcess.indexOf(';', i);
-                    }
-                } else
-                    processed += outputToProcess.charAt(i);
-            } else
-                processed += outputToProcess.charAt(i);
+    /**
+     * Writes the latest text of every OutputRegion that changed during the
+     * last frame to the Document. Only the characters between the text the old
+     * and new text have in common at their start and end are replaced, and
+     * every region and the input that follow a region are moved by the change
+     * in it's length. Released regions are forgotten once their last text has
+     * been written. Nothing is written while an export is running, the
+     * regions stay changed until it's done.
+     */
+    private void updateRegions() {
+        if (runningExports > 0)
+            return;
+
+        ArrayList<OutputRegion> changed;
+        synchronized (changedRegions) {
+            changed = new ArrayList<OutputRegion>(changedRegions);
+            changedRegions.clear();
+        }
+
+        // Print any queued output first, a region may still be in the queue
+        flushOutput();
+
+        boolean rewritten = false;
+        for (int i = 0; i < changed.size(); i++) {
+            OutputRegion region = changed.get(i);
+            int index = regions.indexOf(region);
+            if (index == -1)
+                continue;
+
+            String oldText = region.shownText;
+            String newText = region.getText();
+            if (!newText.equals(oldText)) {
+                int oldLength = oldText.length();
+                int newLength = newText.length();
+                int maxCommon = Math.min(oldLength, newLength);
+
+                int prefix = 0;
+                while (prefix < maxCommon
+                        && oldText.charAt(prefix) == newText.charAt(prefix))
+                    prefix++;
+
+                int suffix = 0;
+                while (suffix < maxCommon - prefix
+                        && oldText.charAt(oldLength - 1 - suffix)
+                        == newText.charAt(newLength - 1 - suffix))
+                    suffix++;
+
+                boolean replaced = inputControl.replaceOutput(
+                        region.start + prefix, oldLength - prefix - suffix,
+                        newText.substring(prefix, newLength - suffix),
+                        styleCache.getStyle(region.getStyle()));
+
+                if (!replaced) {
+                    region.detach();
+                    regions.remove(index);
+                    continue;
+                }
+
+                int delta = newLength - oldLength;
+                for (int j = index + 1; j < regions.size(); j++)
+                    regions.get(j).start += delta;
+
+                region.shownText = newText;
+                rewritten = true;
+            }
+
+            if (!region.isActive())
+                regions.remove(index);
+        }
+
+        // The caret follows the edits by itself, only the view may need to
+        // catch up if a region changed how many lines it covers
+        if (rewritten)
+            setScrollBarMax();
+    }
+
+    /**
+     * Prints the marker left in the output where the backpressure policy threw
+     * output away, the marker is printed on a line of it's own with the
+     * <code>systemColor</code>.
+     * @param marker The text of the marker.
+     */
+    private void printSuppressedMarker(String marker) {
+        if (!endsWithNewLine())
+            marker = "\n" + marker;
+
+        print(marker + "\n", SYSTEM_ROLE);
+    }
+
+    /**
+     * Returns <code>true</code> if the output printed so far is empty or ends
+     * with a newline.
+     * @return <code>true</code> if new output would start on a new line.
+     */
+    private boolean endsWithNewLine() {
+        if (!pendingRuns.isEmpty())
+            return (pendingRuns.getText()[pendingRuns.length() - 1] == '\n');
+
+        int length = consoleStyledDocument.getLength();
+        if (length == 0)
+            return true;
+
+        try {
+            return consoleStyledDocument.getText(length - 1, 1).charAt(0) == '\n';
+        } catch (BadLocationException exc) {
+            return true;
         }
-        print(processed);
+    }
 
-        if (!(hasInput))
-            inputControl.setBasicInput(consoleStyledDocument.getLength());
+    /**
+     * Processes a String for color codes, ANSI codes and input scripts and
+     * prints it accordingly. This is the body of <code>append(String)</code>
+     * and is called for each piece of queued output while flushing. The String
+     * is scanned once by the <code>outputTokenizer</code> and the text between
+     * codes is added to the pending output with the style that is current at
+     * that point.
+     * @param outputToProcess The string to be color coded and printed.
+     */
+    private void processOutput(String outputToProcess) {
+        if (!ignoreInput && inputCarryOver && inputControl.isReceivingInput()) {
+            inputControl.storeInput();
+        }
+
+        outputHandler.hasInput = false;
+        outputTokenizer.setProcessInput(!ignoreInput);
+        outputTokenizer.feed(outputToProcess, 0, outputToProcess.length(),
+                outputHandler);
+        outputTokenizer.finish(outputHandler);
 
-        setConsoleCaretPosition();
+        if (!(outputHandler.hasInput))
+            inputControl.setBasicInput(getOutputLength());
+    }
+
+    /**
+     * Processes a chunk of a stream for color codes, ANSI codes and input
+     * scripts. The whole stream is handled like a single String passed to
+     * <code>append(String)</code>: the input is stored before the first chunk
+     * and the console only falls back to basic input once the stream has
+     * ended without an input script. The tokenizer keeps any incomplete code
+     * at the end of a chunk until the next chunk is processed.
+     * @param stream The StreamTokenizer of the stream.
+     * @param chunk The chunk of text read from the stream.
+     * @param endOfStream <code>true</code> if this is the end of the stream.
+     */
+    private void processStream(StreamTokenizer stream, String chunk,
+            boolean endOfStream) {
+        if (!stream.started) {
+            stream.started = true;
+            if (!ignoreInput && inputCarryOver && inputControl.isReceivingInput())
+                inputControl.storeInput();
+        }
+
+        outputHandler.hasInput = stream.hasInput;
+        stream.setProcessInput(!ignoreInput);
+        stream.feed(chunk, 0, chunk.length(), outputHandler);
+
+        if (endOfStream)
+            stream.finish(outputHandler);
+
+        stream.hasInput = outputHandler.hasInput;
+        if (endOfStream && !stream.hasInput)
+            inputControl.setBasicInput(getOutputLength());
+    }
+
+    /**
+     * Prints a compiled template by playing it's parts to the
+     * <code>outputHandler</code>, the same Handler that prints processed
+     * output, so a template behaves exactly like the equivalent String passed
+     * to <code>append(String)</code>.
+     * @param template The template to print.
+     * @param values The values for it's parameter slots.
+     */
+    private void processTemplate(ConsoleTemplate template, String[] values) {
+        if (!ignoreInput && inputCarryOver && inputControl.isReceivingInput()) {
+            inputControl.storeInput();
+        }
+
+        outputHandler.hasInput = false;
+        template.print(outputHandler, values, !ignoreInput);
+
+        if (!(outputHandler.hasInput))
+            inputControl.setBasicInput(getOutputLength());
     }
 
     /** 
@@ -1274,48 +2236,72 @@ public class DragonConsole extends JPanel implements KeyListener,
      *  <code>currentStyle</code>.
      */
     protected void setCurrentStyle(String code) {
-        String oldStyle = currentStyle;
-        currentStyle = "";
-        String newStyle = "";
-        if (code.length() == 2) {
-            if (code.contains("0")) {
-                newStyle = defaultColor;
-            } else if (code.contains("-")) {
-                if (!(code.equals("--"))) {
-                    if (code.charAt(0) == '-')
-                        newStyle = "" + oldStyle.charAt(0) + code.charAt(1);
-                    else
-                        newStyle = "" + code.charAt(0) + oldStyle.charAt(1);
-                }
-            } else
-                newStyle = code;
+        if (code.length() == 2)
+            setCurrentStyle(code.charAt(0), code.charAt(1));
+    }
 
-            if (containsColorCode(newStyle.charAt(0)))
-                currentStyle += "" + newStyle.charAt(0);
-            else
-                currentStyle += "" + oldStyle.charAt(0);
+    /**
+     * Sets the <code>currentStyle</code> from the two characters of a color
+     * code. A '0' in either position resets to the <code>defaultColor</code>,
+     * a '-' carries over the current color and any character that is not a
+     * valid color code keeps the current color as well.
+     * @param foreground The foreground character of the color code.
+     * @param background The background character of the color code.
+     */
+    private void setCurrentStyle(char foreground, char background) {
+        if (currentRole != null)
+            currentStyle = defaultColor;
+
+        char oldForeground = currentStyle.charAt(0);
+        char oldBackground = currentStyle.charAt(1);
+        char newForeground = foreground;
+        char newBackground = background;
+
+        if (foreground == '0' || background == '0') {
+            currentRole = DEFAULT_ROLE;
+            currentStyle = defaultColor;
+            return;
+        }
 
-            if (containsColorCode(newStyle.charAt(1)))
-                currentStyle += "" + newStyle.charAt(1);
-            else
-                currentStyle += "" + oldStyle.charAt(1);
-        } else
-            currentStyle = oldStyle;
+        if (newForeground == '-' || !containsColorCode(newForeground))
+            newForeground = oldForeground;
+        else
+            currentRole = null;
+
+        if (newBackground == '-' || !containsColorCode(newBackground))
+            newBackground = oldBackground;
+        else
+            currentRole = null;
+
+        if (newForeground != oldForeground || newBackground != oldBackground)
+            currentStyle = new String(new char[] {newForeground, newBackground});
     }
 
-    /** 
-     * This is a helper method for append() which prints the current text out
-     * depending on which color code method is set (ANSIStyle or DCCodes). This
-     * method was added to cut back on code.
-     * @param processed The current String of processed text in append().
-     */
-    private void print(String processed) {
-        if (processed.length() > 0) {
-            if (useANSIColorCodes && ANSIStyle != null)
-                print(processed, ANSIStyle);
-            else
-                print(processed, currentStyle);
-        }
+    /**
+     * Returns the ANSI Style for the colors of the <code>ANSIState</code>,
+     * a default color resolves to the Style of the <code>defaultColor</code>.
+     * @return The shared AttributeSet with the current ANSI colors.
+     */
+    private AttributeSet getANSIStyle() {
+        ANSIStyles.setDefaultStyle(styleCache.getStyle(DEFAULT_ROLE));
+
+        return ANSIStyles.getAttributes(ANSIState);
+    }
+
+    /**
+     * Returns the AttributeSet that text should currently be printed with,
+     * this is the current ANSI Style if ANSI Color Codes are used or the Style
+     * of the <code>currentRole</code>, or of the <code>currentStyle</code>
+     * if an explicit DCCC is in use, otherwise.
+     * @return The AttributeSet for newly printed text.
+     */
+    private AttributeSet getCurrentAttributes() {
+        if (useANSIColorCodes && ANSIStyle != null)
+            return ANSIStyle;
+        else if (currentRole != null)
+            return styleCache.getStyle(currentRole);
+        else
+            return styleCache.getStyle(currentStyle);
     }
 
     /** 
@@ -1344,33 +2330,35 @@ public class DragonConsole extends JPanel implements KeyListener,
     }
 
     /** 
-     * This method creates a thread that will set the
-     * <code>consoleScrollPane</code>s Vertical <code>JScrollBar</code> to
-     * it's maximum value. The Thread is delayed by a tenth of a second before
-     * the value is changed to give time for the computer to fully update the
-     * UI and change the JScrollBars value.
+     * This method schedules the <code>consoleScrollPane</code>s Vertical
+     * <code>JScrollBar</code> to be set to it's maximum value. The change is
+     * made on the Event Dispatch Thread a frame later to give time for the UI
+     * to fully update and change the JScrollBars maximum, any other calls made
+     * before then are combined into that same change.
      */
     protected void setScrollBarMax() {
-        final JScrollBar vBar = consoleScrollPane.getVerticalScrollBar();
-        final DragonConsole console = this;
-        if (isScrollBarAtMax) {
-            new Thread() {
-                public void run() {
-                    try {
-                        sleep(80); // Time out for a tenth of a second
-                        if (vBar.isVisible())
-                            vBar.setValue(vBar.getMaximum() - vBar.getModel().getExtent());
+        if (isScrollBarAtMax)
+            scrollScheduler.request();
+    }
 
-                        console.repaint();
-                    } catch (Exception exc) {
-                        JOptionPane.showMessageDialog(null,
-                                "Error #0005\n"
-                              + "Failed to set the JScrollBar to Max Value!\n"
-                              + exc.getMessage(),
-                              "Error Caught", JOptionPane.ERROR_MESSAGE);
-                    }
-                }
-            }.start();
+    /**
+     * Sets the <code>consoleScrollPane</code>s Vertical <code>JScrollBar</code>
+     * to it's maximum value, called by the <code>scrollScheduler</code> on the
+     * Event Dispatch Thread.
+     */
+    private void scrollToMax() {
+        try {
+            JScrollBar vBar = consoleScrollPane.getVerticalScrollBar();
+            if (vBar.isVisible())
+                vBar.setValue(vBar.getMaximum() - vBar.getModel().getExtent());
+
+            repaint();
+        } catch (Exception exc) {
+            JOptionPane.showMessageDialog(this,
+                    "Error #0005\n"
+                  + "Failed to set the JScrollBar to Max Value!\n"
+                  + exc.getMessage(),
+                  "Error Caught", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -1393,7 +2381,7 @@ public class DragonConsole extends JPanel implements KeyListener,
      * @param message The string to display as a System Message
      */
     public void appendSystemMessage(String message) {
-        this.print(message, systemColor);
+        enqueueOutput(OutputQueue.STYLED, message, SYSTEM_ROLE);
     }
 
     /** 
@@ -1414,7 +2402,7 @@ public class DragonConsole extends JPanel implements KeyListener,
      * @param message The message to display as an Error Message.
      */
     public void appendErrorMessage(String message) {
-        this.print(message, errorColor);
+        enqueueOutput(OutputQueue.STYLED, message, ERROR_ROLE);
     }
 
     /**
@@ -1424,15 +2412,54 @@ public class DragonConsole extends JPanel implements KeyListener,
      * @param style The color code for this text String.
      */
     protected void print(String output, String style) {
+        print(output, styleCache.getStyle(style));
+    }
+
+    /**
+     * This method adds a string to consolePane's StyledDocument allowing the
+     * text to be styled by the predefined color styles. While the console is
+     * flushing queued output the text is collected with any other text of the
+     * same style and inserted with it.
+     * @param output The text string to add to the Console.
+     * @param style The color code for this text String.
+     */
+    protected void print(String output, AttributeSet style) {
+        pendingRuns.append(output, style);
+
+        if (!isFlushing)
+            printPendingOutput();
+    }
+
+    /**
+     * Inserts all text collected in <code>pendingRuns</code> into the
+     * Document. The runs are inserted with a single structural change so that
+     * the whole batch costs one document event and one layout pass no matter
+     * how many styles it contains.
+     */
+    private void printPendingOutput() {
+        if (pendingRuns.isEmpty())
+            return;
+
         try { // Try to add the colored string to the output area document
             ignoreAdjustment = true;
-            
-            if (useInlineInput)
-                output = inputControl.getBypassPrefix() + output;
 
-            consoleStyledDocument.insertString(
-                    consoleStyledDocument.getLength(), output,
-                    consoleStyledDocument.getStyle(style));
+            if (consoleStyledDocument instanceof StyledRunsDocument) {
+                ((StyledRunsDocument)consoleStyledDocument).insertRuns(
+                        consoleStyledDocument.getLength(), pendingRuns);
+            } else {
+                char[] text = pendingRuns.getText();
+                for (int i = 0; i < pendingRuns.getRunCount(); i++) {
+                    String output = new String(text, pendingRuns.getRunOffset(i),
+                            pendingRuns.getRunLength(i));
+
+                    if (useInlineInput)
+                        output = inputControl.getBypassPrefix() + output;
+
+                    consoleStyledDocument.insertString(
+                            consoleStyledDocument.getLength(), output,
+                            pendingRuns.getRunStyle(i));
+                }
+            }
         }
         catch (BadLocationException exc) {
             JOptionPane.showMessageDialog(this,
@@ -1440,34 +2467,90 @@ public class DragonConsole extends JPanel implements KeyListener,
                   + "Failed to print the text with the given Style!\n"
                   + exc.getMessage(),
                   "Error Caught", JOptionPane.ERROR_MESSAGE);
+        } finally {
+            pendingRuns.clear();
         }
+
+        trimScrollback();
     }
 
     /**
-     * This method adds a string to consolePane's StyledDocument allowing the
-     * text to be styled by the predefined color styles.
-     * @param output The text string to add to the Console.
-     * @param style The color code for this text String.
-     */
-    protected void print(String output, SimpleAttributeSet style) {
-        try { // Try to add the colored string to the output area document
-            ignoreAdjustment = true;
+     * Removes the oldest lines from the console if it has grown past
+     * <code>maxScrollbackLines</code> or <code>maxScrollbackChars</code>. Whole
+     * lines are removed until the console is back down to
+     * <code>SCROLLBACK_TRIM_PERCENT</code> of the limit, so the (comparatively
+     * expensive) removal only happens once in a while no matter how much
+     * output is appended. Text that belongs to the current input is never
+     * removed. Nothing is removed while an export is running.
+     */
+    private void trimScrollback() {
+        if (runningExports > 0)
+            return;
+
+        if (maxScrollbackLines <= 0 && maxScrollbackChars <= 0)
+            return;
+
+        Element root = consoleStyledDocument.getDefaultRootElement();
+        int length = consoleStyledDocument.getLength();
+        int removeLength = 0;
+
+        if (maxScrollbackLines > 0 && root.getElementCount() > maxScrollbackLines) {
+            int keepLines = Math.max((int)((long)maxScrollbackLines
+                    * SCROLLBACK_TRIM_PERCENT / 100), 1);
+            int firstLine = root.getElementCount() - keepLines;
+            removeLength = root.getElement(firstLine).getStartOffset();
+        }
 
-            if (useInlineInput)
-                output = inputControl.getBypassPrefix() + output;
+        if (maxScrollbackChars > 0 && length > maxScrollbackChars) {
+            int keepChars = (int)((long)maxScrollbackChars
+                    * SCROLLBACK_TRIM_PERCENT / 100);
+            int cut = length - keepChars;
 
-            consoleStyledDocument.insertString(
-                    consoleStyledDocument.getLength(), output, style);
+            // Round up to the start of the next line, unless the cut is in the
+            // last line in which case the line itself is cut
+            Element line = root.getElement(root.getElementIndex(cut));
+            if (line.getStartOffset() != cut && line.getEndOffset() <= length)
+                cut = line.getEndOffset();
+
+            removeLength = Math.max(removeLength, cut);
         }
-        catch (BadLocationException exc) {
-            JOptionPane.showMessageDialog(this,
-                    "Error #0007\n"
-                  + "Failed to print the text with the ANSI Style!\n"
-                  + exc.getMessage(),
-                  "Error Caught", JOptionPane.ERROR_MESSAGE);
+
+        int inputStart = inputControl.getInputRangeStart();
+        if (inputStart >= 0)
+            removeLength = Math.min(removeLength, inputStart);
+
+        if (removeLength > 0) {
+            ignoreAdjustment = true;
+            inputControl.removeLeadingText(removeLength);
+            moveRegionsBack(removeLength);
         }
     }
 
+    /**
+     * Moves every OutputRegion back by the number of characters trimmed from
+     * the beginning of the Document, regions whose text was trimmed (even
+     * partly) stop following it.
+     * @param length The number of characters removed.
+     */
+    private void moveRegionsBack(int length) {
+        int trimmed = 0;
+        while (trimmed < regions.size() && regions.get(trimmed).start < length)
+            regions.get(trimmed++).detach();
+        regions.subList(0, trimmed).clear();
+
+        for (int i = 0; i < regions.size(); i++)
+            regions.get(i).start -= length;
+    }
+
+    /**
+     * Returns the length the Document will have once all pending output has
+     * been inserted, this is where the next output (or input) will begin.
+     * @return The length of the Document plus any pending output.
+     */
+    private int getOutputLength() {
+        return consoleStyledDocument.getLength() + pendingRuns.length();
+    }
+
     /** 
      * This method adds a Previous Entry (the current input that has just been
      * received by the console) to the list of previous entries, and then resets
@@ -1476,11 +2559,16 @@ public class DragonConsole extends JPanel implements KeyListener,
      * @param entry The new piece of input to add to the Previous Entries list.
      */
     private void addPreviousEntry(String entry) {
-        previousEntries.add(entry);
-        if (previousEntries.size() > numberOfPreviousEntries)
-            previousEntries.remove(0);
+        try {
+            history.add(entry);
+        } catch (IOException exc) {
+            JOptionPane.showMessageDialog(this, "Error #0018\n"
+                    + "Failed to save the entry to the command history!\n"
+                    + exc.getMessage(),
+                    "Error Caught", JOptionPane.ERROR_MESSAGE);
+        }
 
-        currentPreviousEntry = previousEntries.size();
+        currentPreviousEntry = history.size();
     }
 
     /** 
@@ -1493,9 +2581,17 @@ public class DragonConsole extends JPanel implements KeyListener,
      */
     private void setPreviousEntryText() {
         String text = "";
-        if (currentPreviousEntry < previousEntries.size()
-                && currentPreviousEntry >= 0)
-            text = previousEntries.get(currentPreviousEntry);
+        if (currentPreviousEntry < history.size()
+                && currentPreviousEntry >= 0) {
+            try {
+                text = history.get(currentPreviousEntry);
+            } catch (IOException exc) {
+                JOptionPane.showMessageDialog(this, "Error #0019\n"
+                        + "Failed to read the entry from the command history!\n"
+                        + exc.getMessage(),
+                        "Error Caught", JOptionPane.ERROR_MESSAGE);
+            }
+        }
 
         if (useInlineInput) {
             if (inputControl.isReceivingInput() && inputControl.isInfiniteInput())
@@ -1532,7 +2628,6 @@ public class DragonConsole extends JPanel implements KeyListener,
     public void keyPressed(KeyEvent e) {
         if (!useInlineInput) {
             if (alwaysKeepScrollBarMaxed || (!alwaysKeepScrollBarMaxed && isScrollBarAtMax)) {
-                JScrollBar vBar = consoleScrollPane.getVerticalScrollBar();
                 ignoreAdjustment = true;
                 setScrollBarMax();
             }
@@ -1545,6 +2640,7 @@ public class DragonConsole extends JPanel implements KeyListener,
             if (!ignoreInput) {
                 if (useInlineInput) {
                     e.consume();
+                    cancelPaste(); // Only what's pasted so far is sent
                     boolean isProtected = inputControl.isProtected();
                     String input = inputControl.getInput();
                     
@@ -1585,7 +2681,7 @@ public class DragonConsole extends JPanel implements KeyListener,
                        && inputControl.isInfiniteInput())) {
                 currentPreviousEntry--;
                 if (currentPreviousEntry < 0)
-                    currentPreviousEntry = previousEntries.size();
+                    currentPreviousEntry = history.size();
 
                 setPreviousEntryText();
             }
@@ -1599,8 +2695,8 @@ public class DragonConsole extends JPanel implements KeyListener,
                        && inputControl.isReceivingInput()
                        && inputControl.isInfiniteInput())) {
             currentPreviousEntry++;
-                if (currentPreviousEntry >= previousEntries.size())
-                    currentPreviousEntry = previousEntries.size();
+                if (currentPreviousEntry >= history.size())
+                    currentPreviousEntry = history.size();
                 
                 setPreviousEntryText();
             }
@@ -1664,4 +2760,104 @@ public class DragonConsole extends JPanel implements KeyListener,
         } else
             ignoreAdjustment = false;
     }
-}
\ No newline at end of file
+
+    /**
+     * The MarkupTokenizer of a stream given to <code>appendStream</code>, it
+     * also remembers what the stream has done with the input so far since the
+     * stream is processed as one piece of output no matter how many chunks
+     * it's read in.
+     */
+    private static class StreamTokenizer extends MarkupTokenizer {
+        /**
+         * Set once the first chunk of the stream has been processed.
+         */
+        private boolean started = false;
+
+        /**
+         * Set when an input script was found anywhere in the stream.
+         */
+        private boolean hasInput = false;
+
+        public StreamTokenizer(char colorCodeChar) {
+            super(colorCodeChar);
+        }
+    }
+
+    /**
+     * Receives the tokens found by the <code>outputTokenizer</code>, prints the
+     * text with the current style, updates the style for each DCCC and ANSI
+     * code and sets up the input for each input script.
+     */
+    private class OutputHandler implements ConsoleTemplate.Printer {
+        /**
+         * Set when an input script was found in the current output, if one
+         * wasn't the console falls back to basic input.
+         */
+        private boolean hasInput = false;
+
+        /**
+         * Set while output collapsed by the backpressure policy is processed,
+         * it's codes and input scripts are handled but it's text is not
+         * printed.
+         */
+        private boolean discardText = false;
+
+        /**
+         * Adds the text to the pending output with the current style.
+         */
+        public void text(char[] chars, int offset, int length) {
+            if (!discardText)
+                pendingRuns.append(chars, offset, length, getCurrentAttributes());
+        }
+
+        /**
+         * Adds the value of a template's parameter slot to the pending output
+         * with the current style, straight from the value.
+         */
+        public void value(CharSequence value, int start, int end) {
+            if (!discardText)
+                pendingRuns.append(value, start, end, getCurrentAttributes());
+        }
+
+        /**
+         * Changes the current style according to the DCCC.
+         */
+        public void colorCode(char foreground, char background) {
+            setCurrentStyle(foreground, background);
+        }
+
+        /**
+         * Changes the current ANSI Style according to the ANSI code. The code
+         * is parsed by the <code>ANSIState</code> without creating any
+         * Strings, an empty code ("\033[m") clears the ANSI Style and a
+         * malformed code is ignored.
+         */
+        public void escape(char[] sequence, int offset, int length) {
+            if (length <= 3) {
+                ANSIState.reset();
+                ANSIStyle = null;
+            } else if (ANSIState.update(sequence, offset, length))
+                ANSIStyle = getANSIStyle();
+        }
+
+        /**
+         * Sets up the InputController for the input script, ranged input
+         * prints the blank space for the range right away. If the input is
+         * infinite anything after the input script is ignored.
+         */
+        public boolean input(char[] script, int offset, int length) {
+            hasInput = true;
+
+            if (inputControl.setInputStyle(new String(script, offset, length))) {
+                inputControl.setRangeStart(getOutputLength());
+                print(inputControl.getInputRangeString(), DEFAULT_ROLE); // Print the blank space if the input is not infinite
+
+                return false;
+            } else {
+                inputControl.setRangeStart(getOutputLength());
+
+                return true;
+            }
+        }
+    }
+}
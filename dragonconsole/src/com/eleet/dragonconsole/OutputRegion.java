@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole;
+
+/**
+ * An OutputRegion marks a range of text printed in a DragonConsole that can
+ * be rewritten in place after it has been printed, which is what progress
+ * bars, spinners and counters need. A region is created with
+ * <code>DragonConsole.appendRegion</code> and rewritten with
+ * <code>setText</code> as often as needed from any Thread.<br /><br />
+ * Rewrites are not applied right away, all rewrites made during a frame are
+ * combined and only the latest text is written to the Document once on the
+ * Event Dispatch Thread. Only the characters that actually changed are
+ * replaced (the text the old and new text start and end with is left alone),
+ * so a spinner that changes a single character only ever touches that
+ * character.<br /><br />
+ * A region stops following it's text once that text is trimmed from the
+ * scrollback, the console is cleared or the region is released, after that
+ * <code>setText</code> does nothing.
+ * @version 1.0
+ */
+public class OutputRegion {
+    /**
+     * The console the region was printed in.
+     */
+    private final DragonConsole console;
+
+    /**
+     * The two character style the region's text is printed with.
+     */
+    private final String style;
+
+    /**
+     * Lock guarding <code>text</code> and <code>released</code>.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The latest text of the region, it may not have been written to the
+     * Document yet.
+     */
+    private String text;
+
+    /**
+     * <code>true</code> once the region no longer follows it's text.
+     */
+    private boolean released;
+
+    // Event Dispatch Thread only
+    /**
+     * The location of the region in the Document, -1 until the region has
+     * been printed.
+     */
+    int start;
+
+    /**
+     * The text of the region as it currently appears in the Document.
+     */
+    String shownText;
+
+    /**
+     * Creates a new OutputRegion, regions are created by the console.
+     * @param console The console the region is printed in.
+     * @param text The initial text of the region.
+     * @param style The style the region's text is printed with.
+     */
+    OutputRegion(DragonConsole console, String text, String style) {
+        this.console = console;
+        this.style = style;
+        this.text = text;
+        this.released = false;
+        this.start = -1;
+        this.shownText = "";
+    }
+
+    /**
+     * Replaces the text of this region. The change is written to the Document
+     * with the next frame, along with any other region that changed during
+     * that frame. The text is printed as is, it's not processed for color
+     * codes. This method can be called from any Thread.
+     * @param text The new text of the region.
+     */
+    public void setText(String text) {
+        if (text == null)
+            text = "";
+
+        synchronized (lock) {
+            if (released || text.equals(this.text))
+                return;
+
+            this.text = text;
+        }
+
+        console.scheduleRegionUpdate(this);
+    }
+
+    /**
+     * Returns the latest text given to this region, which is what the region
+     * will show once the next frame has been drawn.
+     * @return The text of this region.
+     */
+    public String getText() {
+        synchronized (lock) {
+            return text;
+        }
+    }
+
+    /**
+     * Returns the two character style the text of this region is printed
+     * with, or the name of the role if it's printed in the
+     * <code>defaultColor</code>.
+     * @return The style of this region.
+     */
+    public String getStyle() {
+        return style;
+    }
+
+    /**
+     * Returns <code>true</code> if this region still follows it's text and can
+     * be rewritten.
+     * @return <code>true</code> if the region has not been released.
+     */
+    public boolean isActive() {
+        synchronized (lock) {
+            return !released;
+        }
+    }
+
+    /**
+     * Stops this region from following it's text, the text stays in the
+     * console as it is. Releasing regions that are no longer updated saves the
+     * console from keeping track of them.
+     */
+    public void release() {
+        synchronized (lock) {
+            if (released)
+                return;
+
+            released = true;
+        }
+
+        console.scheduleRegionUpdate(this);
+    }
+
+    /**
+     * Stops this region from following it's text because the text is no
+     * longer in the Document, called by the console on the Event Dispatch
+     * Thread.
+     */
+    void detach() {
+        synchronized (lock) {
+            released = true;
+        }
+    }
+}
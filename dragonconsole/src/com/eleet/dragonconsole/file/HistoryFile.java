@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.file;
+
+import com.eleet.dragonconsole.util.CommandHistory;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+
+/**
+ * HistoryFile is a CommandHistory stored on disk with no limit on the number
+ * of entries. Entries are only ever appended to the history file, each as
+ * it's length followed by it's UTF-8 bytes, and the offset of every entry is
+ * appended to an index file next to it (the history file's name with ".idx"
+ * added). Entry <code>i</code> is found by reading the <code>i</code>th offset
+ * of the index, so the files are never read as a whole: opening a HistoryFile
+ * only looks at the end of the files no matter how large they are, and an
+ * entry is read through a memory-mapped window of the file that covers it and
+ * the entries around it.<br /><br />
+ * One HistoryFile can be shared by any number of DragonConsoles in the same
+ * program. Several HistoryFiles and programs can use the same files as well,
+ * appends take a lock on the history file and entries appended by another
+ * HistoryFile show up the next time the size is asked for.<br /><br />
+ * An entry is only part of the history once it's offset is in the index, and
+ * an offset is only trusted if the entry it points to starts where the entry
+ * before it ends and fits in the history file. If a program stops in the
+ * middle of an append the unfinished entry is dropped. The files are never
+ * cut, the next append writes over what's left of it at the end of the last
+ * entry instead, so other programs that still have the files mapped are never
+ * affected.
+ * @version 1.0
+ */
+public class HistoryFile implements CommandHistory {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The size of an offset in the index file.
+     */
+    private static final int OFFSET_SIZE = 8;
+
+    /**
+     * The size of the length that starts each entry in the history file.
+     */
+    private static final int LENGTH_SIZE = 4;
+
+    /**
+     * The size of the part of a file that is mapped at a time.
+     */
+    private static final int WINDOW_SIZE = 1 << 24;
+
+    /**
+     * A FileLock is held for the whole program, another HistoryFile of the
+     * program locking the same files fails instead of waiting for it. The
+     * HistoryFiles of a program take this lock first so they wait for each
+     * other.
+     */
+    private static final Object programLock = new Object();
+
+    private RandomAccessFile historyFile;
+    private RandomAccessFile indexFile;
+    private FileChannel history;
+    private FileChannel index;
+    private MappedWindow historyWindow;
+    private MappedWindow indexWindow;
+
+    /**
+     * The number of entries in the index.
+     */
+    private int count;
+
+    /**
+     * The end of the last entry in the index, anything in the history file
+     * past it is left over from an unfinished append. The history file is
+     * never mapped past it.
+     */
+    private long historyEnd;
+
+    /**
+     * Opens the history stored in the given file, creating the file and it's
+     * index if they don't exist yet.
+     * @param file The history file.
+     * @throws IOException If the files could not be opened.
+     */
+    public HistoryFile(File file) throws IOException {
+        historyFile = new RandomAccessFile(file, "rw");
+        indexFile = new RandomAccessFile(new File(file.getPath() + ".idx"), "rw");
+        history = historyFile.getChannel();
+        index = indexFile.getChannel();
+        historyWindow = new MappedWindow(history);
+        indexWindow = new MappedWindow(index);
+
+        synchronized (programLock) {
+            FileLock lock = history.lock();
+            try {
+                recover();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Appends an entry to the history file and it's offset to the index.
+     * @param entry The entry to add.
+     * @throws IOException If the entry could not be written.
+     */
+    public synchronized void add(String entry) throws IOException {
+        ByteBuffer bytes = UTF8.encode(CharBuffer.wrap(entry));
+        ByteBuffer record = ByteBuffer.allocate(LENGTH_SIZE + bytes.remaining());
+        record.putInt(bytes.remaining());
+        record.put(bytes);
+        record.flip();
+        int recordSize = record.remaining();
+
+        synchronized (programLock) {
+            FileLock lock = history.lock();
+            try {
+                recover(); // Picks up entries added by other programs
+
+                // Anything past the last entry was left by an unfinished append
+                long offset = historyEnd;
+                write(history, record, offset);
+
+                ByteBuffer offsetBuffer = ByteBuffer.allocate(OFFSET_SIZE);
+                offsetBuffer.putLong(offset);
+                offsetBuffer.flip();
+                write(index, offsetBuffer, (long)count * OFFSET_SIZE);
+
+                count++;
+                historyEnd = offset + recordSize;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns an entry of the history.
+     * @param index The index of the entry, <code>0</code> is the oldest.
+     * @return The entry.
+     * @throws IOException If the entry could not be read.
+     */
+    public synchronized String get(int index) throws IOException {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + count);
+
+        long offset = indexWindow.map((long)index * OFFSET_SIZE, OFFSET_SIZE,
+                (long)count * OFFSET_SIZE).getLong();
+
+        // Every entry in the index ends before historyEnd
+        int length = historyWindow.map(offset, LENGTH_SIZE,
+                historyEnd).getInt();
+
+        return UTF8.decode(historyWindow.map(offset + LENGTH_SIZE, length,
+                historyEnd)).toString();
+    }
+
+    /**
+     * Returns the number of entries in the history, including the entries
+     * other programs have added to the files.
+     * @return The size of the history.
+     */
+    public synchronized int size() {
+        try {
+            // The offsets past count are only taken once they're checked, an
+            // append of another program may still be writing them
+            long historySize = history.size();
+            long indexed = index.size() / OFFSET_SIZE;
+            while (count < indexed && count < Integer.MAX_VALUE) {
+                long offset = readLong(index, (long)count * OFFSET_SIZE);
+                if (offset != historyEnd)
+                    break;
+
+                long end = getEntryEnd(offset, historySize);
+                if (end == -1)
+                    break;
+
+                count++;
+                historyEnd = end;
+            }
+        } catch (IOException exc) {
+            // The entries known so far can still be read
+        }
+
+        return count;
+    }
+
+    /**
+     * Closes the files, the HistoryFile can't be used after it's closed.
+     * @throws IOException If the files could not be closed.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            historyFile.close();
+        } finally {
+            indexFile.close();
+        }
+    }
+
+    /**
+     * Finds the logical end of the files, this must be called while holding
+     * the lock on the history file. The index is read back from it's end
+     * until an offset is found that points at the end of the entry before it
+     * and whose entry fits in the history file, the offsets after it and the
+     * history file past it's entry were left by an unfinished append and are
+     * written over by the next one. Only the end of the files is read.
+     */
+    private void recover() throws IOException {
+        long historySize = history.size();
+        long indexed = index.size() / OFFSET_SIZE;
+
+        while (indexed > 0) {
+            long end = getIndexedEnd(indexed - 1, historySize);
+            if (end != -1) {
+                count = (int)Math.min(indexed, Integer.MAX_VALUE);
+                historyEnd = end;
+                return;
+            }
+
+            indexed--;
+        }
+
+        count = 0;
+        historyEnd = 0;
+    }
+
+    /**
+     * Returns where the entry with the given index ends, or -1 if it's offset
+     * doesn't point at the end of the entry before it or the entry doesn't fit
+     * in the history file.
+     */
+    private long getIndexedEnd(long entry, long historySize)
+            throws IOException {
+        long offset = readLong(index, entry * OFFSET_SIZE);
+        long start = 0;
+        if (entry > 0)
+            start = getEntryEnd(readLong(index, (entry - 1) * OFFSET_SIZE),
+                    historySize);
+
+        return (offset != start) ? -1 : getEntryEnd(offset, historySize);
+    }
+
+    /**
+     * Returns where the entry starting at the given offset ends, or -1 if the
+     * entry doesn't fit in the history file.
+     */
+    private long getEntryEnd(long offset, long historySize) throws IOException {
+        if (offset < 0 || offset + LENGTH_SIZE > historySize)
+            return -1;
+
+        ByteBuffer length = ByteBuffer.allocate(LENGTH_SIZE);
+        read(history, length, offset);
+        long end = offset + LENGTH_SIZE + length.getInt(0);
+
+        return (end < offset + LENGTH_SIZE || end > historySize) ? -1 : end;
+    }
+
+    private static long readLong(FileChannel channel, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(OFFSET_SIZE);
+        read(channel, buffer, position);
+
+        return buffer.getLong(0);
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read == -1)
+                throw new EOFException();
+
+            position += read;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    /**
+     * A read only, memory-mapped part of a file. The part that is mapped is
+     * moved when something outside of it is read, it's centered on what is
+     * read so that stepping through the history in either direction stays
+     * inside it for a while. A window is never mapped past the part of the
+     * file that is known to be valid, so it never covers data that could
+     * still be written over.
+     */
+    private static class MappedWindow {
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private long start;
+        private long end;
+
+        public MappedWindow(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Returns a buffer holding the given part of the file, if the part
+         * isn't mapped yet the window is moved but not past
+         * <code>limit</code>.
+         */
+        public ByteBuffer map(long position, int length, long limit)
+                throws IOException {
+            if (buffer == null || position < start || position + length > end) {
+                long size = Math.min(limit, channel.size());
+                if (position + length > size)
+                    throw new EOFException();
+
+                start = Math.max(0, position - WINDOW_SIZE / 2);
+                end = Math.min(size, Math.max(start + WINDOW_SIZE,
+                        position + length));
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        end - start);
+            }
+
+            ByteBuffer part = buffer.duplicate();
+            part.position((int)(position - start));
+            part.limit((int)(position - start) + length);
+
+            return part;
+        }
+    }
+}
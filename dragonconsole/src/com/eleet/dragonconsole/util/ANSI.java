@@ -23,6 +23,10 @@
 package com.eleet.dragonconsole.util;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.Style;
@@ -65,6 +69,7 @@ public class ANSI {
     private static final Color bright[] = {INTENSE_BLACK, INTENSE_RED, 
             INTENSE_GREEN, INTENSE_YELLOW, INTENSE_BLUE, INTENSE_MAGENTA,
             INTENSE_CYAN, INTENSE_WHITE};
+    private static final Color palette[] = createPalette();
 
     /** 
      * Takes an ANSI Code as a String and breaks it apart and then creates a
@@ -85,62 +90,110 @@ public class ANSI {
         if (ANSI == null)
             ANSI = new SimpleAttributeSet();
         
-        if (string.length() > 3) {
-            string = string.substring(2); // Cut off the "\033[";
-            string = string.substring(0, string.length() - 1); // Remove the "m" from the end
-
-        } else
+        if (string.length() <= 3)
             return null;
 
-        String codes[] = string.split(";");
+        // The parameters are read straight into ints, a malformed sequence
+        // changes nothing
+        SGRState parser = new SGRState();
+        int count = parser.parse(string, 0, string.length());
 
         boolean brighter = false;
-        for (int i = 0; i < codes.length; i++) {
-
-            if (codes[i].matches("[\\d]*")) {
-                int code = Integer.parseInt(codes[i]);
-
-                switch (code) {
-                    case 0:
-                        brighter = false;
-                        ANSI = new SimpleAttributeSet();
-                        break;
-                    case 1:
-                        brighter = true;
-                        break;
-                    case 30:
-                    case 31:
-                    case 32:
-                    case 33:
-                    case 34:
-                    case 35:
-                    case 36:
-                    case 37:
-                        StyleConstants.setForeground(ANSI, getColorFromANSICode(code, brighter));
-                        break;
-                    case 39:
-                        StyleConstants.setForeground(ANSI, StyleConstants.getForeground(defaultStyle));
-                        break;
-                    case 40:
-                    case 41:
-                    case 42:
-                    case 43:
-                    case 44:
-                    case 45:
-                    case 46:
-                    case 47:
-                        StyleConstants.setBackground(ANSI, getColorFromANSICode(code, false));
-                        break;
-                    case 49:
-                        StyleConstants.setBackground(ANSI, StyleConstants.getBackground(defaultStyle));
-                        break;
-                }
+        for (int i = 0; i < count; i++) {
+            int code = parser.getParameter(i);
+
+            switch (code) {
+                case 0:
+                    brighter = false;
+                    ANSI = new SimpleAttributeSet();
+                    break;
+                case 1:
+                    brighter = true;
+                    break;
+                case 30:
+                case 31:
+                case 32:
+                case 33:
+                case 34:
+                case 35:
+                case 36:
+                case 37:
+                    StyleConstants.setForeground(ANSI, getColorFromANSICode(code, brighter));
+                    break;
+                case 39:
+                    StyleConstants.setForeground(ANSI, StyleConstants.getForeground(defaultStyle));
+                    break;
+                case 40:
+                case 41:
+                case 42:
+                case 43:
+                case 44:
+                case 45:
+                case 46:
+                case 47:
+                    StyleConstants.setBackground(ANSI, getColorFromANSICode(code, false));
+                    break;
+                case 49:
+                    StyleConstants.setBackground(ANSI, StyleConstants.getBackground(defaultStyle));
+                    break;
             }
         }
 
         return ANSI;
     }
 
+    /**
+     * Returns the Color of an SGRState color. 0-7 are the normal ANSI colors,
+     * 8-15 are the intense ANSI colors, 16-231 are the 6x6x6 color cube and
+     * 232-255 the gray ramp of the 256 color palette, and
+     * <code>SGRState.TRUE_COLOR</code> colors are their RGB value.
+     * @param color The SGRState color.
+     * @return The Color for the index, or null if the index is not an ANSI
+     *  color (like <code>SGRState.DEFAULT_COLOR</code>).
+     */
+    public static Color getColor(int color) {
+        if ((color & SGRState.TRUE_COLOR) != 0 && color > 0)
+            return new Color(color & 0xFFFFFF);
+        else if (color >= 0 && color < palette.length)
+            return palette[color];
+
+        return null;
+    }
+
+    /**
+     * Creates the 256 color palette, the first 16 colors are the ANSI colors.
+     * @return The Colors of the palette.
+     */
+    private static Color[] createPalette() {
+        Color[] colors = new Color[256];
+        for (int i = 0; i < normal.length; i++) {
+            colors[i] = normal[i];
+            colors[i + normal.length] = bright[i];
+        }
+
+        for (int i = 16; i < 232; i++) {
+            int cube = i - 16;
+            colors[i] = new Color(getCubeLevel(cube / 36),
+                    getCubeLevel((cube / 6) % 6), getCubeLevel(cube % 6));
+        }
+
+        for (int i = 232; i < 256; i++) {
+            int level = 8 + (i - 232) * 10;
+            colors[i] = new Color(level, level, level);
+        }
+
+        return colors;
+    }
+
+    /**
+     * Returns the intensity of a step of the 6x6x6 color cube.
+     * @param step The step, 0-5.
+     * @return The intensity of the step, 0-255.
+     */
+    private static int getCubeLevel(int step) {
+        return (step == 0) ? 0 : 55 + step * 40;
+    }
+
     /** 
      * Takes a String containing a DCCC and convert it into its equivalent
      * ANSI Color Code. It does this by comparing the color associated with
@@ -227,9 +280,8 @@ public class ANSI {
     /** 
      * Takes a String containing multiple DCCCs (like standard output for the
      * console) and replaces the DCCC with it's equivalent ANSI Code and returns
-     * the String containing the ANSI Codes. This method uses
-     * <code>getANSICodeFromDCCode()</code> to convert each DCCC into it's
-     * ANSI code.
+     * the String containing the ANSI Codes. Each DCCC is converted just like
+     * <code>getANSICodeFromDCCode()</code> would convert it.
      * @param string The String that the programmer wishes to convert.
      * @param colors The ArrayList of TextColors that have been added to the
      *  console.
@@ -239,104 +291,62 @@ public class ANSI {
      *  ANSI equivalent.
      */
     public static String convertDCtoANSIColors(String string, ArrayList<TextColor> colors, char colorCodeChar) {
-        StringBuilder buffer = new StringBuilder(string);
-
-        for (int i = 0; i < buffer.length(); i++) {
-            if (buffer.charAt(i) == colorCodeChar) {
-                if ((i + 1) < buffer.length() && (buffer.charAt(i + 1) == colorCodeChar)) {
-                    i += 1; // Jump past the &&
-
-                } else {
-                    String code = buffer.substring(i, (i + 3));
-                    
-                    code = getANSICodeFromDCCode(code, colors);
-                    int length = code.length();
-                    
-                    buffer = buffer.replace(i, (i + 3), code);
-                    i = i + length - 1;
-                }
-            }
-        }
-
-        return buffer.toString();
+        return convertDCtoANSIColors(string, new Palette(colors), colorCodeChar);
     }
 
-    /** 
-     * Takes a String containing an ANSI Code and returns it's equivalent DCCC.
-     * It does this by comparing the Color associated to the ANSI code to each
-     * code contained in the list of TextColors and upon a successful match it
-     * pulls the Character out of the TextColor and adds it to the DCCC String
-     * it returns. If no match is found it uses the character representing the
-     * default style set by the console.
-     * @param code The ANSI code to convert into a DCCC.
-     * @param colors The ArrayList of TextColors that have been added to the
-     *  console.
-     * @param colorCodeChar The colorCodeChar to place at the beginning of each
-     *  DCCC.
-     * @param defaultStyle The Default Style set in the Console, used if no
-     *  match can be found.
-     * @return Returns the DCCC equivalent of the given ANSI code.
+    /**
+     * Converts the DCCCs in the given String into their ANSI equivalent, the
+     * TextColors are looked up in the console's Palette.
+     * @param string The String to convert.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The colorCodeChar set in the console.
+     * @return The String after each DCCC has been converted into it's ANSI
+     *  equivalent.
      */
-    private static String getDCCodeFromANSICode(String code, ArrayList<TextColor> colors, char colorCodeChar, String defaultStyle) {
-        boolean brighter = false;
-        code = code.substring(2, code.length()); // Cut off the "\033[" and "m"
-        char foreground = ' ';
-        char background = ' ';
-        
-        String colorCodes[] = code.split(";");
-        for (int i = 0; i < colorCodes.length; i++) {
-            if (colorCodes[i].matches("[\\d]*")) {
-                int colorCode = Integer.parseInt(colorCodes[i]);
-                if (colorCode == 0)
-                    brighter = false;
-                else if (colorCode == 1)
-                    brighter = true;
-                else if (colorCode >= 30 && colorCode <= 39) {
-                    if (colorCode == 39)
-                        foreground = defaultStyle.charAt(0);
-                    else if (colorCode >= 30 && colorCode <= 37) {
-                        foreground = getDCCharCodeFromColor(getColorFromANSICode(colorCode, brighter), colors);
-                        brighter = false;
-                    }
-                } else if (colorCode >= 40 && colorCode <= 49) {
-                    if (colorCode == 49)
-                        background = defaultStyle.charAt(1);
-                    else if (colorCode >= 40 && colorCode <= 47)
-                        background = getDCCharCodeFromColor(getColorFromANSICode(colorCode, false), colors);
-                }
-            }
+    public static String convertDCtoANSIColors(String string, Palette palette,
+            char colorCodeChar) {
+        StringBuilder buffer = new StringBuilder(string.length() + 64);
+
+        try {
+            convertDCtoANSIColors(string, buffer, palette, colorCodeChar);
+        } catch (IOException exc) {
+            // A StringBuilder never throws an IOException
         }
 
-        if (foreground == ' ')
-            foreground = defaultStyle.charAt(0);
-        if (background == ' ')
-            background = defaultStyle.charAt(1);
-        
-        return "" + colorCodeChar + foreground + background;
+        return buffer.toString();
     }
 
-    /** 
-     * Takes a Color and finds it's corresponding TextColor in the list of
-     * TextColors that have been added to the Console (if there is one) and
-     * returns the <code>charCode</code> associated with the Color given. If
-     * no Color can be matched then it returns a blank character (' ').
-     * @param color The Color to find in the list of TextColors.
-     * @param colors The ArrayList of TextColors that have been added to the
-     *  console.
-     * @return The <code>charCode</code> associated with the given color, or
-     *  a blank char (' ') if no match is found.
+    /**
+     * Converts the DCCCs in the given text into their ANSI equivalent and
+     * writes the result to an Appendable in a single pass.
+     * @param text The text to convert.
+     * @param out The Appendable (like a Writer or StringBuilder) the converted
+     *  text is written to.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The colorCodeChar set in the console.
+     * @throws IOException If the Appendable fails.
      */
-    private static char getDCCharCodeFromColor(Color color,
-            ArrayList<TextColor> colors) {
-        TextColor test = TextColor.getTestTextColor(color);
-
-        for (int i = 0; i < colors.size(); i++) {
-            if (colors.get(i).equals(test)) {
-                return colors.get(i).getCharCode();
-            }
-        }
+    public static void convertDCtoANSIColors(CharSequence text, Appendable out,
+            Palette palette, char colorCodeChar) throws IOException {
+        ColorCodeConverter converter = ColorCodeConverter.toANSI(palette,
+                colorCodeChar);
+        converter.convert(text, 0, text.length(), out);
+        converter.finish(out);
+    }
 
-        return ' ';
+    /**
+     * Converts the DCCCs in all the text read from a Reader into their ANSI
+     * equivalent and writes the result to a Writer, the text is converted as
+     * it's read so it never has to fit in memory. Neither stream is closed.
+     * @param in The Reader the text is read from.
+     * @param out The Writer the converted text is written to.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The colorCodeChar set in the console.
+     * @throws IOException If reading or writing fails.
+     */
+    public static void convertDCtoANSIColors(Reader in, Writer out,
+            Palette palette, char colorCodeChar) throws IOException {
+        convert(in, out, ColorCodeConverter.toANSI(palette, colorCodeChar));
     }
 
     /** 
@@ -355,25 +365,152 @@ public class ANSI {
     public static String convertANSIToDCColors(String string, 
             ArrayList<TextColor> colors, char colorCodeChar,
             String defaultStyle) {
-        StringBuilder buffer = new StringBuilder(string);
-
-        for (int i = 0; i < buffer.length(); i++) {
-            if (buffer.charAt(i) == '\033') {
-                if (buffer.indexOf("m", i) < buffer.length()) {
-                    String code = buffer.substring(i, buffer.indexOf("m", i)); // The Color Code
-                    int end = i + code.length() + 1;
-                    code = getDCCodeFromANSICode(code, colors, colorCodeChar,
-                            defaultStyle);
-                    
-                    buffer = buffer.replace(i, end, code);
-                    i = i + 2;
-                }
-            }
+        return convertANSIToDCColors(string, new Palette(colors), colorCodeChar,
+                defaultStyle);
+    }
+
+    /**
+     * Converts the ANSI Codes in the given String into their DCCC equivalent,
+     * the TextColors are looked up in the console's Palette.
+     * @param string The String to convert.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The colorCodeChar set in the console.
+     * @param defaultStyle The two character Default Style set in the console.
+     * @return The String after each ANSI Code has been converted to it's DCCC
+     *  equivalent.
+     */
+    public static String convertANSIToDCColors(String string, Palette palette,
+            char colorCodeChar, String defaultStyle) {
+        StringBuilder buffer = new StringBuilder(string.length());
+
+        try {
+            convertANSIToDCColors(string, buffer, palette, colorCodeChar,
+                    defaultStyle);
+        } catch (IOException exc) {
+            // A StringBuilder never throws an IOException
         }
 
         return buffer.toString();
     }
 
+    /**
+     * Converts the ANSI Codes in the given text into their DCCC equivalent and
+     * writes the result to an Appendable in a single pass.
+     * @param text The text to convert.
+     * @param out The Appendable (like a Writer or StringBuilder) the converted
+     *  text is written to.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The colorCodeChar set in the console.
+     * @param defaultStyle The two character Default Style set in the console.
+     * @throws IOException If the Appendable fails.
+     */
+    public static void convertANSIToDCColors(CharSequence text, Appendable out,
+            Palette palette, char colorCodeChar, String defaultStyle)
+            throws IOException {
+        ColorCodeConverter converter = ColorCodeConverter.toDC(palette,
+                colorCodeChar, defaultStyle);
+        converter.convert(text, 0, text.length(), out);
+        converter.finish(out);
+    }
+
+    /**
+     * Converts the ANSI Codes in all the text read from a Reader into their
+     * DCCC equivalent and writes the result to a Writer, the text is converted
+     * as it's read so it never has to fit in memory. Neither stream is closed.
+     * @param in The Reader the text is read from.
+     * @param out The Writer the converted text is written to.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The colorCodeChar set in the console.
+     * @param defaultStyle The two character Default Style set in the console.
+     * @throws IOException If reading or writing fails.
+     */
+    public static void convertANSIToDCColors(Reader in, Writer out,
+            Palette palette, char colorCodeChar, String defaultStyle)
+            throws IOException {
+        convert(in, out, ColorCodeConverter.toDC(palette, colorCodeChar,
+                defaultStyle));
+    }
+
+    /**
+     * Feeds everything read from a Reader through a ColorCodeConverter into a
+     * Writer.
+     */
+    private static void convert(Reader in, Writer out,
+            ColorCodeConverter converter) throws IOException {
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            converter.convert(buffer, 0, read, out);
+
+        converter.finish(out);
+        out.flush();
+    }
+
+    /**
+     * Removes all markup from the given text and writes the plain text that's
+     * left to an Appendable in a single pass. DCCCs, ANSI escape sequences and
+     * input scripts ("%i...;") are removed and the "&&" and "%%" escapes become
+     * a single character, so the result is the text the console would show
+     * for it. Nothing but the Appendable holds the text, so it's suitable for
+     * very large logs.
+     * @param text The text to strip.
+     * @param out The Appendable (like a Writer or StringBuilder) the plain text
+     *  is written to.
+     * @param colorCodeChar The character that begins a DCCC.
+     * @throws IOException If the Appendable fails.
+     */
+    public static void strip(CharSequence text, Appendable out,
+            char colorCodeChar) throws IOException {
+        MarkupTokenizer tokenizer = new MarkupTokenizer(colorCodeChar);
+        StripHandler handler = new StripHandler(out);
+        tokenizer.feed(text, 0, text.length(), handler);
+        tokenizer.finish(handler);
+        handler.checkError();
+    }
+
+    /**
+     * Removes all markup from everything read from a Reader and writes the
+     * plain text that's left to a Writer, just like
+     * <code>strip(CharSequence, Appendable, char)</code>. The text is stripped
+     * as it's read so it never has to fit in memory. Neither stream is closed.
+     * @param in The Reader the text is read from.
+     * @param out The Writer the plain text is written to.
+     * @param colorCodeChar The character that begins a DCCC.
+     * @throws IOException If reading or writing fails.
+     */
+    public static void strip(Reader in, Writer out, char colorCodeChar)
+            throws IOException {
+        MarkupTokenizer tokenizer = new MarkupTokenizer(colorCodeChar);
+        StripHandler handler = new StripHandler(out);
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            tokenizer.feed(buffer, 0, read, handler);
+            handler.checkError();
+        }
+
+        tokenizer.finish(handler);
+        handler.checkError();
+        out.flush();
+    }
+
+    /**
+     * Returns the index of a Color among the ANSI colors, 0-7 for the normal
+     * colors and 8-15 for the intense colors.
+     * @param color The Color to find.
+     * @return The index of the Color, or -1 if it's not an ANSI color.
+     */
+    public static int getANSIIndex(Color color) {
+        for (int i = 0; i < normal.length; i++) {
+            if (normal[i].equals(color))
+                return i;
+            else if (bright[i].equals(color))
+                return i + normal.length;
+        }
+
+        return -1;
+    }
+
     /** 
      * This method returns the Color associated with the given ANSI Code, it
      * also takes a boolean to test for color intensity. Returns null if
@@ -438,4 +575,49 @@ public class ANSI {
                 return null;
         }
     }
+
+    /**
+     * Writes the plain text found by a MarkupTokenizer to an Appendable and
+     * ignores every code. A Handler can't throw an IOException, so the first
+     * one is kept until <code>checkError</code> is called.
+     */
+    private static final class StripHandler implements MarkupTokenizer.Handler {
+        private final Appendable out;
+        private final Writer writer;
+        private IOException error;
+
+        private StripHandler(Appendable out) {
+            this.out = out;
+            this.writer = (out instanceof Writer) ? (Writer)out : null;
+        }
+
+        public void text(char[] chars, int offset, int length) {
+            if (error != null)
+                return;
+
+            try {
+                if (writer != null)
+                    writer.write(chars, offset, length);
+                else
+                    out.append(CharBuffer.wrap(chars, offset, length));
+            } catch (IOException exc) {
+                error = exc;
+            }
+        }
+
+        public void colorCode(char foreground, char background) {
+        }
+
+        public void escape(char[] sequence, int offset, int length) {
+        }
+
+        public boolean input(char[] script, int offset, int length) {
+            return false;
+        }
+
+        private void checkError() throws IOException {
+            if (error != null)
+                throw error;
+        }
+    }
 }
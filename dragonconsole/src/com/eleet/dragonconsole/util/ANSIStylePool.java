@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+
+/**
+ * ANSIStylePool hands out the AttributeSets for text colored by ANSI codes.
+ * Each distinct combination of foreground, background and attributes is
+ * created once and interned, every later request for the same combination
+ * gets the same shared, immutable AttributeSet, so colored output doesn't
+ * create a new AttributeSet for each ANSI code it contains.<br /><br />
+ * Combinations of palette colors are looked up by the packed int key of
+ * <code>SGRState.getStyleKey</code> in an open addressing table, so switching
+ * between colors costs a single array probe and creates nothing. Only 24-bit
+ * colors, which don't fit in the key, are looked up in a HashMap.<br /><br />
+ * Default colors are not stored in the AttributeSets, they resolve to the
+ * default Style of the pool instead so the text always shows the console's
+ * current default colors. The pool is meant to be used on the Event Dispatch
+ * Thread only.
+ * @version 1.0
+ */
+public class ANSIStylePool {
+    /**
+     * The maximum number of AttributeSets kept by the pool, once it's reached
+     * the pool starts over. This only happens with output that uses a great
+     * many different colors.
+     */
+    public static final int MAX_STYLES = 4096;
+
+    /**
+     * The size of the packed key table, twice <code>MAX_STYLES</code> so it's
+     * never more than half full.
+     */
+    private static final int TABLE_SIZE = MAX_STYLES * 2;
+
+    /**
+     * Marks an empty slot in the packed key table, packed keys are never
+     * negative.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * The StyleContext that creates the immutable AttributeSets.
+     */
+    private StyleContext context;
+
+    /**
+     * The Style that default colors resolve to.
+     */
+    private AttributeSet defaultStyle;
+
+    /**
+     * The interned AttributeSets of palette colors by their packed key.
+     */
+    private int[] keys;
+    private AttributeSet[] values;
+    private int keyCount;
+
+    /**
+     * The last packed key looked up and it's AttributeSet.
+     */
+    private int lastKey;
+    private AttributeSet lastAttributes;
+
+    /**
+     * The interned AttributeSets that use 24-bit colors.
+     */
+    private HashMap<Long, AttributeSet> trueColorStyles;
+
+    /**
+     * Creates a new, empty ANSIStylePool.
+     * @param defaultStyle The Style that default colors resolve to.
+     */
+    public ANSIStylePool(AttributeSet defaultStyle) {
+        this.context = new StyleContext();
+        this.defaultStyle = defaultStyle;
+        this.keys = new int[TABLE_SIZE];
+        this.values = new AttributeSet[TABLE_SIZE];
+        this.trueColorStyles = new HashMap<Long, AttributeSet>();
+        clear();
+    }
+
+    /**
+     * Changes the Style that default colors resolve to, the pool is emptied if
+     * it's a different Style.
+     * @param defaultStyle The Style that default colors resolve to.
+     */
+    public void setDefaultStyle(AttributeSet defaultStyle) {
+        if (this.defaultStyle != defaultStyle) {
+            this.defaultStyle = defaultStyle;
+            clear();
+        }
+    }
+
+    /**
+     * Returns the Style that default colors resolve to.
+     * @return The default Style of the pool.
+     */
+    public AttributeSet getDefaultStyle() {
+        return defaultStyle;
+    }
+
+    /**
+     * Returns the shared AttributeSet for the current colors and attributes
+     * of the given SGRState.
+     * @param state The SGRState to get the AttributeSet for.
+     * @return The interned AttributeSet.
+     */
+    public AttributeSet getAttributes(SGRState state) {
+        int key = state.getStyleKey();
+        if (key != EMPTY && key == lastKey)
+            return lastAttributes;
+
+        return getAttributes(state.getForeground(), state.getBackground(),
+                state.getFlags());
+    }
+
+    /**
+     * Returns the shared AttributeSet for the given colors and attributes,
+     * creating it if this is the first time it's been asked for.
+     * @param foreground The SGRState foreground color.
+     * @param background The SGRState background color.
+     * @param flags The SGRState attribute flags.
+     * @return The interned AttributeSet.
+     */
+    public AttributeSet getAttributes(int foreground, int background,
+            int flags) {
+        int key = SGRState.packStyleKey(foreground, background, flags);
+        if (key == EMPTY)
+            return getTrueColorAttributes(foreground, background, flags);
+
+        if (key == lastKey)
+            return lastAttributes;
+
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            if (keyCount >= MAX_STYLES) {
+                clearKeys();
+                slot = findSlot(key);
+            }
+
+            keys[slot] = key;
+            values[slot] = createAttributes(foreground, background, flags);
+            keyCount++;
+        }
+
+        lastKey = key;
+        lastAttributes = values[slot];
+
+        return lastAttributes;
+    }
+
+    /**
+     * Returns the number of AttributeSets in the pool.
+     * @return The size of the pool.
+     */
+    public int size() {
+        return keyCount + trueColorStyles.size();
+    }
+
+    /**
+     * Empties the pool.
+     */
+    public void clear() {
+        clearKeys();
+        trueColorStyles.clear();
+    }
+
+    /**
+     * Empties the packed key table.
+     */
+    private void clearKeys() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        keyCount = 0;
+        lastKey = EMPTY;
+        lastAttributes = null;
+    }
+
+    /**
+     * Returns the slot of the packed key table that holds the given key, or
+     * the empty slot where it belongs if it's not in the table.
+     * @param key The packed key.
+     * @return The index of the slot.
+     */
+    private int findSlot(int key) {
+        int mask = TABLE_SIZE - 1;
+        int slot = (key * 0x9E3779B9) >>> 19 & mask; // Spread the packed bits
+        while (keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    /**
+     * Returns the shared AttributeSet for colors that include a 24-bit color.
+     */
+    private AttributeSet getTrueColorAttributes(int foreground,
+            int background, int flags) {
+        // Colors take 25 bits each (the TRUE_COLOR bit and an RGB value)
+        Long key = Long.valueOf(((long)(foreground + 1) << 34)
+                | ((long)(background + 1) << 8) | (flags & 0xFF));
+
+        AttributeSet attr = trueColorStyles.get(key);
+        if (attr == null) {
+            if (trueColorStyles.size() >= MAX_STYLES)
+                trueColorStyles.clear();
+
+            attr = createAttributes(foreground, background, flags);
+            trueColorStyles.put(key, attr);
+        }
+
+        return attr;
+    }
+
+    /**
+     * Creates the immutable AttributeSet for the given colors and attributes.
+     */
+    private AttributeSet createAttributes(int foreground, int background,
+            int flags) {
+        AttributeSet attr = context.getEmptySet();
+
+        Color color = ANSI.getColor(foreground);
+        if (color != null)
+            attr = context.addAttribute(attr, StyleConstants.Foreground, color);
+
+        color = ANSI.getColor(background);
+        if (color != null)
+            attr = context.addAttribute(attr, StyleConstants.Background, color);
+
+        if ((flags & SGRState.ITALIC) != 0)
+            attr = context.addAttribute(attr, StyleConstants.Italic,
+                    Boolean.TRUE);
+
+        if ((flags & SGRState.UNDERLINE) != 0)
+            attr = context.addAttribute(attr, StyleConstants.Underline,
+                    Boolean.TRUE);
+
+        if (defaultStyle != null)
+            attr = context.addAttribute(attr, StyleConstants.ResolveAttribute,
+                    defaultStyle);
+
+        return attr;
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * ColorCodeConverter converts text between DragonConsole Color Codes (DCCCs)
+ * and ANSI escape sequences as it streams into an Appendable, so text of any
+ * length is converted in a single pass without ever being held in memory as a
+ * whole.<br /><br />
+ * The converter works from the console's Palette, and the ANSI code for each
+ * DCCC character and the DCCC character for each ANSI color are worked out
+ * into tables when it's created, so converting a code never searches for a
+ * TextColor. A code that is split between two calls to <code>convert</code>
+ * is still recognized, <code>finish</code> is called once the text is
+ * complete to write anything that is left over.<br /><br />
+ * DCCCs are converted just like <code>ANSI.getANSICodeFromDCCode</code> does,
+ * "&&" escapes are copied as they are. ANSI sequences are read with an
+ * SGRState, so they mean the same as they do when printed in the console,
+ * colors that have no TextColor become the default style. Escape sequences
+ * that are not Select Graphic Rendition sequences are copied as they are.
+ * @version 1.0
+ */
+public class ColorCodeConverter {
+    /**
+     * The number of characters that have a slot in the character tables,
+     * characters beyond these are kept in a HashMap.
+     */
+    private static final int TABLE_SIZE = 128;
+
+    /**
+     * The maximum length of an ANSI sequence, anything longer is copied as
+     * text.
+     */
+    private static final int MAX_SEQUENCE_LENGTH = 64;
+
+    // Directions
+    private static final int TO_ANSI = 0;
+    private static final int TO_DC = 1;
+
+    // States
+    private static final int TEXT = 0;
+    private static final int COLOR_CODE = 1;
+    private static final int COLOR_CODE_FOREGROUND = 2;
+    private static final int ESCAPE_SEQUENCE = 3;
+    private static final int CONTROL_SEQUENCE = 4;
+
+    private final int direction;
+    private final char colorCodeChar;
+
+    // DCCC to ANSI Tables
+    /**
+     * The ANSI foreground and background parameters for each DCCC character,
+     * null if the character has no ANSI color.
+     */
+    private String[] foregroundCodes;
+    private String[] backgroundCodes;
+    private HashMap<Character, String> otherForegroundCodes;
+    private HashMap<Character, String> otherBackgroundCodes;
+
+    // ANSI to DCCC Tables
+    /**
+     * The DCCC character for each color of the 256 color palette, -1 if no
+     * TextColor has the color.
+     */
+    private int[] paletteCodes;
+
+    /**
+     * The TextColors of the console, used for 24-bit colors.
+     */
+    private Palette palette;
+    private char defaultForeground;
+    private char defaultBackground;
+    private SGRState sgr;
+
+    private int state;
+
+    /**
+     * The characters of the code that is currently being read.
+     */
+    private char[] token;
+    private int tokenLength;
+
+    /**
+     * Creates a converter, converters are created with <code>toANSI</code> or
+     * <code>toDC</code>.
+     */
+    private ColorCodeConverter(int direction, char colorCodeChar) {
+        this.direction = direction;
+        this.colorCodeChar = colorCodeChar;
+        this.token = new char[MAX_SEQUENCE_LENGTH];
+        reset();
+    }
+
+    /**
+     * Creates a converter that turns DCCCs into ANSI codes.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The character that begins a DCCC.
+     * @return The new ColorCodeConverter.
+     */
+    public static ColorCodeConverter toANSI(Palette palette,
+            char colorCodeChar) {
+        ColorCodeConverter converter = new ColorCodeConverter(TO_ANSI,
+                colorCodeChar);
+
+        converter.foregroundCodes = new String[TABLE_SIZE];
+        converter.backgroundCodes = new String[TABLE_SIZE];
+        converter.otherForegroundCodes = new HashMap<Character, String>();
+        converter.otherBackgroundCodes = new HashMap<Character, String>();
+
+        ArrayList<TextColor> colors = palette.getTextColors();
+        for (int i = 0; i < colors.size(); i++) {
+            TextColor tc = colors.get(i);
+            int index = ANSI.getANSIIndex(tc.getColor());
+            String foreground = null;
+            String background = null;
+            if (index != -1) {
+                foreground = (index < 8) ? "3" + index : "1;3" + (index - 8);
+                background = "4" + (index % 8);
+            }
+
+            char c = tc.getCharCode();
+            if (c < TABLE_SIZE) {
+                converter.foregroundCodes[c] = foreground;
+                converter.backgroundCodes[c] = background;
+            } else {
+                converter.otherForegroundCodes.put(Character.valueOf(c),
+                        foreground);
+                converter.otherBackgroundCodes.put(Character.valueOf(c),
+                        background);
+            }
+        }
+
+        return converter;
+    }
+
+    /**
+     * Creates a converter that turns ANSI codes into DCCCs.
+     * @param palette The TextColors of the console.
+     * @param colorCodeChar The character that begins a DCCC.
+     * @param defaultStyle The two character default style of the console,
+     *  used for default colors and colors that have no TextColor.
+     * @return The new ColorCodeConverter.
+     */
+    public static ColorCodeConverter toDC(Palette palette,
+            char colorCodeChar, String defaultStyle) {
+        ColorCodeConverter converter = new ColorCodeConverter(TO_DC,
+                colorCodeChar);
+
+        converter.palette = palette;
+        converter.paletteCodes = new int[256];
+        for (int i = 0; i < converter.paletteCodes.length; i++) {
+            TextColor tc = palette.get(ANSI.getColor(i));
+            converter.paletteCodes[i] = (tc == null) ? -1 : tc.getCharCode();
+        }
+
+        converter.defaultForeground = defaultStyle.charAt(0);
+        converter.defaultBackground = defaultStyle.charAt(1);
+        converter.sgr = new SGRState();
+
+        return converter;
+    }
+
+    /**
+     * Converts a piece of text and writes it to the Appendable.
+     * @param s The text to convert.
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     * @param out The Appendable the converted text is written to.
+     * @throws IOException If the Appendable fails.
+     */
+    public void convert(CharSequence s, int start, int end, Appendable out)
+            throws IOException {
+        char marker = (direction == TO_ANSI) ? colorCodeChar : '\033';
+        int runStart = start;
+        int i = start;
+
+        while (i < end) {
+            char c = s.charAt(i);
+
+            if (state == TEXT) {
+                if (c != marker) {
+                    i++;
+                    continue;
+                }
+
+                if (i > runStart)
+                    out.append(s, runStart, i);
+            }
+
+            // A character that breaks a code is read again as text
+            if (next(c, out))
+                i++;
+
+            runStart = i;
+        }
+
+        if (state == TEXT && runStart < end)
+            out.append(s, runStart, end);
+    }
+
+    /**
+     * Converts a piece of text held in a char array and writes it to the
+     * Appendable.
+     * @param chars The array holding the text.
+     * @param offset The index of the first character.
+     * @param length The number of characters.
+     * @param out The Appendable the converted text is written to.
+     * @throws IOException If the Appendable fails.
+     */
+    public void convert(char[] chars, int offset, int length, Appendable out)
+            throws IOException {
+        convert(CharBuffer.wrap(chars), offset, offset + length, out);
+    }
+
+    /**
+     * Writes any code that was cut off at the end of the text as it is, and
+     * readies the converter for new text.
+     * @param out The Appendable the remaining text is written to.
+     * @throws IOException If the Appendable fails.
+     */
+    public void finish(Appendable out) throws IOException {
+        writeToken(out);
+        state = TEXT;
+    }
+
+    /**
+     * Throws away any partly read code and readies the converter for new text.
+     */
+    public void reset() {
+        state = TEXT;
+        tokenLength = 0;
+    }
+
+    /**
+     * Processes a single character that is part of a code.
+     * @param c The character.
+     * @param out The Appendable the converted text is written to.
+     * @return <code>false</code> if the character was not part of the code and
+     *  has to be read again as text.
+     * @throws IOException If the Appendable fails.
+     */
+    private boolean next(char c, Appendable out) throws IOException {
+        switch (state) {
+            case TEXT:
+                token[0] = c;
+                tokenLength = 1;
+                state = (direction == TO_ANSI) ? COLOR_CODE : ESCAPE_SEQUENCE;
+                return true;
+            case COLOR_CODE:
+                if (c == colorCodeChar) {
+                    out.append(colorCodeChar).append(colorCodeChar);
+                    tokenLength = 0;
+                    state = TEXT;
+                } else {
+                    token[tokenLength++] = c;
+                    state = COLOR_CODE_FOREGROUND;
+                }
+                return true;
+            case COLOR_CODE_FOREGROUND:
+                writeANSICode(token[1], c, out);
+                tokenLength = 0;
+                state = TEXT;
+                return true;
+            case ESCAPE_SEQUENCE:
+                if (c != '[') {
+                    writeToken(out);
+                    state = TEXT;
+                    return false;
+                }
+
+                token[tokenLength++] = c;
+                state = CONTROL_SEQUENCE;
+                return true;
+            case CONTROL_SEQUENCE:
+                if (c == 'm') {
+                    token[tokenLength++] = c;
+                    writeDCCode(out);
+                    tokenLength = 0;
+                    state = TEXT;
+                    return true;
+                } else if (((c >= '0' && c <= '9') || c == ';' || c == ':')
+                        && tokenLength < MAX_SEQUENCE_LENGTH - 1) {
+                    token[tokenLength++] = c;
+                    return true;
+                }
+
+                writeToken(out);
+                state = TEXT;
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the characters of a code that could not be converted as they
+     * are.
+     */
+    private void writeToken(Appendable out) throws IOException {
+        for (int i = 0; i < tokenLength; i++)
+            out.append(token[i]);
+
+        tokenLength = 0;
+    }
+
+    /**
+     * Writes the ANSI code for a DCCC.
+     */
+    private void writeANSICode(char foreground, char background,
+            Appendable out) throws IOException {
+        out.append(ANSI.ESCAPE).append("[0");
+
+        String code = getANSIParameters(foreground, foregroundCodes,
+                otherForegroundCodes);
+        if (code != null)
+            out.append(';').append(code);
+
+        code = getANSIParameters(background, backgroundCodes,
+                otherBackgroundCodes);
+        if (code != null)
+            out.append(';').append(code);
+
+        out.append('m');
+    }
+
+    /**
+     * Returns the ANSI parameters for a DCCC character, or null if there are
+     * none.
+     */
+    private static String getANSIParameters(char c, String[] table,
+            HashMap<Character, String> other) {
+        if (c == '0')
+            return "0";
+        else if (c == '-')
+            return null;
+        else if (c < TABLE_SIZE)
+            return table[c];
+
+        return other.get(Character.valueOf(c));
+    }
+
+    /**
+     * Writes the DCCC for the ANSI sequence held in <code>token</code>.
+     */
+    private void writeDCCode(Appendable out) throws IOException {
+        // Each sequence stands on it's own, whatever it leaves unset is
+        // default
+        sgr.reset();
+        if (!sgr.update(token, 0, tokenLength)) {
+            writeToken(out);
+            return;
+        }
+
+        out.append(colorCodeChar)
+                .append(getDCChar(sgr.getForeground(), defaultForeground))
+                .append(getDCChar(sgr.getBackground(), defaultBackground));
+    }
+
+    /**
+     * Returns the DCCC character for an SGRState color.
+     */
+    private char getDCChar(int color, char defaultChar) {
+        if (color >= 0 && color < paletteCodes.length)
+            return (paletteCodes[color] == -1) ? defaultChar
+                    : (char)paletteCodes[color];
+
+        if (color != SGRState.DEFAULT_COLOR) {
+            TextColor tc = palette.get(ANSI.getColor(color));
+            if (tc != null)
+                return tc.getCharCode();
+        }
+
+        return defaultChar;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.io.IOException;
+
+/**
+ * The entries that have been entered into a console, oldest first, which the
+ * user steps through with SHIFT + LEFT and SHIFT + RIGHT. A CommandHistory can
+ * be shared by several DragonConsoles, each console keeps it's own place in
+ * the history. Implementations are safe to use from several Threads.
+ * @version 1.0
+ */
+public interface CommandHistory {
+    /**
+     * Adds an entry to the end of the history.
+     * @param entry The entry to add.
+     * @throws IOException If the entry could not be stored.
+     */
+    void add(String entry) throws IOException;
+
+    /**
+     * Returns an entry of the history.
+     * @param index The index of the entry, <code>0</code> is the oldest.
+     * @return The entry.
+     * @throws IOException If the entry could not be read.
+     */
+    String get(int index) throws IOException;
+
+    /**
+     * Returns the number of entries in the history.
+     * @return The size of the history.
+     */
+    int size();
+}
@@ -0,0 +1,1378 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.*;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * ConsoleDocument is a StyledDocument built for console output, which is
+ * almost always appended to the end and only ever removed from the front (when
+ * the scrollback is trimmed) or from the current input at the end.<br /><br />
+ * The text is kept in a gap buffer (<code>GapContent</code>) and the styles
+ * are kept as a run-length list of primitive style ids, one (start, id) pair
+ * for each change of style, with each distinct AttributeSet stored once in a
+ * style table. Lines are the only objects kept per line of text, the leaf
+ * elements of a line are created from the runs when a line is first asked for
+ * them. DefaultStyledDocument on the other hand keeps a branch element per
+ * line, a leaf element and two Positions per run and a copy of the attributes
+ * for each leaf.<br /><br />
+ * All start offsets are stored relative to a moving <code>origin</code>, so
+ * removing text from the front of the document (trimming the scrollback) is
+ * done without touching any of the lines or runs that remain. Any change to a
+ * line replaces it's element with a new one, which is reported as an
+ * ElementChange on the root so the views of the JTextPane keep working as they
+ * do with a DefaultStyledDocument. Paragraph attributes are not kept per line,
+ * every line uses the default Style of the Document.
+ * @version 1.0
+ */
+public class ConsoleDocument extends AbstractDocument implements StyledRunsDocument {
+    /**
+     * The initial capacity of the line and run arrays.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Once the <code>origin</code> grows past this value all stored offsets
+     * are rebased so they can't overflow.
+     */
+    private static final int MAX_ORIGIN = 1 << 30;
+
+    /**
+     * The StyleContext that holds the Styles of this Document.
+     */
+    private StyleContext styles;
+
+    /**
+     * The default Style, used as the attributes of every line.
+     */
+    private Style defaultStyle;
+
+    /**
+     * The root element, it's children are the lines.
+     */
+    private RootElement root;
+
+    /**
+     * The value that is subtracted from every stored offset to get the real
+     * offset in the Document.
+     */
+    private int origin;
+
+    // Lines
+    private LineElement[] lines;
+    private int firstLine;
+    private int lineCount;
+
+    // Style Runs
+    private int[] runStarts;
+    private int[] runStyles;
+    private int firstRun;
+    private int runCount;
+
+    // Style Table
+    private ArrayList<AttributeSet> styleTable;
+    private HashMap<AttributeSet, Integer> styleIds;
+
+    /**
+     * The number of runs using each id of the style table, an id is freed
+     * (and it's AttributeSet dropped from the table) once no run uses it.
+     */
+    private int[] styleRefs;
+
+    /**
+     * The ids that have been freed, they're given out again before the table
+     * grows.
+     */
+    private int[] freeIds;
+    private int freeCount;
+
+    /**
+     * The last immutable AttributeSet looked up in the style table and it's
+     * id, output usually uses the same few shared AttributeSets over and over.
+     */
+    private AttributeSet lastStyle;
+    private int lastStyleId;
+
+    /**
+     * Listens to the Styles of this Document so that the views are updated
+     * when a Style that is in use changes.
+     */
+    private ChangeListener styleListener;
+
+    /**
+     * The number of AttributeSets in the style table that resolve directly to
+     * each parent. Only the immutable AttributeSets are counted here, a Style
+     * can be given a new parent so Styles are kept in
+     * <code>styleChildren</code> instead.
+     */
+    private HashMap<AttributeSet, Integer> tableChildren;
+
+    /**
+     * The Styles of this Document that resolve directly to each parent, and
+     * the parent each Style had when it was last looked at. Together with
+     * <code>tableChildren</code> these tell if a changed Style is used by any
+     * text without looking through the style table.
+     */
+    private HashMap<AttributeSet, ArrayList<Style>> styleChildren;
+    private HashMap<Style, AttributeSet> styleParents;
+
+    /**
+     * <code>true</code> while a change event for a changed Style is waiting to
+     * be fired.
+     */
+    private boolean styleChangePending;
+
+    /**
+     * Counts the change events fired for changed Styles, views that keep the
+     * attributes of their text compare it to know they have to read them
+     * again.
+     */
+    private int styleGeneration;
+
+    /**
+     * Creates a new, empty ConsoleDocument with it's own StyleContext.
+     */
+    public ConsoleDocument() {
+        this(new StyleContext());
+    }
+
+    /**
+     * Creates a new, empty ConsoleDocument that uses the given StyleContext.
+     * @param styles The StyleContext used for the Styles of this Document.
+     */
+    public ConsoleDocument(StyleContext styles) {
+        super(new GapContent(), styles);
+        this.styles = styles;
+        this.origin = 0;
+
+        styleTable = new ArrayList<AttributeSet>();
+        styleIds = new HashMap<AttributeSet, Integer>();
+        styleRefs = new int[INITIAL_CAPACITY];
+        freeIds = new int[INITIAL_CAPACITY];
+        freeCount = 0;
+        lastStyle = null;
+        lastStyleId = -1;
+        styleChangePending = false;
+        styleGeneration = 0;
+        tableChildren = new HashMap<AttributeSet, Integer>();
+        styleChildren = new HashMap<AttributeSet, ArrayList<Style>>();
+        styleParents = new HashMap<Style, AttributeSet>();
+        styleListener = new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                styleChanged((Style)e.getSource());
+            }
+        };
+
+        defaultStyle = styles.getStyle(StyleContext.DEFAULT_STYLE);
+        defaultStyle.addChangeListener(styleListener);
+        linkStyle(defaultStyle);
+
+        root = new RootElement();
+
+        lines = new LineElement[INITIAL_CAPACITY];
+        lines[0] = new LineElement(0);
+        lines[0].slot = 0;
+        firstLine = 0;
+        lineCount = 1;
+
+        runStarts = new int[INITIAL_CAPACITY];
+        runStyles = new int[INITIAL_CAPACITY];
+        runStarts[0] = 0;
+        runStyles[0] = getStyleId(null);
+        retainStyle(runStyles[0]);
+        firstRun = 0;
+        runCount = 1;
+    }
+
+    /**
+     * Inserts all runs of the given StyledRuns at the given offset with a
+     * single document change, each run keeps it's own style. The insertion
+     * does not pass through the DocumentFilter.
+     * @param offset The location in the Document to insert the runs at.
+     * @param runs The styled text to insert.
+     * @throws BadLocationException If the offset is not a valid location in
+     *  the Document.
+     */
+    public void insertRuns(int offset, StyledRuns runs)
+            throws BadLocationException {
+        if (runs.isEmpty())
+            return;
+
+        writeLock();
+        try {
+            if (offset < 0 || offset > getLength())
+                throw new BadLocationException("Invalid insert", offset);
+
+            int length = runs.length();
+            UndoableEdit u = getContent().insertString(offset,
+                    new String(runs.getText(), 0, length));
+            DefaultDocumentEvent chng = new DefaultDocumentEvent(offset,
+                    length, DocumentEvent.EventType.INSERT);
+            if (u != null)
+                chng.addEdit(u);
+
+            insertStructure(chng, offset, length);
+
+            for (int i = 0; i < runs.getRunCount(); i++) {
+                int runStart = offset + runs.getRunOffset(i);
+                setRunStyle(runStart, runStart + runs.getRunLength(i),
+                        getStyleId(runs.getRunStyle(i)));
+            }
+
+            super.insertUpdate(chng, null);
+            chng.end();
+            fireInsertUpdate(chng);
+
+            if (u != null)
+                fireUndoableEditUpdate(new UndoableEditEvent(this, chng));
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Updates the lines and runs for text that was inserted with
+     * <code>insertString</code>.
+     * @param chng The event describing the insertion.
+     * @param attr The attributes of the inserted text.
+     */
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        int offset = chng.getOffset();
+        int end = offset + chng.getLength();
+
+        insertStructure(chng, offset, chng.getLength());
+        setRunStyle(offset, end, getStyleId(attr));
+
+        super.insertUpdate(chng, attr);
+    }
+
+    /**
+     * Updates the lines and runs for text that is about to be removed.
+     * @param chng The event describing the removal.
+     */
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int end = offset + length;
+
+        // Removing from the front moves the origin instead of every offset
+        boolean front = (offset == 0);
+        int newOrigin = front ? origin + length : origin;
+        int joinStart = newOrigin + offset; // Stored start of the text after the removal
+
+        // Lines
+        int first = getLineIndex(offset);
+        int last = getLineIndex(end);
+        Element[] removed;
+        LineElement[] added;
+
+        if (first == last) {
+            LineElement line = lines[firstLine + first];
+            removed = new Element[] {line};
+            added = new LineElement[] {new LineElement(front ? joinStart : line.start)};
+            replaceLines(first, 1, added);
+        } else if (getLineStart(first) == offset && getLineStart(last) == end) {
+            // Only whole lines are removed, the line at the end is kept as is
+            removed = new Element[last - first];
+            System.arraycopy(lines, firstLine + first, removed, 0, removed.length);
+            added = new LineElement[0];
+            replaceLines(first, removed.length, added);
+            lines[firstLine + first].start = joinStart;
+        } else {
+            removed = new Element[last - first + 1];
+            System.arraycopy(lines, firstLine + first, removed, 0, removed.length);
+            int start = front ? joinStart : lines[firstLine + first].start;
+            added = new LineElement[] {new LineElement(start)};
+            replaceLines(first, removed.length, added);
+        }
+
+        if (!front) {
+            for (int i = first + 1; i < lineCount; i++)
+                lines[firstLine + i].start -= length;
+        }
+
+        chng.addEdit(new LineEdit(first, removed, added));
+
+        // Runs
+        int a = getRunIndex(offset);
+        int b = getRunIndex(end);
+        if (b > a) {
+            // The run at the end of the removal now starts where it began
+            int from = (getRunStart(a) == offset) ? a : a + 1;
+            runStarts[firstRun + b] = joinStart;
+            deleteRuns(from, b - from);
+            b = from;
+        } else if (front) {
+            runStarts[firstRun] = joinStart;
+        }
+
+        if (!front) {
+            for (int i = b + 1; i < runCount; i++)
+                runStarts[firstRun + i] -= length;
+        }
+
+        if (b > 0 && runStyles[firstRun + b - 1] == runStyles[firstRun + b])
+            deleteRuns(b, 1);
+
+        origin = newOrigin;
+        if (origin > MAX_ORIGIN)
+            rebase();
+
+        super.removeUpdate(chng);
+    }
+
+    /**
+     * Moves the lines and runs after the offset and creates the lines for any
+     * newlines in the inserted text. The inserted text is added to the run that
+     * contains the offset, it's style is set afterwards.
+     * @param chng The event describing the insertion.
+     * @param offset The location the text was inserted at.
+     * @param length The length of the inserted text.
+     */
+    private void insertStructure(DefaultDocumentEvent chng, int offset, int length) {
+        Segment text = new Segment();
+        try {
+            getText(offset, length, text);
+        } catch (BadLocationException exc) {
+            return; // Can't happen, the text was just inserted
+        }
+
+        // Lines
+        int index = getLineIndex(offset);
+        for (int i = index + 1; i < lineCount; i++)
+            lines[firstLine + i].start += length;
+
+        int newLines = 0;
+        for (int i = 0; i < length; i++) {
+            if (text.array[text.offset + i] == '\n')
+                newLines++;
+        }
+
+        LineElement line = lines[firstLine + index];
+        LineElement[] added = new LineElement[newLines + 1];
+        added[0] = new LineElement(line.start);
+        int n = 1;
+        for (int i = 0; i < length; i++) {
+            if (text.array[text.offset + i] == '\n')
+                added[n++] = new LineElement(origin + offset + i + 1);
+        }
+
+        Element[] removed = {line};
+        replaceLines(index, 1, added);
+        chng.addEdit(new LineEdit(index, removed, added));
+
+        // Runs
+        int run = getRunIndex(offset);
+        for (int i = run + 1; i < runCount; i++)
+            runStarts[firstRun + i] += length;
+    }
+
+    /**
+     * Gives the text between <code>start</code> and <code>end</code> a
+     * single style. Runs are split where needed and merged with their
+     * neighbors if they end up with the same style.
+     * @param start The offset of the first character.
+     * @param end The offset after the last character.
+     * @param id The style id for the text.
+     */
+    private void setRunStyle(int start, int end, int id) {
+        if (start == end)
+            return;
+
+        int a = getRunIndex(start);
+        if (getRunStart(a) < start) {
+            insertRun(a + 1, start, runStyles[firstRun + a]);
+            a++;
+        }
+
+        int c; // The last run that lies within the range
+        int b = getRunIndex(end);
+        if (getRunStart(b) < end) {
+            insertRun(b + 1, end, runStyles[firstRun + b]);
+            c = b;
+        } else
+            c = b - 1;
+
+        retainStyle(id);
+        releaseStyle(runStyles[firstRun + a]);
+        runStyles[firstRun + a] = id;
+        if (c > a)
+            deleteRuns(a + 1, c - a);
+
+        if (a + 1 < runCount && runStyles[firstRun + a + 1] == id)
+            deleteRuns(a + 1, 1);
+        if (a > 0 && runStyles[firstRun + a - 1] == id)
+            deleteRuns(a, 1);
+    }
+
+    /**
+     * Inserts a new run.
+     * @param index The index of the new run.
+     * @param start The offset in the Document where the run starts.
+     * @param id The style id of the run.
+     */
+    private void insertRun(int index, int start, int id) {
+        if (firstRun + runCount + 1 > runStarts.length) {
+            int capacity = runStarts.length;
+            if ((runCount + 1) * 2 > capacity)
+                capacity = (runCount + 1) * 2;
+
+            int[] newStarts = new int[capacity];
+            int[] newStyles = new int[capacity];
+            System.arraycopy(runStarts, firstRun, newStarts, 0, runCount);
+            System.arraycopy(runStyles, firstRun, newStyles, 0, runCount);
+            runStarts = newStarts;
+            runStyles = newStyles;
+            firstRun = 0;
+        }
+
+        int i = firstRun + index;
+        System.arraycopy(runStarts, i, runStarts, i + 1, runCount - index);
+        System.arraycopy(runStyles, i, runStyles, i + 1, runCount - index);
+        runStarts[i] = origin + start;
+        runStyles[i] = id;
+        runCount++;
+        retainStyle(id);
+    }
+
+    /**
+     * Deletes a number of runs, runs at the front are dropped without moving
+     * the rest.
+     * @param index The index of the first run to delete.
+     * @param count The number of runs to delete.
+     */
+    private void deleteRuns(int index, int count) {
+        if (count <= 0)
+            return;
+
+        for (int i = 0; i < count; i++)
+            releaseStyle(runStyles[firstRun + index + i]);
+
+        if (index == 0) {
+            firstRun += count;
+        } else {
+            int i = firstRun + index;
+            System.arraycopy(runStarts, i + count, runStarts, i, runCount - index - count);
+            System.arraycopy(runStyles, i + count, runStyles, i, runCount - index - count);
+        }
+
+        runCount -= count;
+    }
+
+    /**
+     * Replaces a number of lines with new lines. Lines removed from the front
+     * are dropped without moving the rest.
+     * @param index The index of the first line to replace.
+     * @param removeCount The number of lines to remove.
+     * @param added The lines to put in their place.
+     */
+    private void replaceLines(int index, int removeCount, LineElement[] added) {
+        for (int i = 0; i < removeCount; i++)
+            lines[firstLine + index + i].detach();
+
+        int delta = added.length - removeCount;
+
+        if (index == 0 && delta <= 0) {
+            for (int i = 0; i < -delta; i++)
+                lines[firstLine + i] = null;
+
+            firstLine -= delta;
+            lineCount += delta;
+            for (int i = 0; i < added.length; i++) {
+                lines[firstLine + i] = added[i];
+                added[i].slot = firstLine + i;
+            }
+
+            return;
+        }
+
+        if (firstLine + lineCount + delta > lines.length) {
+            int capacity = lines.length;
+            if ((lineCount + delta) * 2 > capacity)
+                capacity = (lineCount + delta) * 2;
+
+            LineElement[] newLines = new LineElement[capacity];
+            System.arraycopy(lines, firstLine, newLines, 0, lineCount);
+            lines = newLines;
+            firstLine = 0;
+
+            for (int i = 0; i < lineCount; i++)
+                lines[i].slot = i;
+        }
+
+        int tail = lineCount - index - removeCount;
+        System.arraycopy(lines, firstLine + index + removeCount,
+                lines, firstLine + index + added.length, tail);
+        System.arraycopy(added, 0, lines, firstLine + index, added.length);
+
+        for (int i = lineCount + delta; i < lineCount; i++)
+            lines[firstLine + i] = null;
+
+        lineCount += delta;
+
+        int updateEnd = (delta == 0) ? index + added.length : lineCount;
+        for (int i = index; i < updateEnd; i++)
+            lines[firstLine + i].slot = firstLine + i;
+    }
+
+    /**
+     * Subtracts the <code>origin</code> from every stored offset and resets
+     * it to 0.
+     */
+    private void rebase() {
+        for (int i = 0; i < lineCount; i++)
+            lines[firstLine + i].start -= origin;
+        for (int i = 0; i < runCount; i++)
+            runStarts[firstRun + i] -= origin;
+
+        origin = 0;
+    }
+
+    /**
+     * Returns the offset in the Document where the given line starts.
+     * @param index The index of the line.
+     * @return The start offset of the line.
+     */
+    private int getLineStart(int index) {
+        return lines[firstLine + index].start - origin;
+    }
+
+    /**
+     * Returns the offset in the Document where the given run starts.
+     * @param index The index of the run.
+     * @return The start offset of the run.
+     */
+    private int getRunStart(int index) {
+        return runStarts[firstRun + index] - origin;
+    }
+
+    /**
+     * Returns the index of the line containing the given offset.
+     * @param offset The offset in the Document.
+     * @return The index of the last line that starts at or before the offset.
+     */
+    private int getLineIndex(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getLineStart(mid) <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the index of the run containing the given offset.
+     * @param offset The offset in the Document.
+     * @return The index of the last run that starts at or before the offset.
+     */
+    private int getRunIndex(int offset) {
+        int low = 0;
+        int high = runCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getRunStart(mid) <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the id of the given AttributeSet in the style table, adding it
+     * if it's not there yet. Styles are stored as they are so that changes to
+     * a Style show up in the text using it, and so are immutable AttributeSets
+     * that already have a resolve parent (like the shared ANSI styles). Any
+     * other AttributeSet is stored as an immutable copy. Attributes without a
+     * resolve parent resolve to the default Style, just like text in a
+     * DefaultStyledDocument resolves to it's paragraph. The id is only kept
+     * once a run is given it.
+     * @param attr The AttributeSet to find.
+     * @return The id of the AttributeSet.
+     */
+    private int getStyleId(AttributeSet attr) {
+        if (attr == null)
+            attr = SimpleAttributeSet.EMPTY;
+
+        if (attr == lastStyle)
+            return lastStyleId;
+
+        boolean shared = (attr instanceof Style
+                || (attr instanceof StyleContext.SmallAttributeSet
+                && attr.getResolveParent() != null));
+
+        AttributeSet key = attr;
+        if (!shared) {
+            key = styles.addAttributes(SimpleAttributeSet.EMPTY, attr);
+            if (key.getResolveParent() == null)
+                key = styles.addAttribute(key, StyleConstants.ResolveAttribute,
+                        defaultStyle);
+        }
+
+        Integer id = styleIds.get(key);
+        if (id == null) {
+            if (freeCount > 0) {
+                id = Integer.valueOf(freeIds[--freeCount]);
+                styleTable.set(id.intValue(), key);
+            } else {
+                id = Integer.valueOf(styleTable.size());
+                styleTable.add(key);
+                if (styleTable.size() > styleRefs.length) {
+                    int[] newRefs = new int[styleRefs.length * 2];
+                    System.arraycopy(styleRefs, 0, newRefs, 0, styleRefs.length);
+                    styleRefs = newRefs;
+                }
+            }
+
+            styleIds.put(key, id);
+            if (!(key instanceof Style))
+                addTableChild(key.getResolveParent());
+        }
+
+        // Only AttributeSets that can't change are remembered by identity
+        if (shared || attr instanceof StyleContext.SmallAttributeSet) {
+            lastStyle = attr;
+            lastStyleId = id.intValue();
+        }
+
+        return id.intValue();
+    }
+
+    /**
+     * Adds a run to the number of runs using a style id.
+     * @param id The style id.
+     */
+    private void retainStyle(int id) {
+        styleRefs[id]++;
+    }
+
+    /**
+     * Removes a run from the number of runs using a style id, freeing the id
+     * if it was the last one. Trimming the scrollback and restyling text
+     * release the ids of the runs they remove, so the style table only holds
+     * the styles of the text that's still in the Document.
+     * @param id The style id.
+     */
+    private void releaseStyle(int id) {
+        if (--styleRefs[id] > 0)
+            return;
+
+        AttributeSet key = styleTable.get(id);
+        styleIds.remove(key);
+        if (!(key instanceof Style))
+            removeTableChild(key.getResolveParent());
+
+        styleTable.set(id, null);
+        if (lastStyleId == id) {
+            lastStyle = null;
+            lastStyleId = -1;
+        }
+
+        if (freeCount == freeIds.length) {
+            int[] newFree = new int[freeIds.length * 2];
+            System.arraycopy(freeIds, 0, newFree, 0, freeCount);
+            freeIds = newFree;
+        }
+
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Counts an AttributeSet of the style table that resolves to the given
+     * parent.
+     * @param parent The resolve parent of the AttributeSet.
+     */
+    private void addTableChild(AttributeSet parent) {
+        if (parent == null)
+            return;
+
+        Integer count = tableChildren.get(parent);
+        tableChildren.put(parent, Integer.valueOf(
+                (count == null) ? 1 : count.intValue() + 1));
+    }
+
+    /**
+     * Removes an AttributeSet of the style table that resolved to the given
+     * parent from it's count.
+     * @param parent The resolve parent of the AttributeSet.
+     */
+    private void removeTableChild(AttributeSet parent) {
+        if (parent == null)
+            return;
+
+        Integer count = tableChildren.get(parent);
+        if (count == null)
+            return;
+
+        if (count.intValue() > 1)
+            tableChildren.put(parent, Integer.valueOf(count.intValue() - 1));
+        else
+            tableChildren.remove(parent);
+    }
+
+    /**
+     * Adds a Style to the children of it's current resolve parent.
+     * @param style The Style to add.
+     */
+    private void linkStyle(Style style) {
+        AttributeSet parent = style.getResolveParent();
+        styleParents.put(style, parent);
+        if (parent == null)
+            return;
+
+        ArrayList<Style> children = styleChildren.get(parent);
+        if (children == null) {
+            children = new ArrayList<Style>(2);
+            styleChildren.put(parent, children);
+        }
+
+        children.add(style);
+    }
+
+    /**
+     * Removes a Style from the children of the resolve parent it was added
+     * under.
+     * @param style The Style to remove.
+     */
+    private void unlinkStyle(Style style) {
+        AttributeSet parent = styleParents.remove(style);
+        if (parent == null)
+            return;
+
+        ArrayList<Style> children = styleChildren.get(parent);
+        if (children != null) {
+            children.remove(style);
+            if (children.isEmpty())
+                styleChildren.remove(parent);
+        }
+    }
+
+    /**
+     * Called when one of the Styles of this Document changes, if the Style is
+     * in use a change event for the whole Document is fired (once, no matter
+     * how many changes are made before it runs) so the text is repainted.
+     * The views of the <code>ConsoleEditorKit</code>, with or without the
+     * grid renderer, see that the event only changed Styles (with
+     * <code>isStyleChange</code>) and only repaint the visible lines instead
+     * of laying out the whole Document again.
+     * @param style The Style that changed.
+     */
+    private void styleChanged(Style style) {
+        if (styleParents.containsKey(style)
+                && styleParents.get(style) != style.getResolveParent()) {
+            unlinkStyle(style);
+            linkStyle(style);
+        }
+
+        if (!isStyleInUse(style))
+            return;
+
+        if (!styleChangePending && getLength() > 0) {
+            styleChangePending = true;
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    styleChangePending = false;
+                    fireStyleChange();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if text in the Document uses the Style, either
+     * directly or through the resolve parents of the AttributeSets in the
+     * style table (like a role Style resolving to a color Style). Only the
+     * children of the Style are looked at, not the whole style table. New
+     * Styles change while they're set up, before anything uses them, so these
+     * don't cause a repaint.
+     */
+    private boolean isStyleInUse(AttributeSet style) {
+        if (style == defaultStyle || styleIds.containsKey(style)
+                || tableChildren.containsKey(style))
+            return true;
+
+        ArrayList<Style> children = styleChildren.get(style);
+        if (children != null) {
+            for (int i = 0; i < children.size(); i++) {
+                if (isStyleInUse(children.get(i)))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Fires a change event covering the whole Document.
+     */
+    private void fireStyleChange() {
+        writeLock();
+        try {
+            styleGeneration++;
+            DefaultDocumentEvent chng = new StyleChangeEvent(getLength());
+            chng.end();
+            fireChangedUpdate(chng);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the event was fired because Styles used by
+     * the text changed, the text and it's elements are the same so the views
+     * only have to repaint it.
+     * @param e The change event.
+     * @return <code>true</code> if only Styles changed.
+     */
+    public boolean isStyleChange(DocumentEvent e) {
+        return (e instanceof StyleChangeEvent);
+    }
+
+    /**
+     * Returns the number of times Styles used by the text have changed, it
+     * goes up with every event for which <code>isStyleChange</code> is
+     * <code>true</code>.
+     * @return The style generation of this Document.
+     */
+    public int getStyleGeneration() {
+        return styleGeneration;
+    }
+
+    /**
+     * The change event fired when Styles used by the text change.
+     */
+    private class StyleChangeEvent extends DefaultDocumentEvent {
+        private StyleChangeEvent(int length) {
+            super(0, length, DocumentEvent.EventType.CHANGE);
+        }
+    }
+
+    /**
+     * Returns the root element of this Document, it's children are the lines.
+     * @return The root element.
+     */
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    /**
+     * Returns the line containing the given offset.
+     * @param pos The offset in the Document.
+     * @return The line element containing the offset.
+     */
+    public Element getParagraphElement(int pos) {
+        return lines[firstLine + getLineIndex(pos)];
+    }
+
+    /**
+     * Returns the leaf element containing the given offset.
+     * @param pos The offset in the Document.
+     * @return The leaf element containing the offset.
+     */
+    public Element getCharacterElement(int pos) {
+        Element line = getParagraphElement(pos);
+        return line.getElement(line.getElementIndex(pos));
+    }
+
+    /**
+     * Adds a new Style to this Document.
+     * @param nm The name of the Style.
+     * @param parent The parent of the Style, or <code>null</code>.
+     * @return The new Style.
+     */
+    public Style addStyle(String nm, Style parent) {
+        Style style = styles.addStyle(nm, parent);
+        style.addChangeListener(styleListener);
+        linkStyle(style);
+
+        return style;
+    }
+
+    /**
+     * Removes a Style from this Document, text that uses the Style keeps it.
+     * @param nm The name of the Style to remove.
+     */
+    public void removeStyle(String nm) {
+        Style style = styles.getStyle(nm);
+        if (style != null) {
+            style.removeChangeListener(styleListener);
+            unlinkStyle(style);
+        }
+
+        styles.removeStyle(nm);
+    }
+
+    /**
+     * Returns the Style with the given name.
+     * @param nm The name of the Style.
+     * @return The Style, or <code>null</code> if there is no such Style.
+     */
+    public Style getStyle(String nm) {
+        return styles.getStyle(nm);
+    }
+
+    /**
+     * Changes the attributes of the given range of text. Every line in the
+     * range is replaced so the views pick up the new attributes.
+     * @param offset The offset of the first character.
+     * @param length The number of characters to change.
+     * @param s The attributes to apply.
+     * @param replace <code>true</code> if the attributes replace the existing
+     *  ones, or <code>false</code> if they are added to them.
+     */
+    public void setCharacterAttributes(int offset, int length, AttributeSet s,
+            boolean replace) {
+        if (length <= 0)
+            return;
+
+        writeLock();
+        try {
+            int end = Math.min(offset + length, getLength() + 1);
+            if (offset < 0 || offset >= end)
+                return;
+
+            // Work out the new style of each run in the range first since
+            // setting them changes the runs, the new ids are held until all
+            // of them are set so none is freed in between
+            ArrayList<int[]> changes = new ArrayList<int[]>();
+            int run = getRunIndex(offset);
+            while (run < runCount && getRunStart(run) < end) {
+                int runStart = Math.max(getRunStart(run), offset);
+                int runEnd = (run + 1 < runCount) ? Math.min(getRunStart(run + 1), end) : end;
+
+                AttributeSet attr = s;
+                if (!replace)
+                    attr = styles.addAttributes(styleTable.get(runStyles[firstRun + run]), s);
+
+                int id = getStyleId(attr);
+                retainStyle(id);
+                changes.add(new int[] {runStart, runEnd, id});
+                run++;
+            }
+
+            for (int i = 0; i < changes.size(); i++) {
+                int[] change = changes.get(i);
+                setRunStyle(change[0], change[1], change[2]);
+            }
+
+            for (int i = 0; i < changes.size(); i++)
+                releaseStyle(changes.get(i)[2]);
+
+            DefaultDocumentEvent chng = new DefaultDocumentEvent(offset,
+                    end - offset, DocumentEvent.EventType.CHANGE);
+            replaceLineElements(chng, getLineIndex(offset), getLineIndex(end - 1));
+            chng.end();
+            fireChangedUpdate(chng);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Replaces the elements of the given lines with new ones for the same text,
+     * used when the styles of the lines have changed.
+     * @param chng The event the ElementChange is added to.
+     * @param first The index of the first line.
+     * @param last The index of the last line.
+     */
+    private void replaceLineElements(DefaultDocumentEvent chng, int first, int last) {
+        Element[] removed = new Element[last - first + 1];
+        LineElement[] added = new LineElement[removed.length];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = lines[firstLine + first + i];
+            added[i] = new LineElement(lines[firstLine + first + i].start);
+        }
+
+        replaceLines(first, removed.length, added);
+        chng.addEdit(new LineEdit(first, removed, added));
+    }
+
+    /**
+     * Paragraph attributes are not kept per line by a ConsoleDocument, every
+     * line uses the default Style so this method does nothing.
+     */
+    public void setParagraphAttributes(int offset, int length, AttributeSet s,
+            boolean replace) {
+    }
+
+    /**
+     * Logical styles are not kept per line by a ConsoleDocument, every line
+     * uses the default Style so this method does nothing.
+     */
+    public void setLogicalStyle(int pos, Style s) {
+    }
+
+    /**
+     * Returns the logical Style of the line at the given offset, this is
+     * always the default Style.
+     * @param p The offset in the Document.
+     * @return The default Style.
+     */
+    public Style getLogicalStyle(int p) {
+        return defaultStyle;
+    }
+
+    /**
+     * Returns the foreground color of the given attributes.
+     * @param attr The attributes.
+     * @return The foreground Color.
+     */
+    public Color getForeground(AttributeSet attr) {
+        return styles.getForeground(attr);
+    }
+
+    /**
+     * Returns the background color of the given attributes.
+     * @param attr The attributes.
+     * @return The background Color.
+     */
+    public Color getBackground(AttributeSet attr) {
+        return styles.getBackground(attr);
+    }
+
+    /**
+     * Returns the Font of the given attributes.
+     * @param attr The attributes.
+     * @return The Font.
+     */
+    public Font getFont(AttributeSet attr) {
+        return styles.getFont(attr);
+    }
+
+    /**
+     * The root element of a ConsoleDocument, it's children are the lines.
+     */
+    private class RootElement implements Element {
+        public Document getDocument() {
+            return ConsoleDocument.this;
+        }
+
+        public Element getParentElement() {
+            return null;
+        }
+
+        public String getName() {
+            return AbstractDocument.SectionElementName;
+        }
+
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        public int getStartOffset() {
+            return 0;
+        }
+
+        public int getEndOffset() {
+            return getLength() + 1;
+        }
+
+        public int getElementIndex(int offset) {
+            return getLineIndex(offset);
+        }
+
+        public int getElementCount() {
+            return lineCount;
+        }
+
+        public Element getElement(int index) {
+            if (index < 0 || index >= lineCount)
+                return null;
+
+            return lines[firstLine + index];
+        }
+
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    /**
+     * A single line of text. The start of the line is stored relative to the
+     * <code>origin</code> and the end is the start of the next line, the leaf
+     * elements are created from the runs the first time they are needed.
+     */
+    private class LineElement implements Element {
+        private int start;
+        private int end;
+        private int slot;
+        private RunElement[] leaves;
+
+        /**
+         * Creates a new line.
+         * @param start The stored start of the line.
+         */
+        public LineElement(int start) {
+            this.start = start;
+            this.end = 0;
+            this.slot = -1;
+            this.leaves = null;
+        }
+
+        /**
+         * Called when this line is removed from the Document, it keeps the
+         * offsets it had at the time.
+         */
+        private void detach() {
+            end = getEndOffset();
+            start = getStartOffset();
+            slot = -1;
+        }
+
+        public Document getDocument() {
+            return ConsoleDocument.this;
+        }
+
+        public Element getParentElement() {
+            return root;
+        }
+
+        public String getName() {
+            return AbstractDocument.ParagraphElementName;
+        }
+
+        public AttributeSet getAttributes() {
+            return defaultStyle;
+        }
+
+        public int getStartOffset() {
+            if (slot < 0)
+                return start;
+
+            return start - origin;
+        }
+
+        public int getEndOffset() {
+            if (slot < 0)
+                return end;
+
+            if (slot + 1 < firstLine + lineCount)
+                return lines[slot + 1].start - origin;
+
+            return getLength() + 1;
+        }
+
+        public int getElementIndex(int offset) {
+            RunElement[] runs = getLeaves();
+            int relative = offset - getStartOffset();
+
+            int low = 0;
+            int high = runs.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (runs[mid].relativeStart <= relative)
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+
+            return low;
+        }
+
+        public int getElementCount() {
+            return getLeaves().length;
+        }
+
+        public Element getElement(int index) {
+            RunElement[] runs = getLeaves();
+            if (index < 0 || index >= runs.length)
+                return null;
+
+            return runs[index];
+        }
+
+        public boolean isLeaf() {
+            return false;
+        }
+
+        /**
+         * Returns the leaf elements of this line, creating them from the runs
+         * if this is the first time they are needed.
+         * @return The leaf elements of this line.
+         */
+        private RunElement[] getLeaves() {
+            if (leaves == null) {
+                int lineStart = getStartOffset();
+                int lineEnd = getEndOffset();
+
+                if (slot < 0) { // Removed, the runs no longer describe it
+                    leaves = new RunElement[] {new RunElement(this, 0,
+                            lineEnd - lineStart, SimpleAttributeSet.EMPTY)};
+                    return leaves;
+                }
+
+                ArrayList<RunElement> list = new ArrayList<RunElement>();
+                int run = getRunIndex(lineStart);
+                while (run < runCount && getRunStart(run) < lineEnd) {
+                    int runStart = Math.max(getRunStart(run), lineStart);
+                    int runEnd = lineEnd;
+                    if (run + 1 < runCount)
+                        runEnd = Math.min(getRunStart(run + 1), lineEnd);
+
+                    list.add(new RunElement(this, runStart - lineStart,
+                            runEnd - lineStart,
+                            styleTable.get(runStyles[firstRun + run])));
+                    run++;
+                }
+
+                leaves = list.toArray(new RunElement[list.size()]);
+            }
+
+            return leaves;
+        }
+    }
+
+    /**
+     * A leaf element covering part of a line with a single style, it's offsets
+     * are stored relative to the start of the line.
+     */
+    private class RunElement implements Element {
+        private LineElement line;
+        private int relativeStart;
+        private int relativeEnd;
+        private AttributeSet attributes;
+
+        /**
+         * Creates a new leaf element.
+         * @param line The line this element belongs to.
+         * @param relativeStart The start of this element within the line.
+         * @param relativeEnd The end of this element within the line.
+         * @param attributes The attributes of the text.
+         */
+        public RunElement(LineElement line, int relativeStart, int relativeEnd,
+                AttributeSet attributes) {
+            this.line = line;
+            this.relativeStart = relativeStart;
+            this.relativeEnd = relativeEnd;
+            this.attributes = attributes;
+        }
+
+        public Document getDocument() {
+            return ConsoleDocument.this;
+        }
+
+        public Element getParentElement() {
+            return line;
+        }
+
+        public String getName() {
+            return AbstractDocument.ContentElementName;
+        }
+
+        public AttributeSet getAttributes() {
+            return attributes;
+        }
+
+        public int getStartOffset() {
+            return line.getStartOffset() + relativeStart;
+        }
+
+        public int getEndOffset() {
+            return line.getStartOffset() + relativeEnd;
+        }
+
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        public int getElementCount() {
+            return 0;
+        }
+
+        public Element getElement(int index) {
+            return null;
+        }
+
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+
+    /**
+     * Describes lines of the root element that were replaced by a change. The
+     * edit can't be undone, ConsoleDocuments don't support undo.
+     */
+    private class LineEdit extends AbstractUndoableEdit
+            implements DocumentEvent.ElementChange {
+        private int index;
+        private Element[] removed;
+        private Element[] added;
+
+        /**
+         * Creates a new LineEdit.
+         * @param index The index of the first replaced line.
+         * @param removed The lines that were removed.
+         * @param added The lines that were added.
+         */
+        public LineEdit(int index, Element[] removed, Element[] added) {
+            this.index = index;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        public Element getElement() {
+            return root;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Element[] getChildrenRemoved() {
+            return removed;
+        }
+
+        public Element[] getChildrenAdded() {
+            return added;
+        }
+
+        @Override
+        public boolean canUndo() {
+            return false;
+        }
+
+        @Override
+        public boolean canRedo() {
+            return false;
+        }
+    }
+}
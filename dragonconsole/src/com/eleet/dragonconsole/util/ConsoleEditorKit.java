@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Shape;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+
+/**
+ * ConsoleEditorKit is a StyledEditorKit that displays the Document with a
+ * single ConsoleView instead of a view for every paragraph and run. Installing
+ * it on a JTextPane keeps the editing behaviour of the StyledEditorKit (the
+ * caret, selection, key bindings and input attributes) while the text is laid
+ * out on a monospace grid.<br /><br />
+ * Without the grid the kit uses the paragraph and label views of the
+ * StyledEditorKit, except that a change of the Styles used by a
+ * ConsoleDocument's text (recoloring a TextColor or a role) only repaints the
+ * console. The label views read the new colors of their text the next time
+ * they're painted, so the Document isn't laid out again no matter how much
+ * text it holds.
+ * @version 1.0
+ */
+public class ConsoleEditorKit extends StyledEditorKit {
+    /**
+     * The ViewFactory shared by all ConsoleEditorKits that use the grid.
+     */
+    private static final ViewFactory factory = new ConsoleViewFactory();
+
+    /**
+     * The ViewFactory shared by all ConsoleEditorKits that don't use the grid.
+     */
+    private static final ViewFactory styledFactory = new StyledViewFactory();
+
+    /**
+     * <code>true</code> if the text is painted by a ConsoleView.
+     */
+    private boolean useGrid;
+
+    /**
+     * Creates a new ConsoleEditorKit that paints the text on a monospace grid.
+     */
+    public ConsoleEditorKit() {
+        this(true);
+    }
+
+    /**
+     * Creates a new ConsoleEditorKit.
+     * @param useGrid <code>true</code> to paint the text on a monospace grid
+     *  with a ConsoleView, or <code>false</code> to use the paragraph and
+     *  label views of the StyledEditorKit.
+     */
+    public ConsoleEditorKit(boolean useGrid) {
+        super();
+        this.useGrid = useGrid;
+    }
+
+    /**
+     * Returns the factory that creates the views of this kit.
+     * @return The ViewFactory of this kit.
+     */
+    @Override
+    public ViewFactory getViewFactory() {
+        return useGrid ? factory : styledFactory;
+    }
+
+    /**
+     * Creates an empty ConsoleDocument.
+     * @return A new ConsoleDocument.
+     */
+    @Override
+    public Document createDefaultDocument() {
+        return new ConsoleDocument();
+    }
+
+    /**
+     * Creates the view for the root element of a Document, the ConsoleView
+     * paints all of the lines itself so no other views are ever created.
+     */
+    private static class ConsoleViewFactory implements ViewFactory {
+        public View create(Element elem) {
+            return new ConsoleView(elem);
+        }
+    }
+
+    /**
+     * Creates the same views as the factory of the StyledEditorKit, with a
+     * SectionView for the root and StyleLabelViews for the text.
+     */
+    private static class StyledViewFactory implements ViewFactory {
+        public View create(Element elem) {
+            String kind = elem.getName();
+            if (AbstractDocument.ParagraphElementName.equals(kind))
+                return new ParagraphView(elem);
+            else if (AbstractDocument.SectionElementName.equals(kind))
+                return new SectionView(elem);
+            else if (StyleConstants.ComponentElementName.equals(kind))
+                return new ComponentView(elem);
+            else if (StyleConstants.IconElementName.equals(kind))
+                return new IconView(elem);
+
+            return new StyleLabelView(elem);
+        }
+    }
+
+    /**
+     * The view of the root element, it repaints the console when only the
+     * Styles of a ConsoleDocument changed instead of passing the change on to
+     * the view of every line.
+     */
+    private static class SectionView extends BoxView {
+        private SectionView(Element elem) {
+            super(elem, View.Y_AXIS);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+            Document doc = getDocument();
+            if (doc instanceof ConsoleDocument
+                    && ((ConsoleDocument)doc).isStyleChange(e)) {
+                Component c = getContainer();
+                if (c != null)
+                    c.repaint();
+
+                return;
+            }
+
+            super.changedUpdate(e, a, f);
+        }
+    }
+
+    /**
+     * A LabelView that reads the attributes of it's text again when it's
+     * painted after the Styles of a ConsoleDocument changed. If the Font
+     * changed as well it asks for a new layout, colors only need the repaint.
+     */
+    private static class StyleLabelView extends LabelView {
+        private int styleGeneration;
+
+        private StyleLabelView(Element elem) {
+            super(elem);
+            styleGeneration = getStyleGeneration();
+        }
+
+        /**
+         * Returns the style generation of the Document, or 0 if it's not a
+         * ConsoleDocument.
+         */
+        private int getStyleGeneration() {
+            Document doc = getDocument();
+            if (doc instanceof ConsoleDocument)
+                return ((ConsoleDocument)doc).getStyleGeneration();
+
+            return 0;
+        }
+
+        @Override
+        public void paint(Graphics g, Shape a) {
+            int generation = getStyleGeneration();
+            if (generation != styleGeneration) {
+                styleGeneration = generation;
+
+                Font font = getFont();
+                setPropertiesFromAttributes();
+                if (!font.equals(getFont())) {
+                    preferenceChanged(null, true, true);
+                    return;
+                }
+            }
+
+            super.paint(g, a);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+/**
+ * ConsoleExporter writes the text of a console, with it's colors, as ANSI
+ * colored text or as HTML. <code>write</code> is meant to be called off the
+ * Event Dispatch Thread: the Document is read a slice at a time, each slice is
+ * copied while holding the Document's read lock and written once the lock is
+ * released, so the console goes on printing during the export and no more
+ * than a slice of the text is ever copied.<br /><br />
+ * Only the colors and attributes that can be exported are kept, so
+ * neighboring runs that look the same are merged and each style in the
+ * export is worked out once. The text is written run by run as it's
+ * converted, the export is never built as a single String.<br /><br />
+ * The export is only a consistent snapshot if the text that hasn't been
+ * exported yet isn't changed while it runs, the console holds off trimming
+ * it's scrollback and rewriting it's OutputRegions during an export. Any
+ * change that still happens to that text (clearing the console, for example)
+ * is counted, and a marker saying how many characters changed is written at
+ * the end of the export.
+ * @version 1.0
+ */
+public class ConsoleExporter {
+    /**
+     * Export Format: text with ANSI escape sequences for it's colors.
+     */
+    public static final int FORMAT_ANSI = 0;
+
+    /**
+     * Export Format: an HTML page with the text in a styled &lt;pre&gt;
+     * block.
+     */
+    public static final int FORMAT_HTML = 1;
+
+    /**
+     * The number of characters copied from the Document at a time.
+     */
+    private static final int SLICE_SIZE = 1 << 16;
+
+    private int format;
+    private Color defaultForeground;
+    private Color defaultBackground;
+    private String fontFamily;
+
+    /**
+     * The ANSI sequence or HTML tag that starts each exported style.
+     */
+    private IdentityHashMap<AttributeSet, String> openings;
+
+    /**
+     * The exported style of each AttributeSet of the Document, and the
+     * exported styles by how they look so runs that look the same share one.
+     */
+    private IdentityHashMap<AttributeSet, AttributeSet> resolved;
+    private HashMap<AttributeSet, AttributeSet> shared;
+
+    /**
+     * The exported style of the run being written, it's opening has already
+     * been written.
+     */
+    private AttributeSet current;
+
+    /**
+     * Creates a new ConsoleExporter.
+     * @param format The format to export to, <code>FORMAT_ANSI</code> or
+     *  <code>FORMAT_HTML</code>.
+     * @param defaultStyle The default Style of the console, text in it's
+     *  colors is exported with the default colors.
+     */
+    public ConsoleExporter(int format, AttributeSet defaultStyle) {
+        if (format != FORMAT_ANSI && format != FORMAT_HTML)
+            throw new IllegalArgumentException("Unknown format " + format);
+
+        this.format = format;
+        this.defaultForeground = StyleConstants.getForeground(defaultStyle);
+        this.defaultBackground = StyleConstants.getBackground(defaultStyle);
+        this.fontFamily = StyleConstants.getFontFamily(defaultStyle);
+        this.openings = new IdentityHashMap<AttributeSet, String>();
+        this.resolved = new IdentityHashMap<AttributeSet, AttributeSet>();
+        this.shared = new HashMap<AttributeSet, AttributeSet>();
+    }
+
+    /**
+     * Writes the text the Document holds when this method is called to the
+     * Writer in this exporter's format. The Document is read in slices, each
+     * one under the Document's read lock. Output printed during the export is
+     * not included. If the text that was still to be exported is changed
+     * during the export a marker saying how many characters changed is
+     * written at the end. The Writer is flushed but not closed.
+     * @param doc The Document to export.
+     * @param out The Writer to write to.
+     * @return The number of characters that were still to be exported and
+     *  changed during the export, 0 if the export is a consistent snapshot.
+     * @throws IOException If the Writer fails.
+     */
+    public int write(final StyledDocument doc, Writer out) throws IOException {
+        final StyledRuns slice = new StyledRuns();
+        final Position[] bounds = new Position[2]; // Next slice, end
+        final ChangeCounter changes = new ChangeCounter(bounds);
+
+        doc.render(new Runnable() {
+            public void run() {
+                try {
+                    if (doc.getLength() > 0) {
+                        bounds[0] = doc.createPosition(0);
+                        // The last character rather than the end, so that
+                        // output appended during the export doesn't move it
+                        bounds[1] = doc.createPosition(doc.getLength() - 1);
+                        changes.sliceCopied();
+                        doc.addDocumentListener(changes);
+                    }
+                } catch (BadLocationException exc) { }
+            }
+        });
+
+        try {
+            if (format == FORMAT_HTML)
+                writeHTMLHeader(out);
+
+            current = null;
+            boolean done = (bounds[0] == null);
+            while (!done) {
+                slice.clear();
+                doc.render(new Runnable() {
+                    public void run() {
+                        copySlice(doc, bounds, slice);
+                        changes.sliceCopied();
+                    }
+                });
+
+                done = slice.isEmpty();
+                write(slice, out);
+            }
+        } finally {
+            doc.removeDocumentListener(changes);
+        }
+
+        int changed = changes.getChanged();
+        if (format == FORMAT_HTML) {
+            closeRun(out);
+            if (changed > 0)
+                out.write("\n[" + changed + " characters changed during the export]\n");
+            out.write("</pre>\n</body>\n</html>\n");
+        } else {
+            if (current != null)
+                out.write(ANSI.ESCAPE + "[0m");
+            if (changed > 0)
+                out.write("\n[" + changed + " characters changed during the export]\n");
+        }
+
+        out.flush();
+
+        return changed;
+    }
+
+    /**
+     * Copies the next slice of the Document, up to <code>SLICE_SIZE</code>
+     * characters of the text between the two Positions, and moves the first
+     * Position to the end of the slice. Must be called while holding the
+     * Document's read lock.
+     * @param doc The Document to copy from.
+     * @param bounds The start of the next slice and the last character of the
+     *  export.
+     * @param slice Receives the text and exported styles of the slice.
+     */
+    private void copySlice(StyledDocument doc, Position[] bounds,
+            StyledRuns slice) {
+        int start = bounds[0].getOffset();
+        int end = Math.min(bounds[1].getOffset() + 1, doc.getLength());
+        end = Math.min(end, start + SLICE_SIZE);
+        if (end <= start)
+            return;
+
+        Segment text = new Segment();
+        Element root = doc.getDefaultRootElement();
+        int offset = start;
+        for (int i = root.getElementIndex(start); offset < end; i++) {
+            Element line = root.getElement(i);
+
+            for (int x = line.getElementIndex(offset); x < line.getElementCount()
+                    && offset < end; x++) {
+                Element leaf = line.getElement(x);
+                int runEnd = Math.min(leaf.getEndOffset(), end);
+                if (runEnd <= offset)
+                    continue;
+
+                AttributeSet attr = resolved.get(leaf.getAttributes());
+                if (attr == null) {
+                    attr = resolve(doc, leaf.getAttributes());
+                    resolved.put(leaf.getAttributes(), attr);
+                }
+
+                try {
+                    doc.getText(offset, runEnd - offset, text);
+                } catch (BadLocationException exc) {
+                    return; // Can't happen while the lock is held
+                }
+
+                slice.append(text.array, text.offset, text.count, attr);
+                offset = runEnd;
+            }
+        }
+
+        try {
+            bounds[0] = doc.createPosition(end);
+        } catch (BadLocationException exc) {
+            bounds[0] = bounds[1]; // Can't happen while the lock is held
+        }
+    }
+
+    /**
+     * Writes a slice, continuing the run that was being written if the
+     * slice starts with the same style.
+     * @param slice The slice to write.
+     * @param out The Writer to write to.
+     * @throws IOException If the Writer fails.
+     */
+    private void write(StyledRuns slice, Writer out) throws IOException {
+        char[] text = slice.getText();
+
+        for (int i = 0; i < slice.getRunCount(); i++) {
+            AttributeSet attr = slice.getRunStyle(i);
+            if (attr != current) {
+                closeRun(out);
+
+                String opening = openings.get(attr);
+                if (opening == null) {
+                    opening = (format == FORMAT_HTML) ? getHTMLTag(attr)
+                            : getANSISequence(attr);
+                    openings.put(attr, opening);
+                }
+
+                out.write(opening);
+                current = attr;
+            }
+
+            if (format == FORMAT_HTML)
+                writeHTMLText(text, slice.getRunOffset(i),
+                        slice.getRunLength(i), out);
+            else
+                out.write(text, slice.getRunOffset(i), slice.getRunLength(i));
+        }
+    }
+
+    /**
+     * Counts the characters that are inserted into or removed from the part
+     * of the Document that hasn't been exported yet. The Document tells it
+     * about every change while holding it's write lock and the export
+     * Thread updates it while holding the read lock, so the part that's left
+     * (from the next slice up to the last character) can't change between
+     * the two.
+     */
+    private static class ChangeCounter implements DocumentListener {
+        private final Position[] bounds;
+        private int remaining;
+        private int changed;
+
+        private ChangeCounter(Position[] bounds) {
+            this.bounds = bounds;
+            this.remaining = 0;
+            this.changed = 0;
+        }
+
+        /**
+         * Returns the number of characters from the next slice up to and
+         * including the last character of the export.
+         */
+        private int getRemaining() {
+            return Math.max(0, bounds[1].getOffset() + 1
+                    - bounds[0].getOffset());
+        }
+
+        /**
+         * Called by the export Thread after it moved to the next slice.
+         */
+        private synchronized void sliceCopied() {
+            remaining = getRemaining();
+        }
+
+        /**
+         * Returns the number of characters that changed so far.
+         */
+        private synchronized int getChanged() {
+            return changed;
+        }
+
+        /**
+         * Adds the change in the length of the part that's left, an insert
+         * or remove outside of it doesn't change it's length.
+         */
+        private synchronized void update() {
+            int now = getRemaining();
+            changed += Math.abs(now - remaining);
+            remaining = now;
+        }
+
+        public void insertUpdate(DocumentEvent e) {
+            update();
+        }
+
+        public void removeUpdate(DocumentEvent e) {
+            update();
+        }
+
+        public void changedUpdate(DocumentEvent e) {
+        }
+    }
+
+    /**
+     * Ends the HTML span of the run being written, if it has one.
+     * @param out The Writer to write to.
+     * @throws IOException If the Writer fails.
+     */
+    private void closeRun(Writer out) throws IOException {
+        if (format == FORMAT_HTML && current != null
+                && openings.get(current).length() > 0)
+            out.write("</span>");
+    }
+
+    /**
+     * Reduces an AttributeSet to the colors and attributes that are exported,
+     * shared with every other AttributeSet that looks the same.
+     */
+    private AttributeSet resolve(StyledDocument doc, AttributeSet attr) {
+        SimpleAttributeSet copy = new SimpleAttributeSet();
+        StyleConstants.setForeground(copy, doc.getForeground(attr));
+        StyleConstants.setBackground(copy, doc.getBackground(attr));
+        StyleConstants.setBold(copy, StyleConstants.isBold(attr));
+        StyleConstants.setItalic(copy, StyleConstants.isItalic(attr));
+        StyleConstants.setUnderline(copy, StyleConstants.isUnderline(attr));
+
+        AttributeSet existing = shared.get(copy);
+        if (existing != null)
+            return existing;
+
+        shared.put(copy, copy);
+        return copy;
+    }
+
+    /**
+     * Returns the ANSI sequence that switches to the given style, each
+     * sequence starts with a reset so it doesn't depend on the one before it.
+     */
+    private String getANSISequence(AttributeSet attr) {
+        StringBuilder code = new StringBuilder(ANSI.ESCAPE).append("[0");
+
+        if (StyleConstants.isBold(attr))
+            code.append(";1");
+        if (StyleConstants.isItalic(attr))
+            code.append(";3");
+        if (StyleConstants.isUnderline(attr))
+            code.append(";4");
+
+        Color color = StyleConstants.getForeground(attr);
+        if (!color.equals(defaultForeground))
+            appendANSIColor(code, color, 30, 90, 38);
+
+        color = StyleConstants.getBackground(attr);
+        if (!color.equals(defaultBackground))
+            appendANSIColor(code, color, 40, 100, 48);
+
+        return code.append('m').toString();
+    }
+
+    /**
+     * Adds the ANSI parameters for a Color, one of the 16 ANSI colors if it is
+     * one and a 24-bit color if it's not.
+     */
+    private static void appendANSIColor(StringBuilder code, Color color,
+            int normalBase, int intenseBase, int extended) {
+        int index = ANSI.getANSIIndex(color);
+        code.append(';');
+
+        if (index == -1)
+            code.append(extended).append(";2;").append(color.getRed())
+                    .append(';').append(color.getGreen()).append(';')
+                    .append(color.getBlue());
+        else if (index < 8)
+            code.append(normalBase + index);
+        else
+            code.append(intenseBase + index - 8);
+    }
+
+    /**
+     * Returns the opening span tag for the given style, or an empty String if
+     * the style is the default style.
+     */
+    private String getHTMLTag(AttributeSet attr) {
+        StringBuilder css = new StringBuilder();
+
+        Color color = StyleConstants.getForeground(attr);
+        if (!color.equals(defaultForeground))
+            css.append("color:").append(getHTMLColor(color)).append(';');
+
+        color = StyleConstants.getBackground(attr);
+        if (!color.equals(defaultBackground))
+            css.append("background-color:").append(getHTMLColor(color))
+                    .append(';');
+
+        if (StyleConstants.isBold(attr))
+            css.append("font-weight:bold;");
+        if (StyleConstants.isItalic(attr))
+            css.append("font-style:italic;");
+        if (StyleConstants.isUnderline(attr))
+            css.append("text-decoration:underline;");
+
+        if (css.length() == 0)
+            return "";
+
+        return "<span style=\"" + css + "\">";
+    }
+
+    /**
+     * Writes the start of the HTML page, the &lt;pre&gt; block uses the
+     * default colors and font of the console.
+     */
+    private void writeHTMLHeader(Writer out) throws IOException {
+        out.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n"
+                + "<title>DragonConsole</title>\n</head>\n<body>\n");
+        out.write("<pre style=\"color:" + getHTMLColor(defaultForeground)
+                + ";background-color:" + getHTMLColor(defaultBackground)
+                + ";font-family:'" + fontFamily + "',monospace;"
+                + "padding:4px;\">");
+    }
+
+    /**
+     * Writes text with the characters HTML reserves escaped, text between them
+     * is written as it is.
+     */
+    private static void writeHTMLText(char[] text, int offset, int length,
+            Writer out) throws IOException {
+        int start = offset;
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            String entity;
+            switch (text[i]) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+
+            out.write(text, start, i - start);
+            out.write(entity);
+            start = i + 1;
+        }
+
+        out.write(text, start, end - start);
+    }
+
+    /**
+     * Returns the given Color as an HTML color ("#rrggbb").
+     */
+    private static String getHTMLColor(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xFFFFFF);
+    }
+}
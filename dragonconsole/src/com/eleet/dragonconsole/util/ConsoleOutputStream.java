@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * ConsoleOutputStream is an OutputStream that prints everything written to it
+ * in the console with a single style. The bytes are decoded as they arrive, a
+ * character that is split between two writes is decoded once the rest of it
+ * is written, and the decoded text is collected in a buffer. The buffer is
+ * added to the console's OutputQueue once per frame, so any number of writes
+ * and flushes made during a frame (every <code>println</code> of a
+ * PrintStream, for example) reach the console as one piece of output. If the
+ * buffer fills up before the frame is over it's added right away by the
+ * writing Thread.<br /><br />
+ * A PrintStream holds it's own lock while it writes, so the stream never
+ * waits for room in the queue: if the queue is full and it's policy is
+ * <code>BLOCK</code> the text is dropped as with <code>DROP</code>. Waiting
+ * could deadlock a worker Thread waiting for the queue with the Event
+ * Dispatch Thread waiting for the PrintStream (an uncaught exception printed
+ * to a redirected <code>System.err</code> on the Event Dispatch Thread is
+ * enough).<br /><br />
+ * The text is printed as is, color codes and input scripts in it are not
+ * processed. All methods are synchronized so the stream can be shared by any
+ * number of Threads.
+ * @version 1.0
+ */
+public class ConsoleOutputStream extends OutputStream {
+    /**
+     * The number of characters collected before the buffer is added to the
+     * queue without waiting for the end of the frame.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    private OutputQueue outputQueue;
+    private String style;
+
+    /**
+     * Decodes the written bytes, bytes of an incomplete character are kept in
+     * <code>bytes</code> until the rest arrive.
+     */
+    private CharsetDecoder decoder;
+    private ByteBuffer bytes;
+    private CharBuffer chars;
+
+    /**
+     * The decoded text that has not yet been added to the queue.
+     */
+    private StringBuilder text;
+
+    /**
+     * <code>true</code> once the stream has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * The Timer that adds the buffered text to the queue at the end of the
+     * frame, it's only started when text is added to an empty buffer.
+     */
+    private Timer deliveryTimer;
+
+    /**
+     * Starts the <code>deliveryTimer</code> on the Event Dispatch Thread.
+     */
+    private Runnable startDeliveryTimer = new Runnable() {
+        public void run() {
+            deliveryTimer.restart();
+        }
+    };
+
+    /**
+     * Creates a new ConsoleOutputStream.
+     * @param outputQueue The queue of the console to print to.
+     * @param style The two character style to print the text with.
+     * @param charset The Charset the written bytes are encoded with.
+     */
+    public ConsoleOutputStream(OutputQueue outputQueue, String style,
+            Charset charset) {
+        this.outputQueue = outputQueue;
+        this.style = style;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        this.chars = CharBuffer.allocate(BUFFER_SIZE);
+        this.text = new StringBuilder();
+        this.closed = false;
+
+        deliveryTimer = new Timer(OutputQueue.FRAME_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                deliver();
+            }
+        });
+        deliveryTimer.setRepeats(false);
+    }
+
+    /**
+     * Writes a single byte.
+     * @param b The byte to write.
+     * @throws IOException If the stream has been closed.
+     */
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    /**
+     * Writes a portion of a byte array.
+     * @param b The array holding the bytes.
+     * @param off The index of the first byte to write.
+     * @param len The number of bytes to write.
+     * @throws IOException If the stream has been closed.
+     */
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+
+        while (len > 0) {
+            int count = Math.min(len, bytes.remaining());
+            bytes.put(b, off, count);
+            off += count;
+            len -= count;
+
+            bytes.flip();
+            decode(false);
+            bytes.compact();
+        }
+
+        if (text.length() >= BUFFER_SIZE)
+            outputQueue.offer(OutputQueue.STYLED, takeText(), style);
+    }
+
+    /**
+     * Decodes the bytes in <code>bytes</code> into the <code>text</code>
+     * buffer, scheduling the end of frame delivery if the buffer was empty.
+     * @param endOfInput <code>true</code> if no more bytes will be written.
+     */
+    private void decode(boolean endOfInput) {
+        boolean wasEmpty = (text.length() == 0);
+
+        while (true) {
+            boolean overflow = decoder.decode(bytes, chars, endOfInput).isOverflow();
+            chars.flip();
+            text.append(chars);
+            chars.clear();
+
+            if (!overflow)
+                break;
+        }
+
+        if (endOfInput) {
+            decoder.flush(chars);
+            chars.flip();
+            text.append(chars);
+            chars.clear();
+        }
+
+        if (wasEmpty && text.length() > 0) {
+            if (SwingUtilities.isEventDispatchThread())
+                deliveryTimer.restart();
+            else
+                SwingUtilities.invokeLater(startDeliveryTimer);
+        }
+    }
+
+    /**
+     * Removes and returns the buffered text, the caller must hold the lock of
+     * this stream.
+     * @return The buffered text.
+     */
+    private String takeText() {
+        String output = text.toString();
+        text.setLength(0);
+
+        return output;
+    }
+
+    /**
+     * Adds the buffered text to the queue at the end of the frame, called on
+     * the Event Dispatch Thread by the <code>deliveryTimer</code>.
+     */
+    private synchronized void deliver() {
+        if (text.length() > 0)
+            outputQueue.offer(OutputQueue.STYLED, takeText(), style);
+    }
+
+    /**
+     * Does nothing, the buffered text is already added to the queue at the end
+     * of the frame so a PrintStream that flushes every line costs no more than
+     * one that doesn't.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Decodes any remaining bytes, adds the buffered text to the queue and
+     * closes the stream.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+
+        bytes.flip();
+        decode(true);
+        bytes.clear();
+        closed = true;
+
+        if (text.length() > 0)
+            outputQueue.offer(OutputQueue.STYLED, takeText(), style);
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.*;
+import java.util.Map;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+
+/**
+ * ConsoleView paints the whole Document as a grid of cells of the console's
+ * monospace Font. Every line is <code>lineHeight</code> pixels tall and every
+ * character (besides a tab, which moves to the next tab stop) is
+ * <code>charWidth</code> pixels wide, so the position of any line or
+ * character is worked out with arithmetic instead of being kept in a view per
+ * paragraph and run the way the views of a JTextPane are.<br /><br />
+ * Only the lines that fall within the clip are painted, so the cost of a
+ * repaint depends on the size of the viewport and not on the size of the
+ * Document. Lines are never wrapped, a line that is longer than the viewport
+ * makes the console scroll horizontally. Text is drawn with the Font of the
+ * text component, bold and italic are taken from the attributes of the text
+ * along with the foreground, background and underline.
+ * @version 1.0
+ */
+public class ConsoleView extends View {
+    /**
+     * The number of columns between tab stops.
+     */
+    private static final int TAB_SIZE = 8;
+
+    /**
+     * The Font the metrics were taken from.
+     */
+    private Font font;
+
+    /**
+     * The Font in it's plain, bold, italic and bold italic styles, the styles
+     * are derived when first used.
+     */
+    private Font[] fonts;
+
+    private int charWidth;
+    private int lineHeight;
+    private int ascent;
+
+    /**
+     * The number of lines when the Document was last looked at.
+     */
+    private int lineCount;
+
+    /**
+     * The number of columns in the longest line and the number of lines that
+     * are that long.
+     */
+    private int longestLine;
+    private int longestCount;
+    private boolean longestLineValid;
+
+    /**
+     * The number of columns of each line, kept once the longest line has been
+     * found so the Document only has to be read for the lines that change.
+     * Lines removed from the front are dropped without moving the rest.
+     */
+    private int[] widths;
+    private int firstWidth;
+    private int widthCount;
+
+    /**
+     * Reused to read the text of a line.
+     */
+    private Segment lineText;
+
+    /**
+     * Creates a new ConsoleView for the root element of a Document.
+     * @param elem The root element, it's children are the lines.
+     */
+    public ConsoleView(Element elem) {
+        super(elem);
+        this.fonts = new Font[4];
+        this.lineCount = elem.getElementCount();
+        this.longestLine = 0;
+        this.longestCount = 0;
+        this.longestLineValid = false;
+        this.lineText = new Segment();
+    }
+
+    /**
+     * Takes the cell size from the Font of the text component if the Font has
+     * changed.
+     */
+    private void updateMetrics() {
+        Container host = getContainer();
+        if (host == null)
+            return;
+
+        Font f = host.getFont();
+        if (f != font) {
+            font = f;
+            fonts = new Font[4];
+            fonts[Font.PLAIN] = f;
+
+            FontMetrics metrics = host.getFontMetrics(f);
+            charWidth = Math.max(1, metrics.charWidth('m'));
+            lineHeight = Math.max(1, metrics.getHeight());
+            ascent = metrics.getAscent();
+        }
+    }
+
+    /**
+     * Returns the Font for the given attributes.
+     * @param attr The attributes of the text.
+     * @return The Font of the text component with the bold and italic styles
+     *  of the attributes.
+     */
+    private Font getFont(AttributeSet attr) {
+        int style = Font.PLAIN;
+        if (StyleConstants.isBold(attr))
+            style |= Font.BOLD;
+        if (StyleConstants.isItalic(attr))
+            style |= Font.ITALIC;
+
+        if (fonts[style] == null)
+            fonts[style] = font.deriveFont(style);
+
+        return fonts[style];
+    }
+
+    /**
+     * Paints the lines of the Document that fall within the clip.
+     * @param g The Graphics to paint with.
+     * @param a The area allocated to this view.
+     */
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        if (font == null)
+            return;
+
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        int first = 0;
+        int last = root.getElementCount() - 1;
+
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            first = Math.max(first, (clip.y - alloc.y) / lineHeight);
+            last = Math.min(last, (clip.y + clip.height - alloc.y) / lineHeight);
+        }
+
+        if (g instanceof Graphics2D) {
+            Object hints = Toolkit.getDefaultToolkit()
+                    .getDesktopProperty("awt.font.desktophints");
+            if (hints instanceof Map)
+                ((Graphics2D)g).addRenderingHints((Map<?, ?>)hints);
+        }
+
+        for (int i = first; i <= last; i++)
+            paintLine(g, root.getElement(i), alloc.x, alloc.y + i * lineHeight);
+    }
+
+    /**
+     * Paints a single line.
+     * @param g The Graphics to paint with.
+     * @param line The element of the line.
+     * @param x The left edge of the line.
+     * @param y The top of the line.
+     */
+    private void paintLine(Graphics g, Element line, int x, int y) {
+        int column = 0;
+
+        if (line.isLeaf()) {
+            paintRun(g, line, x, y, column);
+        } else {
+            for (int i = 0; i < line.getElementCount(); i++)
+                column = paintRun(g, line.getElement(i), x, y, column);
+        }
+    }
+
+    /**
+     * Paints the text of a single leaf element.
+     * @param g The Graphics to paint with.
+     * @param run The leaf element to paint.
+     * @param x The left edge of the line.
+     * @param y The top of the line.
+     * @param column The column the element starts at.
+     * @return The column after the element.
+     */
+    private int paintRun(Graphics g, Element run, int x, int y, int column) {
+        Document doc = getDocument();
+        int p0 = run.getStartOffset();
+        int p1 = Math.min(run.getEndOffset(), doc.getLength());
+        if (p1 <= p0)
+            return column;
+
+        try {
+            doc.getText(p0, p1 - p0, lineText);
+        } catch (BadLocationException exc) {
+            return column;
+        }
+
+        char[] text = lineText.array;
+        int start = lineText.offset;
+        int end = start + lineText.count;
+        if (text[end - 1] == '\n')
+            end--;
+
+        int columns = getColumns(text, start, end, column);
+        if (columns == 0)
+            return column;
+
+        AttributeSet attr = run.getAttributes();
+        Color foreground = getContainer().getForeground();
+        if (doc instanceof StyledDocument) {
+            StyledDocument styledDoc = (StyledDocument)doc;
+
+            if (attr.isDefined(StyleConstants.Background)) {
+                g.setColor(styledDoc.getBackground(attr));
+                g.fillRect(x + column * charWidth, y, columns * charWidth, lineHeight);
+            }
+
+            foreground = styledDoc.getForeground(attr);
+        }
+
+        g.setColor(foreground);
+        g.setFont(getFont(attr));
+
+        // Draw each piece of text between tabs at it's column
+        int col = column;
+        int pieceStart = start;
+        for (int i = start; i < end; i++) {
+            if (text[i] == '\t') {
+                if (i > pieceStart)
+                    g.drawChars(text, pieceStart, i - pieceStart,
+                            x + col * charWidth, y + ascent);
+
+                col += i - pieceStart;
+                col += TAB_SIZE - (col % TAB_SIZE);
+                pieceStart = i + 1;
+            }
+        }
+
+        if (end > pieceStart)
+            g.drawChars(text, pieceStart, end - pieceStart,
+                    x + col * charWidth, y + ascent);
+
+        if (StyleConstants.isUnderline(attr)) {
+            int underline = y + ascent + 1;
+            g.drawLine(x + column * charWidth, underline,
+                    x + (column + columns) * charWidth - 1, underline);
+        }
+
+        return column + columns;
+    }
+
+    /**
+     * Returns the number of columns taken up by a piece of text.
+     * @param text The array holding the text.
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     * @param column The column the text starts at, needed to place tabs.
+     * @return The number of columns the text takes up.
+     */
+    private int getColumns(char[] text, int start, int end, int column) {
+        int col = column;
+        for (int i = start; i < end; i++) {
+            if (text[i] == '\t')
+                col += TAB_SIZE - (col % TAB_SIZE);
+            else
+                col++;
+        }
+
+        return col - column;
+    }
+
+    /**
+     * Returns the column of the given offset within it's line.
+     * @param lineStart The offset of the start of the line.
+     * @param pos The offset to find the column of.
+     * @return The column of the offset.
+     */
+    private int getColumn(int lineStart, int pos) {
+        if (pos <= lineStart)
+            return 0;
+
+        try {
+            getDocument().getText(lineStart, pos - lineStart, lineText);
+        } catch (BadLocationException exc) {
+            return 0;
+        }
+
+        return getColumns(lineText.array, lineText.offset,
+                lineText.offset + lineText.count, 0);
+    }
+
+    /**
+     * Returns the number of columns in the given line, without it's newline.
+     * @param line The element of the line.
+     * @return The number of columns in the line.
+     */
+    private int getLineColumns(Element line) {
+        int end = Math.min(line.getEndOffset() - 1, getDocument().getLength());
+        return getColumn(line.getStartOffset(), end);
+    }
+
+    /**
+     * Returns the offset in a line that is closest to the given column.
+     * @param lineStart The offset of the start of the line.
+     * @param lineEnd The offset of the end of the line, without the newline.
+     * @param column The column to find.
+     * @return The offset of the character boundary nearest the column.
+     */
+    private int getOffset(int lineStart, int lineEnd, float column) {
+        if (column <= 0 || lineEnd <= lineStart)
+            return lineStart;
+
+        try {
+            getDocument().getText(lineStart, lineEnd - lineStart, lineText);
+        } catch (BadLocationException exc) {
+            return lineStart;
+        }
+
+        int col = 0;
+        for (int i = 0; i < lineText.count; i++) {
+            int next = col + 1;
+            if (lineText.array[lineText.offset + i] == '\t')
+                next = col + TAB_SIZE - (col % TAB_SIZE);
+
+            if (column < (col + next) / 2f)
+                return lineStart + i;
+
+            col = next;
+        }
+
+        return lineEnd;
+    }
+
+    /**
+     * Determines the preferred span of this view along an axis, the width of
+     * the longest line or the height of all lines.
+     * @param axis Either <code>View.X_AXIS</code> or <code>View.Y_AXIS</code>.
+     * @return The preferred span.
+     */
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+
+        if (axis == View.X_AXIS) {
+            if (!longestLineValid)
+                calculateLongestLine();
+
+            return longestLine * charWidth + 1; // Leave room for the caret
+        }
+
+        return getElement().getElementCount() * lineHeight;
+    }
+
+    /**
+     * Measures every line of the Document and finds the longest one.
+     */
+    private void calculateLongestLine() {
+        Element root = getElement();
+        widthCount = root.getElementCount();
+        widths = new int[Math.max(16, widthCount * 2)];
+        firstWidth = 0;
+        for (int i = 0; i < widthCount; i++)
+            widths[i] = getLineColumns(root.getElement(i));
+
+        findLongestLine();
+        longestLineValid = true;
+    }
+
+    /**
+     * Finds the longest line from the widths that are already known.
+     */
+    private void findLongestLine() {
+        longestLine = 0;
+        longestCount = 0;
+        for (int i = firstWidth; i < firstWidth + widthCount; i++) {
+            if (widths[i] > longestLine) {
+                longestLine = widths[i];
+                longestCount = 1;
+            } else if (widths[i] == longestLine)
+                longestCount++;
+        }
+    }
+
+    /**
+     * Updates the widths of the lines a change of the Document replaced. Only
+     * the lines that were added are measured, the known widths are only
+     * searched for the longest line again when every line as long as the
+     * longest one was removed.
+     * @param e The change of the Document.
+     * @return <code>true</code> if the longest line changed.
+     */
+    private boolean updateWidths(DocumentEvent e) {
+        if (!longestLineValid)
+            return false;
+
+        Element root = getElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int index;
+        int removeCount;
+        int addCount;
+        if (change != null) {
+            index = change.getIndex();
+            removeCount = change.getChildrenRemoved().length;
+            addCount = change.getChildrenAdded().length;
+        } else { // The text of the lines changed, but not the lines
+            index = root.getElementIndex(e.getOffset());
+            int last = index;
+            if (e.getType() == DocumentEvent.EventType.INSERT)
+                last = root.getElementIndex(e.getOffset() + e.getLength());
+
+            removeCount = last - index + 1;
+            addCount = removeCount;
+        }
+
+        if (widthCount - removeCount + addCount != root.getElementCount()) {
+            longestLineValid = false; // Measured again when it's needed
+            return true;
+        }
+
+        int oldLongest = longestLine;
+        for (int i = 0; i < removeCount; i++) {
+            if (widths[firstWidth + index + i] == longestLine)
+                longestCount--;
+        }
+
+        replaceWidths(index, removeCount, addCount);
+        for (int i = 0; i < addCount; i++) {
+            int columns = getLineColumns(root.getElement(index + i));
+            widths[firstWidth + index + i] = columns;
+            if (columns > longestLine) {
+                longestLine = columns;
+                longestCount = 1;
+            } else if (columns == longestLine)
+                longestCount++;
+        }
+
+        if (longestCount == 0)
+            findLongestLine();
+
+        return (longestLine != oldLongest);
+    }
+
+    /**
+     * Makes room for the widths of added lines in place of the widths of
+     * removed lines, the new widths are set by the caller.
+     * @param index The index of the first line that was replaced.
+     * @param removeCount The number of lines that were removed.
+     * @param addCount The number of lines that were added.
+     */
+    private void replaceWidths(int index, int removeCount, int addCount) {
+        int delta = addCount - removeCount;
+
+        if (index == 0 && delta <= 0) {
+            firstWidth -= delta;
+            widthCount += delta;
+            return;
+        }
+
+        if (firstWidth + widthCount + delta > widths.length) {
+            int capacity = Math.max(widths.length, (widthCount + delta) * 2);
+            int[] newWidths = new int[capacity];
+            System.arraycopy(widths, firstWidth, newWidths, 0, widthCount);
+            widths = newWidths;
+            firstWidth = 0;
+        }
+
+        System.arraycopy(widths, firstWidth + index + removeCount, widths,
+                firstWidth + index + addCount, widthCount - index - removeCount);
+        widthCount += delta;
+    }
+
+    /**
+     * Returns the area of the given location in the Document.
+     * @param pos The offset in the Document.
+     * @param a The area allocated to this view.
+     * @param b The bias of the offset.
+     * @return The area of the location.
+     * @throws BadLocationException If the offset is not within the Document.
+     */
+    public Shape modelToView(int pos, Shape a, Position.Bias b)
+            throws BadLocationException {
+        Document doc = getDocument();
+        if (pos < 0 || pos > doc.getLength())
+            throw new BadLocationException("Invalid location", pos);
+
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        int line = root.getElementIndex(pos);
+        int column = getColumn(root.getElement(line).getStartOffset(), pos);
+
+        return new Rectangle(alloc.x + column * charWidth,
+                alloc.y + line * lineHeight, 1, lineHeight);
+    }
+
+    /**
+     * Returns the location in the Document closest to the given point.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @param a The area allocated to this view.
+     * @param bias Receives the bias of the returned location.
+     * @return The offset in the Document closest to the point.
+     */
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] bias) {
+        bias[0] = Position.Bias.Forward;
+
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+
+        if (y < alloc.y)
+            return getStartOffset();
+        if (y >= alloc.y + alloc.height)
+            return getEndOffset() - 1;
+
+        int line = Math.min((int)((y - alloc.y) / lineHeight),
+                root.getElementCount() - 1);
+        Element elem = root.getElement(line);
+        int lineEnd = Math.min(elem.getEndOffset() - 1, getDocument().getLength());
+
+        return getOffset(elem.getStartOffset(), lineEnd, (x - alloc.x) / charWidth);
+    }
+
+    /**
+     * Called when text is inserted into the Document, the lines that changed
+     * are repainted along with every line after them if lines were added.
+     */
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        Element root = getElement();
+        int first = root.getElementIndex(e.getOffset());
+        int last = root.getElementIndex(e.getOffset() + e.getLength());
+
+        updateDamage(a, first, last, updateWidths(e));
+    }
+
+    /**
+     * Called when text is removed from the Document, trimming the scrollback
+     * only costs the lines that were removed unless the longest line was one
+     * of them.
+     */
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        Element root = getElement();
+        int first = root.getElementIndex(e.getOffset());
+
+        updateDamage(a, first, first, updateWidths(e));
+    }
+
+    /**
+     * Called when the attributes of text in the Document change, the lines
+     * that changed are repainted.
+     */
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        Element root = getElement();
+        int first = root.getElementIndex(e.getOffset());
+        int last = root.getElementIndex(e.getOffset() + e.getLength());
+
+        updateDamage(a, first, last, false);
+    }
+
+    /**
+     * Asks for a new layout if the size of this view changed and repaints the
+     * changed lines. If lines were added or removed every line after the
+     * first changed line has moved, so everything below it is repainted.
+     * @param a The area allocated to this view.
+     * @param first The first line that changed.
+     * @param last The last line that changed.
+     * @param widthChanged <code>true</code> if the longest line changed.
+     */
+    private void updateDamage(Shape a, int first, int last, boolean widthChanged) {
+        int count = getElement().getElementCount();
+        boolean heightChanged = (count != lineCount);
+        lineCount = count;
+
+        if (widthChanged || heightChanged)
+            preferenceChanged(null, widthChanged, heightChanged);
+
+        Container host = getContainer();
+        if (a == null || host == null)
+            return;
+
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        int y = alloc.y + first * lineHeight;
+        if (heightChanged)
+            host.repaint(alloc.x, y, alloc.width,
+                    Math.max(alloc.height, count * lineHeight) - first * lineHeight);
+        else
+            host.repaint(alloc.x, y, alloc.width, (last - first + 1) * lineHeight);
+    }
+}
@@ -48,6 +48,16 @@ public class Debug {
         on = false;
     }
 
+    /**
+     * Returns <code>true</code> if Debug printing is turned on. Debug
+     * statements that have to build their output can check this first so
+     * nothing is built while Debug printing is off.
+     * @return <code>true</code> if Debug printing is turned on.
+     */
+    public static boolean isOn() {
+        return on;
+    }
+
     /** 
      * Prints the String to System.out.println() if Debug printing is turned on.
      * @param output The String to print out if Debug printing is turned on.
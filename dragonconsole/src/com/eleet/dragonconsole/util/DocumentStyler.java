@@ -50,17 +50,34 @@ public class DocumentStyler {
      */
     private static StyledDocument addNewStyle(StyledDocument documentToUpdate,
             Font styleFont, TextColor foreground, TextColor background) {
+        addNewStyle(documentToUpdate, foreground, background);
+
+        return documentToUpdate;
+    }
+
+    /**
+     * Adds the Style for a foreground and background pair of TextColors to
+     * the StyledDocument, named by their two char codes, and returns it. This
+     * is how the <code>StyleCache</code> creates a Style the first time it's
+     * needed. The Style only holds the colors, it resolves to the default
+     * Style of the Document for the Font, which the JTextPane keeps set to
+     * it's own Font.
+     * @param documentToUpdate The StyledDocument the Style will be added to.
+     * @param foreground The TextColor that represents the foreground color.
+     * @param background The TextColor that represents the background color.
+     * @return The new Style.
+     */
+    static Style addNewStyle(StyledDocument documentToUpdate,
+            TextColor foreground, TextColor background) {
         String styleName = "" + foreground.getCharCode() + background.getCharCode();
         
-        Style parentStyle = StyleContext.getDefaultStyleContext()
-                .getStyle(StyleContext.DEFAULT_STYLE);
+        Style parentStyle = documentToUpdate.getStyle(StyleContext.DEFAULT_STYLE);
 
         Style temp = documentToUpdate.addStyle(styleName, parentStyle);
-        //setStyleFont(temp, styleFont);
         StyleConstants.setForeground(temp, foreground.getColor());
         StyleConstants.setBackground(temp, background.getColor());
 
-        return documentToUpdate;
+        return temp;
     }
     
     /** 
@@ -82,11 +99,15 @@ public class DocumentStyler {
 
     /** 
      * Changes the Font attribute of all styles currently in a Document to a
-     * new Font, this method is called when the consoleFont is changed.
+     * new Font.
      * @param documentToUpdate The StyledDocument containing the text to be
      *  changed.
      * @param newFont The new Font to show in the StyledDocument.
+     * @deprecated The console's Font is set on it's JTextPane as of 3.0.2, the
+     *  Styles resolve to the Font of the Document's default Style instead of
+     *  every character holding it's own copy.
      */
+    @Deprecated
     public static StyledDocument changeFont(StyledDocument documentToUpdate, Font newFont) {
         SimpleAttributeSet newFontStyle = new SimpleAttributeSet();
         newFontStyle = setSASFont(newFontStyle, newFont);
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * FrameScheduler combines requests for a piece of work into a single run of
+ * that work on the Event Dispatch Thread. The first request schedules the run
+ * one frame later (after the UI has been updated) and every request made
+ * before it runs is served by that same run, so no matter how often the work
+ * is requested it's done at most once per frame. The console uses one to
+ * scroll to the bottom and one to rewrite the OutputRegions that changed.
+ * Requests can be made from any Thread.
+ * @version 1.0
+ */
+public class FrameScheduler {
+    /**
+     * The delay (in milliseconds) between the first request and the run on
+     * the Event Dispatch Thread, roughly one frame.
+     */
+    public static final int FRAME_DELAY = OutputQueue.FRAME_DELAY;
+
+    /**
+     * Lock guarding <code>scheduled</code>.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * <code>true</code> while a run has been requested but has not yet
+     * happened.
+     */
+    private boolean scheduled;
+
+    /**
+     * The Timer used to run the work on the Event Dispatch Thread.
+     */
+    private Timer timer;
+
+    /**
+     * Starts the <code>timer</code> on the Event Dispatch Thread.
+     */
+    private Runnable startTimer = new Runnable() {
+        public void run() {
+            timer.restart();
+        }
+    };
+
+    /**
+     * Creates a new FrameScheduler that notifies the given listener (on the
+     * Event Dispatch Thread) once for every frame that had a request.
+     * @param work The ActionListener that does the work.
+     */
+    public FrameScheduler(final ActionListener work) {
+        scheduled = false;
+
+        timer = new Timer(FRAME_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                synchronized (lock) {
+                    scheduled = false;
+                }
+
+                work.actionPerformed(e);
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Requests a run, if one is already waiting this request is combined with
+     * it. This method can be called from any Thread.
+     */
+    public void request() {
+        synchronized (lock) {
+            if (scheduled)
+                return;
+
+            scheduled = true;
+        }
+
+        if (SwingUtilities.isEventDispatchThread())
+            timer.restart();
+        else
+            SwingUtilities.invokeLater(startTimer);
+    }
+
+    /**
+     * Returns <code>true</code> if a run has been requested but has not yet
+     * happened.
+     * @return <code>true</code> if a run is waiting.
+     */
+    public boolean isScheduled() {
+        synchronized (lock) {
+            return scheduled;
+        }
+    }
+}
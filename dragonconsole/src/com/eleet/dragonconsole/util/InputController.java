@@ -376,6 +376,110 @@ public class InputController extends DocumentFilter {
         }
     }
 
+    /**
+     * Removes the given number of characters from the beginning of the
+     * Document, this is used by the DragonConsole to trim old output from the
+     * scrollback. The input range is moved back by the number of characters
+     * removed so that it still covers the same text.
+     * @param length The number of characters to remove from the beginning of
+     *  the Document, this should never reach into the current input.
+     */
+    public void removeLeadingText(int length) {
+        if (length <= 0)
+            return;
+
+        // Move the range first, anything listening to the Document (like the
+        // caret) already sees the text at it's new location
+        int oldRangeStart = rangeStart;
+        int oldRangeEnd = rangeEnd;
+        if (rangeStart > 0)
+            rangeStart = Math.max(rangeStart - length, 0);
+        if (rangeEnd > 0)
+            rangeEnd = Math.max(rangeEnd - length, 0);
+
+        StyledDocument doc = console.getStyledDocument();
+        try {
+            bypassRemove = true;
+            doc.remove(0, length);
+        } catch(Exception exc) {
+            rangeStart = oldRangeStart;
+            rangeEnd = oldRangeEnd;
+
+            javax.swing.JOptionPane.showMessageDialog(null,
+                    "Error #0014\n"
+                  + "Failed to trim the text in the Document!\n"
+                  + exc.getMessage(),
+                  "Error Caught", javax.swing.JOptionPane.ERROR_MESSAGE);
+        } finally {
+            bypassRemove = false;
+        }
+    }
+
+    /**
+     * Replaces a range of output that comes before the current input with new
+     * text, this is used by the DragonConsole to rewrite an OutputRegion. The
+     * input range is moved by the difference in length so that it still
+     * covers the same text.
+     * @param offset The location in the Document of the text to replace.
+     * @param length The number of characters to replace.
+     * @param text The text to put in their place.
+     * @param attr The AttributeSet to insert the text with.
+     * @return <code>true</code> if the text was replaced.
+     */
+    public boolean replaceOutput(int offset, int length, String text,
+            AttributeSet attr) {
+        int oldRangeStart = rangeStart;
+        int oldRangeEnd = rangeEnd;
+
+        // The range is moved before each change, anything listening to the
+        // Document (like the caret) already sees the text at it's new location
+        StyledDocument doc = console.getStyledDocument();
+        try {
+            if (length > 0) {
+                moveRange(offset + length, -length);
+                bypassRemove = true;
+                doc.remove(offset, length);
+            }
+
+            if (text.length() > 0) {
+                String prefix = "";
+                if (consoleInputMethod) // True if inline
+                    prefix = BYPASS;
+
+                moveRange(offset, text.length());
+                doc.insertString(offset, prefix + text, attr);
+            }
+
+            return true;
+        } catch(Exception exc) {
+            rangeStart = oldRangeStart;
+            rangeEnd = oldRangeEnd;
+
+            javax.swing.JOptionPane.showMessageDialog(null,
+                    "Error #0016\n"
+                  + "Failed to rewrite the text of an Output Region!\n"
+                  + exc.getMessage(),
+                  "Error Caught", javax.swing.JOptionPane.ERROR_MESSAGE);
+
+            return false;
+        } finally {
+            bypassRemove = false;
+        }
+    }
+
+    /**
+     * Moves the ends of the input range that are at or after the given
+     * location by the given number of characters.
+     * @param offset The location in the Document where the text changed.
+     * @param delta The number of characters added, negative if removed.
+     */
+    private void moveRange(int offset, int delta) {
+        if (rangeStart >= offset)
+            rangeStart += delta;
+        if (rangeEnd >= offset)
+            rangeEnd += delta;
+    }
+
     /** Returns the ending location of the current input.
      * This method returns the ending location (in the StyledDocument) of the
      * current Input. This method is "-1" if input is Infinite (or if not
@@ -395,6 +499,34 @@ public class InputController extends DocumentFilter {
         return (rangeEnd == -1);
     }
 
+    /**
+     * Returns the number of characters that can be pasted at the given
+     * location in the Document. Infinite input takes any number of
+     * characters, ranged input only takes as many as there are blank spaces
+     * left at the end of the range, and never more than fit between the
+     * location and the end of the range.
+     * @param offset The location in the Document the text would be pasted at.
+     * @return The number of characters that can be pasted, <code>0</code> if
+     *  nothing can be pasted there.
+     */
+    public int getPasteLimit(int offset) {
+        if (ignoreInput || !isReceivingInput || rangeStart < 0
+                || offset < rangeStart)
+            return 0;
+
+        if (isInfiniteInput())
+            return Integer.MAX_VALUE;
+
+        if (offset >= rangeEnd)
+            return 0;
+
+        int free = 0;
+        for (int i = input.length() - 1; i >= 0 && input.charAt(i) == ' '; i--)
+            free++;
+
+        return Math.min(free, rangeEnd - offset);
+    }
+
     /** 
      * Sets input to it's basic level which is an unlimited number of
      * characters after the startPosition which is the equivalent of calling
@@ -472,11 +604,11 @@ public class InputController extends DocumentFilter {
      * @return The String of Protected Characters of the specified length.
      */
     private String getProtectedString(int length) {
-        String pString = "";
+        StringBuilder pString = new StringBuilder(length);
         for (int i = 0; i < length; i++)
-            pString += protectedChar;
+            pString.append(protectedChar);
 
-        return pString;
+        return pString.toString();
     }
 
     /** 
@@ -487,16 +619,16 @@ public class InputController extends DocumentFilter {
      * @return The Protected String that "mimics" the given String.
      */
     private String restoreProtectedString(String string) {
-        String returnString = "";
+        StringBuilder returnString = new StringBuilder(string.length());
 
         for (int i = 0; i < string.length(); i++) {
             if (string.charAt(i) != ' ')
-                returnString += protectedChar;
+                returnString.append(protectedChar);
             else
-                returnString += " ";
+                returnString.append(' ');
         }
 
-        return returnString;
+        return returnString.toString();
     }
 
     /** 
@@ -553,7 +685,7 @@ public class InputController extends DocumentFilter {
             
         } else {
             if (!ignoreInput) {
-                if (isReceivingInput && rangeStart > 0) {
+                if (isReceivingInput && rangeStart >= 0) {
                     if (offset >= rangeStart) {
                         if (!isInfiniteInput() && (offset + 1) <= rangeEnd) {
                             boolean inserted = input.rangeInsert((offset - rangeStart), string);
@@ -605,32 +737,30 @@ public class InputController extends DocumentFilter {
     @Override
     public void remove(FilterBypass fb, int offset, int length)
             throws BadLocationException {
-        if (!ignoreInput) {
-            if (!bypassRemove) {
-                if (isReceivingInput && rangeStart > 0) {
-                    if (!(offset < rangeStart)) {
-                        if (!isInfiniteInput()) {
-                            fb.remove(offset, length);
-                            fb.insertString((rangeEnd - 1), " ", inputAttr);
-
-                            if (console.getCaretPosition() == rangeEnd)
-                                console.setCaretPosition(rangeEnd - 1);
-                        } else
-                            fb.remove(offset, length);
+        if (bypassRemove) {
+            bypassRemove = false;
+            fb.remove(offset, length);
+        } else if (!ignoreInput) {
+            if (isReceivingInput && rangeStart >= 0) {
+                if (!(offset < rangeStart)) {
+                    if (!isInfiniteInput()) {
+                        fb.remove(offset, length);
+                        fb.insertString((rangeEnd - 1), " ", inputAttr);
+
+                        if (console.getCaretPosition() == rangeEnd)
+                            console.setCaretPosition(rangeEnd - 1);
+                    } else
+                        fb.remove(offset, length);
 
 
-                        if (!isInfiniteInput())
-                            input.rangeRemove((offset - rangeStart), length);
-                        else
-                            input.remove((offset - rangeStart), length);
-                    } else
-                        Toolkit.getDefaultToolkit().beep();
+                    if (!isInfiniteInput())
+                        input.rangeRemove((offset - rangeStart), length);
+                    else
+                        input.remove((offset - rangeStart), length);
                 } else
                     Toolkit.getDefaultToolkit().beep();
-            } else {
-                bypassRemove = false;
-                fb.remove(offset, length);
-            }
+            } else
+                Toolkit.getDefaultToolkit().beep();
         }
     }
 
@@ -28,11 +28,30 @@ package com.eleet.dragonconsole.util;
  * <code>insert(int location, String s)</code>,
  * <code>remove(int location, int length)</code>, and
  * <code>replace(int location, int length, String s)</code>.
- * These function similar to a Document.
+ * These function similar to a Document.<br /><br />
+ * The characters are kept in a gap buffer, an array with an unused gap at
+ * the location of the last edit. Inserting or removing at the gap only moves
+ * the edges of the gap, and the gap is only moved when an edit happens
+ * somewhere else, so typing at the caret costs the same no matter how long
+ * the input is. The String returned by <code>get</code> is created once after
+ * each change.
  * @author Brandon E Buck
  * @version 1.0
  */
 public class InputString {
+    /**
+     * The smallest gap that is made when the buffer grows.
+     */
+    private static final int MIN_GAP = 16;
+
+    private char[] buffer;
+    private int gapStart;
+    private int gapEnd;
+
+    /**
+     * The contents as a String, <code>null</code> when the contents changed
+     * since it was last asked for.
+     */
     private String s;
 
     /**
@@ -40,7 +59,7 @@ public class InputString {
      * @param s The String used to build this InputString.
      */
     public InputString(String s) {
-        this.s = s;
+        set(s);
     }
 
     /**
@@ -48,8 +67,8 @@ public class InputString {
      * @param s The String to append.
      */
     public void append(String s) {
-        this.s += s;
-        Debug.print("\"" + this.s + "\" - APPEND");
+        insertAt(length(), s);
+        trace("APPEND");
     }
 
     /**
@@ -60,11 +79,9 @@ public class InputString {
      * @param s The String to insert at the given location.
      */
     public void insert(int location, String s) {
-        if (location <= this.s.length()) {
-            String before = this.s.substring(0, location);
-            String after = this.s.substring(location);
-            this.set(before + s + after);
-            Debug.print("\"" + this.s + "\" - INSERT");
+        if (location <= length()) {
+            insertAt(location, s);
+            trace("INSERT");
         }
     }
 
@@ -77,17 +94,9 @@ public class InputString {
      *  InputString.
      */
     public void remove(int location, int length) {
-        if (location < this.s.length() && (location + length) <= this.s.length()) {
-            int end = location + length;
-            String before = this.s.substring(0, location);
-            String after = "";
-            
-            if ((location + length) < this.s.length())
-                after = this.s.substring(end);
-
-            set(before + after);
-
-            Debug.print("\"" + this.s + "\" - REMOVE");
+        if (location < length() && (location + length) <= length()) {
+            removeAt(location, length);
+            trace("REMOVE");
         }
     }
 
@@ -101,17 +110,10 @@ public class InputString {
      * @param length The length of the substring that needs to be removed.
      */
     public void rangeRemove(int location, int length) {
-        if (location < this.s.length() && (location + length) <= this.s.length()) {
-            int end = location + length;
-            String before = this.s.substring(0, location);
-            String after = "";
-
-            if (end < this.s.length())
-                after = this.s.substring(end);
-
-            set(before + after + " ");
-
-            Debug.print("\"" + this.s + "\" - RANGE REMOVE");
+        if (location < length() && (location + length) <= length()) {
+            removeAt(location, length);
+            insertAt(length(), " ");
+            trace("RANGE REMOVE");
         }
     }
 
@@ -127,12 +129,11 @@ public class InputString {
      *  or false if it was not.
      */
     public boolean rangeInsert(int location, String s) {
-        if (location < this.s.length() && endIsEmpty()) {
-            String before = this.s.substring(0, location);
-            String after = this.s.substring(location, this.s.length() - 1);
-            this.set(before + s + after);
+        if (location < length() && endIsEmpty()) {
+            removeAt(length() - 1, 1);
+            insertAt(location, s);
 
-            Debug.print("\"" + this.s + "\" - RANGE INSERT");
+            trace("RANGE INSERT");
             return true;
         }
 
@@ -147,13 +148,11 @@ public class InputString {
      * @param s The String to replace the substring of this InputString with.
      */
     public void replace(int location, int length, String s) {
-        if (location < this.s.length() && (location + length) <= this.s.length()) {
-            int end = location + length;
-            String before = this.s.substring(0, location);
-            String after = this.s.substring(end);
-            set(before + s + after);
+        if (location < length() && (location + length) <= length()) {
+            removeAt(location, length);
+            insertAt(location, s);
 
-            Debug.print("\"" + this.s + "\" - REPLACE");
+            trace("REPLACE");
         } else
             append(s);
     }
@@ -163,6 +162,10 @@ public class InputString {
      * @param s The new String for this InputString.
      */
     public void set(String s) {
+        buffer = new char[s.length() + MIN_GAP];
+        s.getChars(0, s.length(), buffer, 0);
+        gapStart = s.length();
+        gapEnd = buffer.length;
         this.s = s;
     }
 
@@ -171,7 +174,31 @@ public class InputString {
      * @return The contents of the InputString as a String object.
      */
     public String get() {
-        return this.s;
+        if (s == null) {
+            char[] contents = new char[length()];
+            System.arraycopy(buffer, 0, contents, 0, gapStart);
+            System.arraycopy(buffer, gapEnd, contents, gapStart,
+                    buffer.length - gapEnd);
+            s = new String(contents);
+        }
+
+        return s;
+    }
+
+    /**
+     * Returns the character at the given location.
+     * @param index The location of the character.
+     * @return The character at the location.
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Length: " + length());
+
+        if (index < gapStart)
+            return buffer[index];
+
+        return buffer[index + gapEnd - gapStart];
     }
 
     /**
@@ -181,7 +208,7 @@ public class InputString {
      *  InputString is a space, or <code>false</code> otherwise.
      */
     public boolean endIsEmpty() {
-        return (this.s.charAt(length() - 1) == ' ');
+        return (charAt(length() - 1) == ' ');
     }
 
     /**
@@ -189,7 +216,7 @@ public class InputString {
      * @return The length of the contents of this InputString.
      */
     public int length() {
-        return this.s.length();
+        return buffer.length - (gapEnd - gapStart);
     }
 
     /**
@@ -198,6 +225,79 @@ public class InputString {
      */
     @Override
     public String toString() {
-        return this.s;
+        return get();
+    }
+
+    /**
+     * Inserts the String at the location, moving the gap there first.
+     */
+    private void insertAt(int location, String s) {
+        if (s.length() == 0)
+            return;
+
+        moveGap(location);
+        if (gapEnd - gapStart < s.length())
+            growGap(s.length());
+
+        s.getChars(0, s.length(), buffer, gapStart);
+        gapStart += s.length();
+        this.s = null;
+    }
+
+    /**
+     * Removes the characters from the location by moving the gap there and
+     * widening it over them.
+     */
+    private void removeAt(int location, int length) {
+        if (length == 0)
+            return;
+
+        moveGap(location);
+        gapEnd += length;
+        this.s = null;
+    }
+
+    /**
+     * Moves the gap so that it starts at the given location, only the
+     * characters between the old and new location of the gap are copied.
+     */
+    private void moveGap(int location) {
+        if (location < gapStart) {
+            int count = gapStart - location;
+            System.arraycopy(buffer, location, buffer, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (location > gapStart) {
+            int count = location - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    /**
+     * Grows the buffer so the gap can hold at least the given number of
+     * characters, the buffer at least doubles so that a run of inserts costs
+     * amortized constant time per character.
+     */
+    private void growGap(int needed) {
+        int length = length();
+        int capacity = Math.max(buffer.length * 2, length + needed + MIN_GAP);
+        char[] grown = new char[capacity];
+        int after = buffer.length - gapEnd;
+
+        System.arraycopy(buffer, 0, grown, 0, gapStart);
+        System.arraycopy(buffer, gapEnd, grown, capacity - after, after);
+        buffer = grown;
+        gapEnd = capacity - after;
+    }
+
+    /**
+     * Prints the contents and the edit that was made if Debug printing is
+     * turned on, nothing is built when it's off.
+     */
+    private void trace(String edit) {
+        if (Debug.isOn())
+            Debug.print("\"" + get() + "\" - " + edit);
     }
 }
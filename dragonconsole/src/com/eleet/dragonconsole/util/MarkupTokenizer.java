@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+/**
+ * MarkupTokenizer scans console output for DragonConsole Color Codes (DCCCs),
+ * ANSI escape sequences and input scripts ("%i...;") in a single pass and
+ * reports the plain text between them, and the codes themselves, to a
+ * Handler.<br /><br />
+ * The tokenizer is a state machine that looks at each character exactly once
+ * and never creates a String. Plain text is collected in an internal buffer
+ * and handed to the Handler in as few pieces as possible (a piece ends only
+ * when a code is found, the buffer fills or the input runs out). Because all
+ * of it's state is kept between calls to <code>feed</code> a code that is
+ * split between two calls is still recognized, <code>finish</code> is called
+ * once the text is complete to flush anything that is left over.
+ * @version 1.0
+ */
+public class MarkupTokenizer {
+    /**
+     * The ANSI Escape character that begins an ANSI escape sequence.
+     */
+    private static final char ESCAPE = '\033';
+
+    /**
+     * The maximum length of an ANSI escape sequence, anything longer is
+     * considered malformed and thrown away.
+     */
+    private static final int MAX_SEQUENCE_LENGTH = 64;
+
+    /**
+     * The maximum length of an input script, anything longer is not an input
+     * script and is printed as is.
+     */
+    private static final int MAX_INPUT_LENGTH = 16;
+
+    /**
+     * The size of the plain text buffer, once it's full the text is given to
+     * the Handler.
+     */
+    private static final int TEXT_BUFFER_SIZE = 4096;
+
+    // States
+    private static final int TEXT = 0;
+    private static final int COLOR_CODE = 1;
+    private static final int COLOR_CODE_FOREGROUND = 2;
+    private static final int ESCAPE_SEQUENCE = 3;
+    private static final int CONTROL_SEQUENCE = 4;
+    private static final int PERCENT = 5;
+    private static final int INPUT_SCRIPT = 6;
+    private static final int DISCARD = 7;
+
+    /**
+     * The Handler receives everything the MarkupTokenizer finds. All arrays
+     * passed to a Handler are owned by the tokenizer and are only valid for the
+     * duration of the call.
+     */
+    public interface Handler {
+        /**
+         * Called with a piece of plain text, with all "&&" and "%%" escapes
+         * already resolved.
+         * @param chars The array holding the text.
+         * @param offset The index of the first character.
+         * @param length The number of characters.
+         */
+        void text(char[] chars, int offset, int length);
+
+        /**
+         * Called for each DCCC with the two characters that follow the
+         * <code>colorCodeChar</code>.
+         * @param foreground The foreground character of the DCCC.
+         * @param background The background character of the DCCC.
+         */
+        void colorCode(char foreground, char background);
+
+        /**
+         * Called for each complete ANSI Select Graphic Rendition sequence,
+         * the sequence includes the leading "\033[" and the trailing "m".
+         * @param sequence The array holding the sequence.
+         * @param offset The index of the escape character.
+         * @param length The length of the sequence.
+         */
+        void escape(char[] sequence, int offset, int length);
+
+        /**
+         * Called for each complete input script, the script includes the
+         * leading "%i" and the trailing ";".
+         * @param script The array holding the input script.
+         * @param offset The index of the '%'.
+         * @param length The length of the input script.
+         * @return <code>true</code> if all text that follows the input script
+         *  should be ignored (until <code>finish</code> is called).
+         */
+        boolean input(char[] script, int offset, int length);
+    }
+
+    private char colorCodeChar;
+    private boolean processInput;
+    private boolean keepPercentEscapes;
+
+    private int state;
+
+    /**
+     * The characters of the code that is currently being read.
+     */
+    private char[] token;
+    private int tokenLength;
+
+    /**
+     * Plain text that has not yet been given to the Handler.
+     */
+    private char[] text;
+    private int textLength;
+
+    /**
+     * Creates a new MarkupTokenizer that recognizes DCCCs beginning with the
+     * given character.
+     * @param colorCodeChar The character that begins a DCCC.
+     */
+    public MarkupTokenizer(char colorCodeChar) {
+        this.colorCodeChar = colorCodeChar;
+        this.processInput = true;
+        this.keepPercentEscapes = false;
+        this.state = TEXT;
+        this.token = new char[MAX_SEQUENCE_LENGTH];
+        this.tokenLength = 0;
+        this.text = new char[TEXT_BUFFER_SIZE];
+        this.textLength = 0;
+    }
+
+    /**
+     * Changes the character that begins a DCCC.
+     * @param colorCodeChar The new character for color codes.
+     */
+    public void setColorCodeChar(char colorCodeChar) {
+        this.colorCodeChar = colorCodeChar;
+    }
+
+    /**
+     * Determines if input scripts (and the "%%" escape) are recognized. When
+     * set to <code>false</code> all '%' characters are treated as text.
+     * @param processInput <code>true</code> to recognize input scripts.
+     */
+    public void setProcessInput(boolean processInput) {
+        this.processInput = processInput;
+    }
+
+    /**
+     * Determines if a "%%" escape is given to the Handler as "%%" instead of
+     * a single '%', for a Handler that decides later how to print it. A '%'
+     * that is not part of an escape is never directly followed by another '%'
+     * in the text, so every "%%" in the text is an escape.
+     * @param keepPercentEscapes <code>true</code> to keep "%%" escapes.
+     */
+    public void setKeepPercentEscapes(boolean keepPercentEscapes) {
+        this.keepPercentEscapes = keepPercentEscapes;
+    }
+
+    /**
+     * Tokenizes a portion of a CharSequence.
+     * @param s The text to tokenize.
+     * @param start The index of the first character to tokenize.
+     * @param end The index after the last character to tokenize.
+     * @param handler The Handler that receives the tokens.
+     */
+    public void feed(CharSequence s, int start, int end, Handler handler) {
+        for (int i = start; i < end && state != DISCARD; i++)
+            next(s.charAt(i), handler);
+
+        flushText(handler);
+    }
+
+    /**
+     * Tokenizes a portion of a char array.
+     * @param chars The array holding the text to tokenize.
+     * @param offset The index of the first character to tokenize.
+     * @param length The number of characters to tokenize.
+     * @param handler The Handler that receives the tokens.
+     */
+    public void feed(char[] chars, int offset, int length, Handler handler) {
+        int end = offset + length;
+        for (int i = offset; i < end && state != DISCARD; i++)
+            next(chars[i], handler);
+
+        flushText(handler);
+    }
+
+    /**
+     * Ends the current text. Any incomplete DCCC or input script is given to
+     * the Handler as plain text (just as if it were never a code) and any
+     * incomplete ANSI escape sequence is dropped. After this call the tokenizer
+     * is ready for new text.
+     * @param handler The Handler that receives the remaining text.
+     */
+    public void finish(Handler handler) {
+        switch (state) {
+            case COLOR_CODE:
+            case COLOR_CODE_FOREGROUND:
+            case PERCENT:
+            case INPUT_SCRIPT:
+                appendText(token, 0, tokenLength, handler);
+                break;
+        }
+
+        flushText(handler);
+        reset();
+    }
+
+    /**
+     * Throws away any incomplete code and buffered text and returns the
+     * tokenizer to it's initial state.
+     */
+    public void reset() {
+        state = TEXT;
+        tokenLength = 0;
+        textLength = 0;
+    }
+
+    /**
+     * Returns the number of characters of an incomplete code that are being
+     * held until more text arrives.
+     * @return The number of characters held by the tokenizer.
+     */
+    public int getPendingLength() {
+        if (state == TEXT || state == DISCARD)
+            return 0;
+
+        return tokenLength;
+    }
+
+    /**
+     * Returns the given text without it's plain text, only the codes that
+     * change the style or the input are left. The codes are found with the
+     * current <code>colorCodeChar</code> and input scripts are always
+     * recognized, the codes that are left are written as they were in the
+     * text. The tokenizer is reset before and after.<br /><br />
+     * A chunk of a stream can start with the end of a code that began in the
+     * chunk before it and end with the beginning of a code. The text is kept
+     * as is until two characters that end any code in a row
+     * (<code>isCodeEnd</code>), after them every tokenizer is back to plain
+     * text, and an incomplete code at the end is kept as well.
+     * @param s The text to strip.
+     * @param chunk <code>true</code> if the text is a chunk of a stream.
+     * @return The codes of the text.
+     */
+    public String stripText(CharSequence s, boolean chunk) {
+        int end = s.length();
+        int start = 0;
+        if (chunk) {
+            while (start < end) {
+                start++;
+                if (start >= 2 && isCodeEnd(s.charAt(start - 2))
+                        && isCodeEnd(s.charAt(start - 1)))
+                    break;
+            }
+        }
+
+        final StringBuilder codes = new StringBuilder();
+        codes.append(s, 0, start);
+
+        boolean oldProcessInput = processInput;
+        processInput = true;
+        reset();
+        feed(s, start, end, new Handler() {
+            public void text(char[] chars, int offset, int length) {
+            }
+
+            public void colorCode(char foreground, char background) {
+                codes.append(colorCodeChar).append(foreground)
+                        .append(background);
+            }
+
+            public void escape(char[] sequence, int offset, int length) {
+                codes.append(sequence, offset, length);
+            }
+
+            public boolean input(char[] script, int offset, int length) {
+                codes.append(script, offset, length);
+                return false;
+            }
+        });
+
+        if (chunk) // The incomplete code is the end of the text
+            codes.append(s, end - getPendingLength(), end);
+
+        reset();
+        processInput = oldProcessInput;
+
+        return codes.toString();
+    }
+
+    /**
+     * Returns <code>true</code> if the character ends every code that it
+     * follows, or is plain text after it: it's an ANSI final character, not a
+     * digit or separator that continues a code, and it doesn't start a code.
+     * The second of two of these in a row always leaves the tokenizer reading
+     * plain text.
+     * @param c The character to check.
+     * @return <code>true</code> if the character ends any code.
+     */
+    private boolean isCodeEnd(char c) {
+        return (c >= 0x40 && c <= 0x7E && c != colorCodeChar);
+    }
+
+    /**
+     * Processes a single character.
+     * @param c The next character of the text.
+     * @param handler The Handler that receives the tokens.
+     */
+    private void next(char c, Handler handler) {
+        switch (state) {
+            case TEXT:
+                if (c == colorCodeChar)
+                    beginToken(COLOR_CODE, c);
+                else if (c == ESCAPE)
+                    beginToken(ESCAPE_SEQUENCE, c);
+                else if (c == '%' && processInput)
+                    beginToken(PERCENT, c);
+                else
+                    appendText(c, handler);
+                break;
+
+            case COLOR_CODE:
+                if (c == colorCodeChar) { // "&&" is a single '&'
+                    state = TEXT;
+                    appendText(c, handler);
+                } else {
+                    token[tokenLength++] = c;
+                    state = COLOR_CODE_FOREGROUND;
+                }
+                break;
+
+            case COLOR_CODE_FOREGROUND:
+                state = TEXT;
+                flushText(handler);
+                handler.colorCode(token[1], c);
+                break;
+
+            case ESCAPE_SEQUENCE:
+                if (c == '[') {
+                    token[tokenLength++] = c;
+                    state = CONTROL_SEQUENCE;
+                } else // Unsupported two character escape, drop it
+                    state = TEXT;
+                break;
+
+            case CONTROL_SEQUENCE:
+                if (c >= 0x40 && c <= 0x7E) { // Final character
+                    state = TEXT;
+                    if (c == 'm') {
+                        token[tokenLength++] = c;
+                        flushText(handler);
+                        handler.escape(token, 0, tokenLength);
+                    }
+                } else if (c >= 0x20 && c <= 0x3F
+                        && tokenLength < MAX_SEQUENCE_LENGTH - 1) {
+                    token[tokenLength++] = c;
+                } else { // Malformed, drop the sequence and keep the character
+                    state = TEXT;
+                    next(c, handler);
+                }
+                break;
+
+            case PERCENT:
+                if (c == '%') { // "%%" is a single '%'
+                    state = TEXT;
+                    appendText(c, handler);
+                    if (keepPercentEscapes)
+                        appendText(c, handler);
+                } else if (c == 'i') {
+                    token[tokenLength++] = c;
+                    state = INPUT_SCRIPT;
+                } else {
+                    state = TEXT;
+                    appendText('%', handler);
+                    next(c, handler);
+                }
+                break;
+
+            case INPUT_SCRIPT:
+                if (c == ';') {
+                    token[tokenLength++] = c;
+                    state = TEXT;
+                    flushText(handler);
+                    if (handler.input(token, 0, tokenLength))
+                        state = DISCARD;
+                } else if (((c >= '0' && c <= '9') || c == '+' || c == '-')
+                        && tokenLength < MAX_INPUT_LENGTH) {
+                    token[tokenLength++] = c;
+                } else { // Not an input script, it's just text
+                    state = TEXT;
+                    appendText(token, 0, tokenLength, handler);
+                    next(c, handler);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Starts reading a new code.
+     * @param newState The state for the type of code.
+     * @param c The first character of the code.
+     */
+    private void beginToken(int newState, char c) {
+        state = newState;
+        token[0] = c;
+        tokenLength = 1;
+    }
+
+    /**
+     * Adds a single character to the buffered text, if the buffer is full it's
+     * given to the Handler first.
+     * @param c The character to add.
+     * @param handler The Handler that receives a full buffer.
+     */
+    private void appendText(char c, Handler handler) {
+        if (textLength == text.length)
+            flushText(handler);
+
+        text[textLength++] = c;
+    }
+
+    /**
+     * Adds a portion of a char array to the buffered text, if there isn't
+     * enough room the buffer is given to the Handler first.
+     * @param chars The array holding the characters.
+     * @param offset The index of the first character.
+     * @param length The number of characters, never more than the size of
+     *  the buffer.
+     * @param handler The Handler that receives a full buffer.
+     */
+    private void appendText(char[] chars, int offset, int length,
+            Handler handler) {
+        if (textLength + length > text.length)
+            flushText(handler);
+
+        System.arraycopy(chars, offset, text, textLength, length);
+        textLength += length;
+    }
+
+    /**
+     * Gives any buffered text to the Handler.
+     * @param handler The Handler to give the text to.
+     */
+    private void flushText(Handler handler) {
+        if (textLength > 0) {
+            handler.text(text, 0, textLength);
+            textLength = 0;
+        }
+    }
+}
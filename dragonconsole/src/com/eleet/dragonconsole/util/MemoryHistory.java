@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.util.ArrayList;
+
+/**
+ * MemoryHistory is a CommandHistory kept in memory that holds a limited number
+ * of entries, once it's full the oldest entry is dropped for each new one.
+ * This is the history a DragonConsole uses unless it's given another one.
+ * @version 1.0
+ */
+public class MemoryHistory implements CommandHistory {
+    private ArrayList<String> entries;
+
+    /**
+     * The maximum number of entries to keep.
+     */
+    private int maxEntries;
+
+    /**
+     * Creates a new, empty MemoryHistory.
+     * @param maxEntries The maximum number of entries to keep.
+     */
+    public MemoryHistory(int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+
+        this.entries = new ArrayList<String>();
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Adds an entry to the end of the history, dropping the oldest entry if
+     * the history is full.
+     * @param entry The entry to add.
+     */
+    public synchronized void add(String entry) {
+        entries.add(entry);
+        if (entries.size() > maxEntries)
+            entries.remove(0);
+    }
+
+    /**
+     * Returns an entry of the history.
+     * @param index The index of the entry, <code>0</code> is the oldest.
+     * @return The entry.
+     */
+    public synchronized String get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Returns the number of entries in the history.
+     * @return The size of the history.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
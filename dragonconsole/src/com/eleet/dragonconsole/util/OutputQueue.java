@@ -0,0 +1,793 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * OutputQueue holds all output that has been sent to the DragonConsole but
+ * has not yet been added to the Document. Any Thread may add output to the
+ * queue, the first addition after a flush schedules a single flush on the
+ * Event Dispatch Thread one frame later so that everything added in the mean
+ * time is written to the Document together (one document update, one caret
+ * update and one scroll adjustment).<br /><br />
+ * The queue can be bounded by the number of queued characters. What happens
+ * when a producer adds output to a full queue depends on the backpressure
+ * policy: <code>BLOCK</code> makes the producer wait until the queue has been
+ * flushed, <code>DROP</code> throws the new output away and leaves a marker
+ * saying how many lines were suppressed, and <code>SUMMARIZE</code> throws
+ * away the oldest queued output (keeping the latest) and leaves a marker in
+ * it's place. Output added on the Event Dispatch Thread is never blocked since
+ * that is the Thread that flushes the queue.<br /><br />
+ * Only <code>PLAIN</code> and <code>STYLED</code> output is ever thrown away
+ * whole. Processed, stream and template output can change the style, the
+ * input and the parse state of a stream, so instead of being thrown away it's
+ * collapsed: it's text is cut down to it's codes (the values of a template are
+ * dropped) and it stays in the queue, the codes are processed as usual but
+ * nothing is printed. The codes that are left still count towards the queued
+ * characters, and if they fill the queue on their own the producer waits for
+ * room just like with <code>BLOCK</code>. <code>REGION</code> output is always kept so that the
+ * OutputRegion it belongs to is printed.
+ * @version 1.0
+ */
+public class OutputQueue {
+    /**
+     * The delay (in milliseconds) between the first output added to an empty
+     * queue and the flush on the Event Dispatch Thread, roughly one frame.
+     */
+    public static final int FRAME_DELAY = 16;
+
+    /**
+     * Output that needs to be processed for DCCCs, ANSI codes and input
+     * scripts, added by <code>append(String)</code>.
+     */
+    public static final int PROCESS = 0;
+
+    /**
+     * Output that is printed as is with the given style and that resets the
+     * input to basic input, added by <code>appendWithoutProcessing</code>.
+     */
+    public static final int PLAIN = 1;
+
+    /**
+     * Output that is printed as is with the given style, used for System and
+     * Error messages.
+     */
+    public static final int STYLED = 2;
+
+    /**
+     * A marker left where output was thrown away by the <code>DROP</code> or
+     * <code>SUMMARIZE</code> policy, the text says how much was lost.
+     */
+    public static final int SUPPRESSED = 3;
+
+    /**
+     * A chunk of output read from a stream, it's processed like
+     * <code>PROCESS</code> output by the MarkupTokenizer of the stream so a
+     * code that is split between two chunks is still recognized.
+     */
+    public static final int STREAM = 4;
+
+    /**
+     * Output that was compiled ahead of time, the data of the Entry holds
+     * everything the console needs to print it.
+     */
+    public static final int TEMPLATE = 5;
+
+    /**
+     * The first text of an OutputRegion, the data of the Entry is the region
+     * that the printed text belongs to.
+     */
+    public static final int REGION = 6;
+
+    /**
+     * Backpressure policy that makes a producing Thread wait until there is
+     * room in the queue.
+     */
+    public static final int BLOCK = 0;
+
+    /**
+     * Backpressure policy that throws away output added to a full queue and
+     * marks where it was suppressed.
+     */
+    public static final int DROP = 1;
+
+    /**
+     * Backpressure policy that throws away the oldest queued output to make
+     * room for new output and marks how much was omitted.
+     */
+    public static final int SUMMARIZE = 2;
+
+    /**
+     * Lock guarding every field that is shared between the producing Threads
+     * and the Event Dispatch Thread.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The output waiting to be flushed, in the order it was added.
+     */
+    private ArrayList<Entry> entries;
+
+    /**
+     * The number of characters currently waiting in the queue.
+     */
+    private int queuedCharacters;
+
+    /**
+     * <code>true</code> while a flush has been scheduled but the queue has not
+     * yet been drained by it.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * What happens when output is added to a full queue, <code>BLOCK</code>,
+     * <code>DROP</code> or <code>SUMMARIZE</code>.
+     */
+    private int policy;
+
+    /**
+     * The maximum number of characters that can be queued, 0 means the queue
+     * is not bounded.
+     */
+    private int maxQueuedCharacters;
+
+    /**
+     * The lines and characters suppressed by the <code>DROP</code> policy
+     * since the last drain, a marker is added to the end of the drained
+     * output for them.
+     */
+    private int suppressedLines;
+    private int suppressedCharacters;
+
+    /**
+     * The lines and characters omitted by the <code>SUMMARIZE</code> policy
+     * since the last drain, a marker is added to the front of the drained
+     * output for them.
+     */
+    private int omittedLines;
+    private int omittedCharacters;
+
+    /**
+     * The total number of lines and characters thrown away by this queue.
+     */
+    private long droppedLines;
+    private long droppedCharacters;
+
+    /**
+     * The Timer used to run the flush on the Event Dispatch Thread.
+     */
+    private Timer flushTimer;
+
+    /**
+     * The MarkupTokenizer used to cut collapsed output down to it's codes, it
+     * must use the same <code>colorCodeChar</code> as the console.
+     */
+    private MarkupTokenizer collapser;
+
+    /**
+     * Starts the <code>flushTimer</code>, the Timer is only ever touched on
+     * the Event Dispatch Thread so a flush can't be lost to a Timer that is
+     * restarted while it's firing.
+     */
+    private Runnable startFlushTimer = new Runnable() {
+        public void run() {
+            flushTimer.restart();
+        }
+    };
+
+    /**
+     * Creates a new, empty OutputQueue that notifies the given listener (on the
+     * Event Dispatch Thread) whenever queued output should be flushed.
+     * @param flusher The ActionListener that drains and prints the queue.
+     */
+    public OutputQueue(ActionListener flusher) {
+        entries = new ArrayList<Entry>();
+        queuedCharacters = 0;
+        flushScheduled = false;
+        policy = BLOCK;
+        maxQueuedCharacters = 0;
+        suppressedLines = 0;
+        suppressedCharacters = 0;
+        omittedLines = 0;
+        omittedCharacters = 0;
+        droppedLines = 0;
+        droppedCharacters = 0;
+
+        collapser = new MarkupTokenizer('&');
+
+        flushTimer = new Timer(FRAME_DELAY, flusher);
+        flushTimer.setRepeats(false);
+    }
+
+    /**
+     * Adds output to the end of the queue and schedules a flush if one is not
+     * already pending. This method can be called from any Thread.
+     * @param type The type of output, <code>PROCESS</code>,
+     *  <code>PLAIN</code> or <code>STYLED</code>.
+     * @param text The text to output.
+     * @param style The two character style to print the text with, ignored for
+     *  <code>PROCESS</code> output.
+     */
+    public void add(int type, String text, String style) {
+        if (text == null)
+            return;
+
+        add(new Entry(type, text, style), true);
+    }
+
+    /**
+     * Adds output to the end of the queue without ever waiting for room, if
+     * the queue is full and the policy is <code>BLOCK</code> the output is
+     * thrown away as if the policy were <code>DROP</code> (unless it's added
+     * on the Event Dispatch Thread, which never waits anyway). This is used by
+     * writers that may hold other locks while they add output, like a
+     * PrintStream, which could otherwise block the Event Dispatch Thread on
+     * their lock while it should be draining the queue. This method can be
+     * called from any Thread.
+     * @param type The type of output, <code>PLAIN</code> or
+     *  <code>STYLED</code>.
+     * @param text The text to output.
+     * @param style The two character style to print the text with.
+     */
+    public void offer(int type, String text, String style) {
+        if (text == null)
+            return;
+
+        add(new Entry(type, text, style), false);
+    }
+
+    /**
+     * Adds a chunk of a stream to the end of the queue and schedules a flush if
+     * one is not already pending. This method can be called from any Thread.
+     * @param tokenizer The MarkupTokenizer that holds the parse state of the
+     *  stream.
+     * @param text The chunk of text read from the stream.
+     * @param endOfStream <code>true</code> if this is the last chunk of the
+     *  stream, the end of a stream is never dropped.
+     */
+    public void addStream(MarkupTokenizer tokenizer, String text,
+            boolean endOfStream) {
+        if (text == null)
+            return;
+
+        Entry entry = new Entry(STREAM, text, null);
+        entry.tokenizer = tokenizer;
+        entry.endOfStream = endOfStream;
+        add(entry, true);
+    }
+
+    /**
+     * Adds a compiled template to the end of the queue and schedules a flush
+     * if one is not already pending. This method can be called from any
+     * Thread.
+     * @param template The object that describes the template.
+     * @param values The values for the parameter slots of the template.
+     * @param length The number of characters the template will print, used
+     *  to bound the queue.
+     */
+    public void addTemplate(Object template, String[] values, int length) {
+        if (template == null)
+            return;
+
+        Entry entry = new Entry(TEMPLATE, "", null);
+        entry.data = template;
+        entry.values = values;
+        entry.length = length;
+        add(entry, true);
+    }
+
+    /**
+     * Adds output that is not held as text to the end of the queue and
+     * schedules a flush if one is not already pending. This method can be
+     * called from any Thread.
+     * @param type The type of output, <code>REGION</code>.
+     * @param data The object that describes the output.
+     * @param length The number of characters the output will print, used to
+     *  bound the queue.
+     */
+    public void add(int type, Object data, int length) {
+        if (data == null)
+            return;
+
+        Entry entry = new Entry(type, "", null);
+        entry.data = data;
+        entry.length = length;
+        add(entry, true);
+    }
+
+    /**
+     * Adds an Entry to the end of the queue, applying the backpressure policy
+     * if the queue is full.
+     * @param entry The Entry to add.
+     * @param mayWait <code>false</code> if the adding Thread must never wait,
+     *  full <code>BLOCK</code> queues drop the Entry instead.
+     */
+    private void add(Entry entry, boolean mayWait) {
+        int length = entry.getLength();
+
+        boolean schedule = false;
+        synchronized (lock) {
+            if (isFull(length) && !entry.isEndOfStream()) {
+                int full = policy;
+                if (full == BLOCK && !mayWait
+                        && !SwingUtilities.isEventDispatchThread())
+                    full = DROP;
+
+                switch (full) {
+                    case DROP:
+                        if (entry.getType() == REGION)
+                            break;
+
+                        suppressedLines += countLines(entry);
+                        suppressedCharacters += length;
+                        droppedLines += countLines(entry);
+                        droppedCharacters += length;
+                        if (isDroppable(entry))
+                            return; // A flush is already scheduled for the queue
+
+                        entry.collapse(collapser);
+                        length = entry.getLength();
+                        if (mayWait)
+                            waitForRoom(length); // Only if the codes don't fit
+                        break;
+                    case SUMMARIZE:
+                        omitOldest(length);
+                        if (mayWait)
+                            waitForRoom(length); // Only if the codes don't fit
+                        break;
+                    default:
+                        waitForRoom(length);
+                        break;
+                }
+            }
+
+            entries.add(entry);
+            queuedCharacters += length;
+
+            if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+
+        if (schedule)
+            SwingUtilities.invokeLater(startFlushTimer);
+    }
+
+    /**
+     * Removes and returns everything that is currently queued. After this call
+     * the next addition will schedule a new flush.
+     * @return The queued output in the order it was added.
+     */
+    public ArrayList<Entry> drain() {
+        synchronized (lock) {
+            ArrayList<Entry> drained = entries;
+
+            if (omittedCharacters > 0)
+                drained.add(0, new Entry(SUPPRESSED, "[" + omittedLines
+                        + " lines omitted]", null));
+
+            if (suppressedCharacters > 0)
+                drained.add(new Entry(SUPPRESSED, "[" + suppressedLines
+                        + " lines suppressed]", null));
+
+            entries = new ArrayList<Entry>();
+            queuedCharacters = 0;
+            flushScheduled = false;
+            resetMarkers();
+            lock.notifyAll();
+
+            return drained;
+        }
+    }
+
+    /**
+     * Throws away everything that is currently queued, used when the console
+     * is cleared.
+     */
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            queuedCharacters = 0;
+            resetMarkers();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Forgets the output waiting to be marked as suppressed or omitted, the
+     * caller must hold the <code>lock</code>.
+     */
+    private void resetMarkers() {
+        suppressedLines = 0;
+        suppressedCharacters = 0;
+        omittedLines = 0;
+        omittedCharacters = 0;
+    }
+
+    /**
+     * Returns <code>true</code> if adding the given number of characters would
+     * go over <code>maxQueuedCharacters</code>. Output is always accepted by
+     * an empty queue, no matter how long it is. The caller must hold the
+     * <code>lock</code>.
+     * @param length The number of characters to add.
+     * @return <code>true</code> if there is not enough room in the queue.
+     */
+    private boolean isFull(int length) {
+        return (maxQueuedCharacters > 0 && !entries.isEmpty()
+                && queuedCharacters + length > maxQueuedCharacters);
+    }
+
+    /**
+     * Waits until there is room in the queue for the given number of
+     * characters, or until the policy is changed. The Event Dispatch Thread
+     * never waits since it's the Thread that drains the queue. The
+     * <code>DROP</code> and <code>SUMMARIZE</code> policies only wait when the
+     * codes of collapsed output fill the queue on their own. The caller must
+     * hold the <code>lock</code>.
+     * @param length The number of characters to add.
+     */
+    private void waitForRoom(int length) {
+        if (SwingUtilities.isEventDispatchThread())
+            return;
+
+        int waitingPolicy = policy;
+        while (policy == waitingPolicy && isFull(length)) {
+            try {
+                lock.wait();
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return; // Keep the output rather than lose it
+            }
+        }
+    }
+
+    /**
+     * Throws away the oldest queued output to make room for the given number
+     * of characters. Output is removed until the queue is no more than half
+     * full so that a flood of output doesn't move the whole queue for every
+     * addition. Output that can't be thrown away is collapsed in place, or
+     * kept as it is if it's <code>REGION</code> output. The caller must hold
+     * the <code>lock</code>.
+     * @param length The number of characters to add.
+     */
+    private void omitOldest(int length) {
+        int target = Math.max(0, maxQueuedCharacters / 2 - length);
+        int index = 0;
+        int kept = 0;
+        while (index < entries.size() && queuedCharacters > target) {
+            Entry entry = entries.get(index++);
+            if (entry.getType() == REGION || entry.isCollapsed()
+                    || entry.getLength() == 0) {
+                entries.set(kept++, entry);
+                continue;
+            }
+
+            queuedCharacters -= entry.getLength();
+            omittedLines += countLines(entry);
+            omittedCharacters += entry.getLength();
+            droppedLines += countLines(entry);
+            droppedCharacters += entry.getLength();
+
+            if (!isDroppable(entry)) {
+                entry.collapse(collapser);
+                queuedCharacters += entry.getLength();
+                entries.set(kept++, entry);
+            }
+        }
+
+        entries.subList(kept, index).clear();
+    }
+
+    /**
+     * Returns <code>true</code> if the output can be thrown away whole, which
+     * is only the case for text that is printed as is.
+     * @param entry The output to check.
+     * @return <code>true</code> if the output is <code>PLAIN</code> or
+     *  <code>STYLED</code>.
+     */
+    private static boolean isDroppable(Entry entry) {
+        return (entry.getType() == PLAIN || entry.getType() == STYLED);
+    }
+
+    /**
+     * Counts the lines in a piece of output, output that is not held as text
+     * counts as a single line.
+     * @param entry The output to count.
+     * @return The number of lines in the output.
+     */
+    private static int countLines(Entry entry) {
+        if (entry.getData() != null)
+            return 1;
+
+        return countLines(entry.getText());
+    }
+
+    /**
+     * Counts the lines in a piece of output, text after the last newline
+     * counts as a line.
+     * @param text The output to count.
+     * @return The number of lines in the output.
+     */
+    private static int countLines(String text) {
+        int lines = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n')
+                lines++;
+        }
+
+        if (length > 0 && text.charAt(length - 1) != '\n')
+            lines++;
+
+        return lines;
+    }
+
+    /**
+     * Changes the character that begins a DCCC, the codes of collapsed output
+     * are found with it.
+     * @param colorCodeChar The new character for color codes.
+     */
+    public void setColorCodeChar(char colorCodeChar) {
+        synchronized (lock) {
+            collapser.setColorCodeChar(colorCodeChar);
+        }
+    }
+
+    /**
+     * Sets what happens when output is added to a full queue.
+     * @param policy <code>BLOCK</code>, <code>DROP</code> or
+     *  <code>SUMMARIZE</code>, any other value is ignored.
+     */
+    public void setPolicy(int policy) {
+        if (policy != BLOCK && policy != DROP && policy != SUMMARIZE)
+            return;
+
+        synchronized (lock) {
+            this.policy = policy;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns what happens when output is added to a full queue.
+     * @return <code>BLOCK</code>, <code>DROP</code> or
+     *  <code>SUMMARIZE</code>.
+     */
+    public int getPolicy() {
+        synchronized (lock) {
+            return policy;
+        }
+    }
+
+    /**
+     * Sets the maximum number of characters that can be queued.
+     * @param maxQueuedCharacters The maximum number of queued characters, 0
+     *  (or less) means the queue is not bounded.
+     */
+    public void setMaxQueuedCharacters(int maxQueuedCharacters) {
+        synchronized (lock) {
+            this.maxQueuedCharacters = Math.max(0, maxQueuedCharacters);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the maximum number of characters that can be queued.
+     * @return The maximum number of queued characters, 0 if the queue is not
+     *  bounded.
+     */
+    public int getMaxQueuedCharacters() {
+        synchronized (lock) {
+            return maxQueuedCharacters;
+        }
+    }
+
+    /**
+     * Returns the number of pieces of output that are currently waiting to be
+     * flushed.
+     * @return The depth of the queue.
+     */
+    public int getQueuedEntries() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the total number of lines thrown away by the <code>DROP</code>
+     * and <code>SUMMARIZE</code> policies.
+     * @return The number of dropped lines.
+     */
+    public long getDroppedLines() {
+        synchronized (lock) {
+            return droppedLines;
+        }
+    }
+
+    /**
+     * Returns the total number of characters thrown away by the
+     * <code>DROP</code> and <code>SUMMARIZE</code> policies.
+     * @return The number of dropped characters.
+     */
+    public long getDroppedCharacters() {
+        synchronized (lock) {
+            return droppedCharacters;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if there is no output waiting to be flushed.
+     * @return <code>true</code> if the queue is empty.
+     */
+    public boolean isEmpty() {
+        synchronized (lock) {
+            return entries.isEmpty();
+        }
+    }
+
+    /**
+     * Returns the number of characters that are currently waiting to be
+     * flushed.
+     * @return The number of queued characters.
+     */
+    public int getQueuedCharacters() {
+        synchronized (lock) {
+            return queuedCharacters;
+        }
+    }
+
+    /**
+     * A single piece of queued output.
+     */
+    public static class Entry {
+        private int type;
+        private String text;
+        private String style;
+        private MarkupTokenizer tokenizer;
+        private boolean endOfStream;
+        private Object data;
+        private String[] values;
+        private int length;
+        private boolean collapsed;
+
+        /**
+         * Constructs a new Entry with the given type, text and style.
+         */
+        public Entry(int type, String text, String style) {
+            this.type = type;
+            this.text = text;
+            this.style = style;
+            this.tokenizer = null;
+            this.endOfStream = false;
+            this.data = null;
+            this.values = null;
+            this.length = text.length();
+            this.collapsed = false;
+        }
+
+        /**
+         * Collapses this output for the backpressure policy. Text is cut down
+         * to it's codes, which are all that count towards the queued
+         * characters from now on, and the values of a template are dropped.
+         * @param collapser The MarkupTokenizer that finds the codes.
+         */
+        private void collapse(MarkupTokenizer collapser) {
+            collapsed = true;
+            if (type == TEMPLATE) {
+                values = new String[0];
+                length = 0;
+            } else {
+                text = collapser.stripText(text, type == STREAM);
+                length = text.length();
+            }
+        }
+
+        /**
+         * Returns the type of this output.
+         * @return <code>PROCESS</code>, <code>PLAIN</code>,
+         *  <code>STYLED</code>, <code>SUPPRESSED</code>,
+         *  <code>STREAM</code>, <code>TEMPLATE</code> or
+         *  <code>REGION</code>.
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * Returns the text of this output.
+         * @return The text of this output.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Returns the two character style this output should be printed with.
+         * @return The style of this output, or null for <code>PROCESS</code>
+         *  and <code>SUPPRESSED</code> output.
+         */
+        public String getStyle() {
+            return style;
+        }
+
+        /**
+         * Returns the MarkupTokenizer of the stream this output was read from.
+         * @return The tokenizer of the stream, or null if this is not
+         *  <code>STREAM</code> output.
+         */
+        public MarkupTokenizer getTokenizer() {
+            return tokenizer;
+        }
+
+        /**
+         * Returns <code>true</code> if this is the last chunk of a stream.
+         * @return <code>true</code> if the stream has ended.
+         */
+        public boolean isEndOfStream() {
+            return endOfStream;
+        }
+
+        /**
+         * Returns the object that describes output that is not held as text.
+         * @return The data of this output, or null if the output is text.
+         */
+        public Object getData() {
+            return data;
+        }
+
+        /**
+         * Returns the values for the parameter slots of a template.
+         * @return The values of the template, or null if this is not
+         *  <code>TEMPLATE</code> output.
+         */
+        public String[] getValues() {
+            return values;
+        }
+
+        /**
+         * Returns the number of characters this output will print.
+         * @return The length of this output, the length of it's codes once
+         *  it's collapsed.
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns <code>true</code> if the backpressure policy collapsed this
+         * output. Collapsed output is processed as usual, so it's color codes,
+         * ANSI codes and input scripts still take effect, but none of it's
+         * text is printed. The text of collapsed output only holds it's codes
+         * and a collapsed template has no values.
+         * @return <code>true</code> if the text of this output is suppressed.
+         */
+        public boolean isCollapsed() {
+            return collapsed;
+        }
+    }
+}
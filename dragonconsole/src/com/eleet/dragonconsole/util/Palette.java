@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A Palette holds the TextColors of a console and finds them in constant
+ * time, by their character code through a table indexed by the character and
+ * by their Color through a HashMap. The console, it's PromptPanel and the
+ * color code conversions of ANSI all share the console's Palette, so a color
+ * code is never looked up by searching a list of TextColors.<br /><br />
+ * Each character code is in the Palette once, adding a TextColor with a code
+ * that's already in use replaces the old TextColor. If several codes have the
+ * same Color the one added first is found for that Color. The TextColors are
+ * also kept in the order they were added, which is the order
+ * <code>getTextColors</code> returns them in.
+ * @version 1.0
+ */
+public class Palette {
+    /**
+     * The number of character codes in each page of the code table, the table
+     * is split into pages so that only the pages holding codes are created.
+     */
+    private static final int PAGE_SIZE = 256;
+
+    /**
+     * The TextColors by their character code, <code>codes[c / PAGE_SIZE][c %
+     * PAGE_SIZE]</code>.
+     */
+    private TextColor[][] codes;
+
+    /**
+     * The TextColors by their Color.
+     */
+    private HashMap<Color, TextColor> colors;
+
+    /**
+     * The TextColors in the order they were added.
+     */
+    private ArrayList<TextColor> textColors;
+
+    /**
+     * Creates a new, empty Palette.
+     */
+    public Palette() {
+        codes = new TextColor[(Character.MAX_VALUE + 1) / PAGE_SIZE][];
+        colors = new HashMap<Color, TextColor>();
+        textColors = new ArrayList<TextColor>();
+    }
+
+    /**
+     * Creates a Palette holding the given TextColors, a later TextColor
+     * replaces an earlier one with the same character code.
+     * @param textColors The TextColors to add.
+     */
+    public Palette(List<TextColor> textColors) {
+        this();
+
+        for (int i = 0; i < textColors.size(); i++)
+            add(textColors.get(i));
+    }
+
+    /**
+     * Adds a TextColor to the Palette, replacing the TextColor that has the
+     * same character code if there is one.
+     * @param textColor The TextColor to add.
+     * @return The TextColor that was replaced, or <code>null</code>.
+     */
+    public TextColor add(TextColor textColor) {
+        TextColor replaced = remove(textColor.getCharCode());
+
+        char code = textColor.getCharCode();
+        TextColor[] page = codes[code / PAGE_SIZE];
+        if (page == null) {
+            page = new TextColor[PAGE_SIZE];
+            codes[code / PAGE_SIZE] = page;
+        }
+
+        page[code % PAGE_SIZE] = textColor;
+        textColors.add(textColor);
+        if (textColor.getColor() != null
+                && !colors.containsKey(textColor.getColor()))
+            colors.put(textColor.getColor(), textColor);
+
+        return replaced;
+    }
+
+    /**
+     * Removes the TextColor with the given character code.
+     * @param code The character code of the TextColor to remove.
+     * @return The TextColor that was removed, or <code>null</code> if there
+     *  was no TextColor with the code.
+     */
+    public TextColor remove(char code) {
+        TextColor[] page = codes[code / PAGE_SIZE];
+        if (page == null || page[code % PAGE_SIZE] == null)
+            return null;
+
+        TextColor removed = page[code % PAGE_SIZE];
+        page[code % PAGE_SIZE] = null;
+        for (int i = 0; i < textColors.size(); i++) {
+            if (textColors.get(i) == removed) { // TextColor.equals compares Colors
+                textColors.remove(i);
+                break;
+            }
+        }
+
+        Color color = removed.getColor();
+        if (color != null && colors.get(color) == removed) {
+            colors.remove(color);
+
+            // Another code with the same Color takes it's place
+            for (int i = 0; i < textColors.size(); i++) {
+                if (color.equals(textColors.get(i).getColor())) {
+                    colors.put(color, textColors.get(i));
+                    break;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes the TextColor with the given Color, the one that
+     * <code>get(Color)</code> returns.
+     * @param color The Color of the TextColor to remove.
+     * @return The TextColor that was removed, or <code>null</code> if there
+     *  was no TextColor with the Color.
+     */
+    public TextColor remove(Color color) {
+        TextColor textColor = colors.get(color);
+        if (textColor == null)
+            return null;
+
+        return remove(textColor.getCharCode());
+    }
+
+    /**
+     * Returns the TextColor with the given character code.
+     * @param code The character code to find.
+     * @return The TextColor, or <code>null</code> if there is none.
+     */
+    public TextColor get(char code) {
+        TextColor[] page = codes[code / PAGE_SIZE];
+        if (page == null)
+            return null;
+
+        return page[code % PAGE_SIZE];
+    }
+
+    /**
+     * Returns the TextColor with the given Color, the first one added if
+     * several codes have the Color.
+     * @param color The Color to find.
+     * @return The TextColor, or <code>null</code> if there is none.
+     */
+    public TextColor get(Color color) {
+        return colors.get(color);
+    }
+
+    /**
+     * Returns the Color of the given character code.
+     * @param code The character code to find.
+     * @return The Color, or <code>null</code> if there is no TextColor with
+     *  the code.
+     */
+    public Color getColor(char code) {
+        TextColor textColor = get(code);
+
+        return (textColor == null) ? null : textColor.getColor();
+    }
+
+    /**
+     * Returns <code>true</code> if there's a TextColor with the given
+     * character code.
+     * @param code The character code to find.
+     * @return <code>true</code> if the code is in the Palette.
+     */
+    public boolean contains(char code) {
+        return (get(code) != null);
+    }
+
+    /**
+     * Returns the number of TextColors in the Palette.
+     * @return The size of the Palette.
+     */
+    public int size() {
+        return textColors.size();
+    }
+
+    /**
+     * Returns the TextColors of the Palette in the order they were added.
+     * @return A copy of the list of TextColors.
+     */
+    public ArrayList<TextColor> getTextColors() {
+        return new ArrayList<TextColor>(textColors);
+    }
+
+    /**
+     * Removes all TextColors from the Palette.
+     */
+    public void clear() {
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = null;
+
+        colors.clear();
+        textColors.clear();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.Toolkit;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * PasteTask pastes text into the input of an inline input console. How much
+ * of the text fits is checked against the input before anything is inserted:
+ * ranged input only takes the first line of the text and only as many
+ * characters as there are blank spaces left in the range, and nothing is
+ * pasted (besides a beep) where input can't go.<br /><br />
+ * Infinite input takes any amount of text, large pastes are inserted in
+ * chunks across several turns of the Event Dispatch Thread. Each turn inserts
+ * chunks for at most <code>TURN_TIME</code> milliseconds and then gives the
+ * Event Dispatch Thread back, so typing, painting and output keep going while
+ * megabytes are pasted. How long a chunk takes depends on the views of the
+ * console as much as on it's length, so the size of the chunks is adjusted to
+ * how long the last one took and a turn stops early when the next chunk
+ * wouldn't fit. The ChangeListener is told after every turn so the progress can be
+ * shown. The text is pasted relative to the start of the input, so output
+ * printed before the input while the paste runs doesn't move it.
+ * @version 1.0
+ */
+public class PasteTask implements Runnable {
+    /**
+     * The number of characters in the first chunk that is inserted.
+     */
+    public static final int CHUNK_SIZE = 1024;
+
+    /**
+     * The fewest and most characters inserted into the Document at a time.
+     */
+    private static final int MIN_CHUNK_SIZE = 256;
+    private static final int MAX_CHUNK_SIZE = 65536;
+
+    /**
+     * The most time (in milliseconds) a single turn spends inserting chunks,
+     * half of a frame.
+     */
+    public static final int TURN_TIME = OutputQueue.FRAME_DELAY / 2;
+
+    private JTextPane console;
+    private InputController inputControl;
+    private ChangeListener listener;
+    private String text;
+
+    /**
+     * The number of characters of the text that have been pasted.
+     */
+    private int pasted;
+
+    /**
+     * The location the text is pasted at, relative to the start of the input.
+     */
+    private int inputOffset;
+
+    /**
+     * The number of characters in the next chunk.
+     */
+    private int chunkSize;
+
+    private boolean cancelled;
+    private boolean done;
+
+    /**
+     * Creates a new PasteTask, it does nothing until it's started.
+     * @param console The JTextPane of the console.
+     * @param inputControl The InputController of the console.
+     * @param text The text to paste.
+     * @param listener Told about the progress of the paste after each turn,
+     *  or <code>null</code>.
+     */
+    public PasteTask(JTextPane console, InputController inputControl,
+            String text, ChangeListener listener) {
+        this.console = console;
+        this.inputControl = inputControl;
+        this.text = text;
+        this.listener = listener;
+        this.pasted = 0;
+        this.chunkSize = CHUNK_SIZE;
+        this.cancelled = false;
+        this.done = false;
+    }
+
+    /**
+     * Starts pasting at the caret, this must be called on the Event Dispatch
+     * Thread. Ranged input is pasted right away, infinite input pastes the
+     * first chunks right away and the rest on later turns.
+     * @return <code>false</code> if nothing could be pasted at the caret.
+     */
+    public boolean start() {
+        int offset = console.getCaretPosition();
+        int limit = inputControl.getPasteLimit(offset);
+
+        if (limit == 0 || text.length() == 0) {
+            if (text.length() > 0)
+                Toolkit.getDefaultToolkit().beep();
+
+            finish();
+            return false;
+        }
+
+        if (!inputControl.isInfiniteInput()) {
+            pasteRanged(offset, limit);
+            finish();
+            return true;
+        }
+
+        inputOffset = offset - inputControl.getInputRangeStart();
+        run();
+
+        return true;
+    }
+
+    /**
+     * Inserts chunks of the text for one turn and schedules the next turn if
+     * there is text left.
+     */
+    public void run() {
+        if (cancelled || done)
+            return;
+
+        if (!inputControl.isReceivingInput()) {
+            cancel(); // The input was sent or cleared
+            return;
+        }
+
+        Document doc = console.getDocument();
+        long turnTime = TURN_TIME * 1000000L;
+        long deadline = System.nanoTime() + turnTime;
+        long took;
+
+        try {
+            do {
+                long chunkStart = System.nanoTime();
+                int start = inputControl.getInputRangeStart() + inputOffset + pasted;
+                int end = Math.min(pasted + chunkSize, text.length());
+
+                // Don't split a surrogate pair between two chunks
+                if (end < text.length()
+                        && Character.isHighSurrogate(text.charAt(end - 1)))
+                    end--;
+
+                boolean caretAtEnd = (console.getCaretPosition() == start);
+                doc.insertString(start, text.substring(pasted, end), null);
+                if (caretAtEnd)
+                    console.setCaretPosition(start + end - pasted);
+
+                pasted = end;
+
+                took = System.nanoTime() - chunkStart;
+                if (took > turnTime / 2)
+                    chunkSize = Math.max(chunkSize / 2, MIN_CHUNK_SIZE);
+                else if (took < turnTime / 8)
+                    chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+            } while (pasted < text.length()
+                    && System.nanoTime() + took < deadline);
+        } catch (BadLocationException exc) {
+            cancel(); // The input changed under the paste
+            return;
+        }
+
+        if (pasted < text.length()) {
+            fireProgress();
+            SwingUtilities.invokeLater(this);
+        } else
+            finish();
+    }
+
+    /**
+     * Stops the paste, the text that was already pasted stays.
+     */
+    public void cancel() {
+        if (!done) {
+            cancelled = true;
+            finish();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> once the paste has finished or was cancelled.
+     * @return <code>true</code> if nothing more will be pasted.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns <code>true</code> if the paste was cancelled before all of the
+     * text was pasted.
+     * @return <code>true</code> if the paste was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns how much of the text has been pasted.
+     * @return The progress of the paste, from 0 to 100.
+     */
+    public int getProgress() {
+        if (done || text.length() == 0)
+            return 100;
+
+        return (int)(pasted * 100L / text.length());
+    }
+
+    /**
+     * Pastes into ranged input one character at a time, the same way typing
+     * does, up to the first line break and the limit of the range.
+     */
+    private void pasteRanged(int offset, int limit) {
+        int length = 0;
+        while (length < text.length() && text.charAt(length) != '\n'
+                && text.charAt(length) != '\r')
+            length++;
+
+        if (length > limit)
+            Toolkit.getDefaultToolkit().beep(); // The rest doesn't fit
+
+        AbstractDocument doc = (AbstractDocument)console.getDocument();
+        try {
+            for (int i = 0; i < Math.min(length, limit); i++) {
+                doc.replace(offset + i, 0, String.valueOf(text.charAt(i)), null);
+                pasted++;
+            }
+
+            console.setCaretPosition(offset + pasted);
+        } catch (BadLocationException exc) {
+            // Whatever was pasted before the input changed stays
+        }
+    }
+
+    private void finish() {
+        done = true;
+        fireProgress();
+    }
+
+    private void fireProgress() {
+        if (listener != null)
+            listener.stateChanged(new ChangeEvent(this));
+    }
+}
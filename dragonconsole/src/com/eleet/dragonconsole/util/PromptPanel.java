@@ -25,7 +25,6 @@ package com.eleet.dragonconsole.util;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
-import java.util.ArrayList;
 
 /**
  * This class is used with the alternative method of input (not Inline Input).
@@ -46,7 +45,21 @@ public class PromptPanel extends JPanel {
      *  for coloring the PromptPanel.
      */
     public PromptPanel(String prompt, String defaultColor) {
-        promptLabel = new PromptLabel(prompt, defaultColor);
+        this(prompt, defaultColor, new Palette());
+    }
+
+    /**
+     * Constructs a new PromptPanel that colors the prompt with the given
+     * Palette, the console passes it's own Palette so the prompt always has
+     * the console's TextColors. The Palette is only read, never changed.
+     * @param prompt String representation of the Prompt that you want
+     *  displayed before the <code>inputArea</code>.
+     * @param defaultColor The default color code from the DragonConsole, used
+     *  for coloring the PromptPanel.
+     * @param palette The TextColors used for the DCCCs of the prompt.
+     */
+    public PromptPanel(String prompt, String defaultColor, Palette palette) {
+        promptLabel = new PromptLabel(prompt, defaultColor, palette);
         promptLabel.setOpaque(false);
         setLayout(new BorderLayout());
         add(promptLabel, BorderLayout.NORTH);
@@ -74,34 +87,41 @@ public class PromptPanel extends JPanel {
     }
 
     /**
-     * This method is used to prevent the programmer from getting access to the
-     * PromptLabel. It sends the parameter given to the same method within the
-     * PromptLabel.
-     * @param color The new TextColor that needs to be added to the list of
-     *  colors in the PromptLabel.
+     * Repaints the prompt. The PromptLabel reads it's TextColors from the
+     * Palette it was given, which is only changed through the DragonConsole,
+     * so the TextColor is not added here.
+     * @param color The TextColor that was added to the Palette.
+     * @deprecated The Palette of the prompt is read only as of 3.0.2, add
+     *  TextColors with <code>DragonConsole.addTextColor</code> instead.
      */
+    @Deprecated
     public void addColor(TextColor color) {
-        promptLabel.addColor(color);
+        promptLabel.repaint();
     }
 
     /**
-     * This method is used to prevent the programmer from getting access to the
-     * PromptLabel. It calls the method within the PromptLabel with the same
-     * name.
+     * Repaints the prompt. The PromptLabel reads it's TextColors from the
+     * Palette it was given, which is only changed through the DragonConsole,
+     * so no TextColors are removed here.
+     * @deprecated The Palette of the prompt is read only as of 3.0.2, clear
+     *  the TextColors with <code>DragonConsole.clearTextColors</code> instead.
      */
+    @Deprecated
     public void clearColors() {
-        promptLabel.clearColors();
+        promptLabel.repaint();
     }
 
     /**
-     * This method is used to prevent the programmer from getting access to the
-     * PromptLabel. It sends the parameter given to the same method within the
-     * PromptLabel.
-     * @param color The TextColor that needs to be removed from the list of
-     *  TextColors in the PromptLabel.
+     * Repaints the prompt. The PromptLabel reads it's TextColors from the
+     * Palette it was given, which is only changed through the DragonConsole,
+     * so the TextColor is not removed here.
+     * @param color The TextColor that was removed from the Palette.
+     * @deprecated The Palette of the prompt is read only as of 3.0.2, remove
+     *  TextColors with <code>DragonConsole.removeTextColor</code> instead.
      */
+    @Deprecated
     public void removeColor(TextColor color) {
-        promptLabel.removeColor(color);
+        promptLabel.repaint();
     }
 
     /**
@@ -153,7 +173,7 @@ public class PromptPanel extends JPanel {
      * capable of processing ANSI Color Codes even if ANSI support is enabled.
      */
     private class PromptLabel extends JLabel {
-        private ArrayList<TextColor> colors;
+        private Palette colors;
         private char colorCodeChar = '&';
         private String defaultColor;
 
@@ -162,33 +182,12 @@ public class PromptPanel extends JPanel {
          * defaultColor that is given.
          * @param text The text to use as the initial prompt.
          * @param defaultColor The initial defaultColor of the DragonConsole.
+         * @param colors The Palette holding the TextColors.
          */
-        public PromptLabel(String text, String defaultColor) {
+        public PromptLabel(String text, String defaultColor, Palette colors) {
             super(text);
             this.defaultColor= defaultColor;
-            this.colors = new ArrayList<TextColor>();
-        }
-
-        /**
-         * Adds a new TextColor to the list of TextColors in the PromptLabel,
-         * these Colors are used for processing the DCCCs in the paint method to
-         * properly display the Prompt.
-         * @param color The new TextColor to add to the list of TextColors.
-         */
-        public void addColor(TextColor color) {
-            this.colors.add(color);
-            this.repaint();
-        }
-
-        /**
-         * Removes a TextColor from the list of TextColors. This method is
-         * called when a TextColor is removed from the DragonConsole to keep
-         * the two lists equivalent.
-         * @param color The TextColor to remove from the list of TextColors.
-         */
-        public void removeColor(TextColor color) {
-            this.colors.remove(color);
-            this.repaint();
+            this.colors = colors;
         }
 
         /**
@@ -200,15 +199,6 @@ public class PromptPanel extends JPanel {
             this.defaultColor = defaultColor;
         }
 
-        /**
-         * Removes all of the TextColors from the list of TextColors, this
-         * method is called when the TextColor list is cleared in the
-         * DragonConsole.
-         */
-        public void clearColors() {
-            this.colors.clear();
-        }
-
         /**
          * Sets the colorCodeCharacter used to process DCCCs, this method is
          * called when the colorCodeChar is altered in the DragonConsole so
@@ -334,19 +324,17 @@ public class PromptPanel extends JPanel {
         }
 
         /**
-         * Searches the list of TextColors for the one associated with the
-         * given character and returns the Color associated with it.
+         * Looks up the TextColor associated with the given character and
+         * returns the Color associated with it.
          * @param code The character code to find the Color for.
          * @return The Color that is assigned to this Character code.
          */
         private Color getColorFromDCCC(char code) {
-            TextColor test = TextColor.getTestTextColor(code);
-            for (int i = 0; i < colors.size(); i++) {
-                if (colors.get(i).equals(test))
-                    return colors.get(i).getColor();
-            }
+            Color color = colors.getColor(code);
+            if (color == null)
+                return Color.GRAY.brighter();
 
-            return Color.GRAY.brighter();
+            return color;
         }
 
         /**
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+/**
+ * SGRState holds the colors set by ANSI Select Graphic Rendition (SGR)
+ * sequences ("\033[...m") and updates them from each new sequence. The
+ * sequence is read one character at a time by a small state machine that
+ * builds each parameter directly into an int, no String is ever created so
+ * processing colored output does not allocate anything.<br /><br />
+ * A sequence that is malformed (anything other than digits, ';' and ':'
+ * between the "\033[" and the 'm') or unterminated is ignored as a whole and leaves
+ * the colors as they were. Parameters that are too large are clamped and
+ * anything past <code>MAX_PARAMETERS</code> is ignored.<br /><br />
+ * Colors are kept as an int, 0-7 for the normal ANSI colors, 8-15 for the
+ * intense colors (set by a '1' earlier in the same sequence or by codes 90-97
+ * and 100-107), 16-255 for the rest of the 256 color palette ("38;5;n"),
+ * <code>TRUE_COLOR</code> combined with an RGB value for 24-bit colors
+ * ("38;2;r;g;b") or <code>DEFAULT_COLOR</code> for the console's default. Both
+ * the ';' and the ':' separated forms of the extended colors are understood.
+ * @version 1.0
+ */
+public class SGRState {
+    /**
+     * The color index meaning the console's default color is used.
+     */
+    public static final int DEFAULT_COLOR = -1;
+
+    /**
+     * Marks a color as a 24-bit RGB color, the RGB value is in the lower 24
+     * bits.
+     */
+    public static final int TRUE_COLOR = 0x1000000;
+
+    /**
+     * Flag set while text should be drawn in italics (code 3).
+     */
+    public static final int ITALIC = 1;
+
+    /**
+     * Flag set while text should be underlined (code 4).
+     */
+    public static final int UNDERLINE = 2;
+
+    /**
+     * The maximum number of parameters read from a single sequence.
+     */
+    public static final int MAX_PARAMETERS = 32;
+
+    /**
+     * Parameters are clamped to this value so a long run of digits can't
+     * overflow.
+     */
+    private static final int MAX_VALUE = 9999;
+
+    /**
+     * The result of reading an extended color that was not valid.
+     */
+    private static final int INVALID_COLOR = -2;
+
+    // Parse States
+    private static final int ESCAPE = 0;
+    private static final int BRACKET = 1;
+    private static final int PARAMETERS = 2;
+    private static final int FINISHED = 3;
+    private static final int MALFORMED = 4;
+
+    /**
+     * The parameters of the last sequence that was parsed.
+     */
+    private final int[] parameters;
+    private int parameterCount;
+
+    /**
+     * A bit for each parameter that was separated from the one before it by a
+     * ':' instead of a ';', these belong to the parameter before them.
+     */
+    private int subparameters;
+
+    // Parse State
+    private int state;
+    private int value;
+    private boolean hasValue;
+    private boolean isSubparameter;
+
+    // Graphic State
+    private int foreground;
+    private int background;
+    private int flags;
+
+    /**
+     * The color read by <code>readExtendedColor</code>.
+     */
+    private int extendedColor;
+
+    /**
+     * Creates a new SGRState with the default colors.
+     */
+    public SGRState() {
+        parameters = new int[MAX_PARAMETERS];
+        parameterCount = 0;
+        reset();
+    }
+
+    /**
+     * Returns the colors to the console's default.
+     */
+    public void reset() {
+        foreground = DEFAULT_COLOR;
+        background = DEFAULT_COLOR;
+        flags = 0;
+    }
+
+    /**
+     * Returns the current foreground color.
+     * @return A palette index (0-255), a <code>TRUE_COLOR</code> RGB value or
+     *  <code>DEFAULT_COLOR</code>.
+     */
+    public int getForeground() {
+        return foreground;
+    }
+
+    /**
+     * Returns the current background color.
+     * @return A palette index (0-255), a <code>TRUE_COLOR</code> RGB value or
+     *  <code>DEFAULT_COLOR</code>.
+     */
+    public int getBackground() {
+        return background;
+    }
+
+    /**
+     * Returns the current text attributes.
+     * @return A combination of <code>ITALIC</code> and
+     *  <code>UNDERLINE</code>.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Returns <code>true</code> if both colors are the console's default and
+     * no attribute is set.
+     * @return <code>true</code> if nothing is set.
+     */
+    public boolean isDefault() {
+        return (foreground == DEFAULT_COLOR && background == DEFAULT_COLOR
+                && flags == 0);
+    }
+
+    /**
+     * Returns the current colors and attributes packed into a single int,
+     * the attribute flags are in bits 0-7, the background in bits 8-16 and
+     * the foreground in bits 17-25 (each color is stored plus one so that
+     * <code>DEFAULT_COLOR</code> is 0). 24-bit colors don't fit in the key.
+     * @return The packed key, or -1 if a <code>TRUE_COLOR</code> is set.
+     */
+    public int getStyleKey() {
+        return packStyleKey(foreground, background, flags);
+    }
+
+    /**
+     * Packs colors and attributes into a single int, see
+     * <code>getStyleKey</code>.
+     * @param foreground The foreground color.
+     * @param background The background color.
+     * @param flags The attribute flags.
+     * @return The packed key, or -1 if either color is a
+     *  <code>TRUE_COLOR</code>.
+     */
+    public static int packStyleKey(int foreground, int background, int flags) {
+        if (foreground > 255 || background > 255)
+            return -1;
+
+        return ((foreground + 1) << 17) | ((background + 1) << 8)
+                | (flags & 0xFF);
+    }
+
+    /**
+     * Returns the color for a 24-bit RGB value.
+     * @param red The red component, 0-255.
+     * @param green The green component, 0-255.
+     * @param blue The blue component, 0-255.
+     * @return The <code>TRUE_COLOR</code> value of the color.
+     */
+    public static int getTrueColor(int red, int green, int blue) {
+        return TRUE_COLOR | (Math.min(red, 255) << 16)
+                | (Math.min(green, 255) << 8) | Math.min(blue, 255);
+    }
+
+    /**
+     * Parses a complete SGR sequence held in a char array and applies it to
+     * the current colors.
+     * @param sequence The array holding the sequence.
+     * @param offset The index of the escape character.
+     * @param length The length of the sequence, including the 'm'.
+     * @return <code>true</code> if the sequence was valid and was applied.
+     */
+    public boolean update(char[] sequence, int offset, int length) {
+        if (parse(sequence, offset, length) == -1)
+            return false;
+
+        apply();
+        return true;
+    }
+
+    /**
+     * Parses a complete SGR sequence held in a CharSequence and applies it to
+     * the current colors.
+     * @param sequence The text holding the sequence.
+     * @param start The index of the escape character.
+     * @param end The index after the 'm'.
+     * @return <code>true</code> if the sequence was valid and was applied.
+     */
+    public boolean update(CharSequence sequence, int start, int end) {
+        if (parse(sequence, start, end) == -1)
+            return false;
+
+        apply();
+        return true;
+    }
+
+    /**
+     * Parses the parameters of a complete SGR sequence held in a char array
+     * without applying them, they can be read with
+     * <code>getParameter</code>.
+     * @param sequence The array holding the sequence.
+     * @param offset The index of the escape character.
+     * @param length The length of the sequence, including the 'm'.
+     * @return The number of parameters, or -1 if the sequence is malformed.
+     */
+    public int parse(char[] sequence, int offset, int length) {
+        begin();
+        int end = offset + length;
+        for (int i = offset; i < end && state != MALFORMED; i++)
+            next(sequence[i]);
+
+        return end();
+    }
+
+    /**
+     * Parses the parameters of a complete SGR sequence held in a
+     * CharSequence without applying them, they can be read with
+     * <code>getParameter</code>.
+     * @param sequence The text holding the sequence.
+     * @param start The index of the escape character.
+     * @param end The index after the 'm'.
+     * @return The number of parameters, or -1 if the sequence is malformed.
+     */
+    public int parse(CharSequence sequence, int start, int end) {
+        begin();
+        for (int i = start; i < end && state != MALFORMED; i++)
+            next(sequence.charAt(i));
+
+        return end();
+    }
+
+    /**
+     * Returns a parameter of the last sequence parsed, an empty parameter is
+     * 0.
+     * @param index The index of the parameter.
+     * @return The value of the parameter.
+     */
+    public int getParameter(int index) {
+        return parameters[index];
+    }
+
+    /**
+     * Returns the number of parameters of the last sequence parsed.
+     * @return The number of parameters, 0 for "\033[m".
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Returns <code>true</code> if a parameter of the last sequence parsed was
+     * separated from the one before it by a ':'.
+     * @param index The index of the parameter.
+     * @return <code>true</code> if the parameter is a subparameter.
+     */
+    public boolean isSubparameter(int index) {
+        return (index < MAX_PARAMETERS && (subparameters & (1 << index)) != 0);
+    }
+
+    /**
+     * Starts parsing a new sequence.
+     */
+    private void begin() {
+        state = ESCAPE;
+        parameterCount = 0;
+        subparameters = 0;
+        value = 0;
+        hasValue = false;
+        isSubparameter = false;
+    }
+
+    /**
+     * Processes a single character of the sequence.
+     * @param c The next character.
+     */
+    private void next(char c) {
+        switch (state) {
+            case ESCAPE:
+                state = (c == '\033') ? BRACKET : MALFORMED;
+                break;
+            case BRACKET:
+                state = (c == '[') ? PARAMETERS : MALFORMED;
+                break;
+            case PARAMETERS:
+                if (c >= '0' && c <= '9') {
+                    value = Math.min(value * 10 + (c - '0'), MAX_VALUE);
+                    hasValue = true;
+                } else if (c == ';' || c == ':') {
+                    addParameter();
+                    hasValue = true; // A separator always ends a parameter, even "\033[;m"
+                    isSubparameter = (c == ':');
+                } else if (c == 'm') {
+                    if (hasValue)
+                        addParameter();
+                    state = FINISHED;
+                } else
+                    state = MALFORMED;
+                break;
+            default: // Anything after the 'm' makes the sequence malformed
+                state = MALFORMED;
+                break;
+        }
+    }
+
+    /**
+     * Ends the current parameter.
+     */
+    private void addParameter() {
+        if (parameterCount < MAX_PARAMETERS) {
+            if (isSubparameter)
+                subparameters |= 1 << parameterCount;
+            parameters[parameterCount++] = value;
+        }
+
+        value = 0;
+        hasValue = false;
+        isSubparameter = false;
+    }
+
+    /**
+     * Finishes parsing the sequence.
+     * @return The number of parameters, or -1 if the sequence was malformed or
+     *  never reached it's 'm'.
+     */
+    private int end() {
+        if (state != FINISHED) {
+            parameterCount = 0;
+            return -1;
+        }
+
+        return parameterCount;
+    }
+
+    /**
+     * Applies the parsed parameters to the current colors. A '1' makes the
+     * foreground colors that follow it in the same sequence intense, a
+     * sequence without parameters ("\033[m") is the same as "\033[0m".
+     */
+    private void apply() {
+        if (parameterCount == 0) {
+            reset();
+            return;
+        }
+
+        boolean brighter = false;
+        int i = 0;
+        while (i < parameterCount) {
+            int code = parameters[i++];
+
+            if (code == 0) {
+                brighter = false;
+                reset();
+            } else if (code == 1)
+                brighter = true;
+            else if (code == 3)
+                flags |= ITALIC;
+            else if (code == 4)
+                flags |= UNDERLINE;
+            else if (code == 23)
+                flags &= ~ITALIC;
+            else if (code == 24)
+                flags &= ~UNDERLINE;
+            else if (code >= 30 && code <= 37)
+                foreground = (code - 30) + (brighter ? 8 : 0);
+            else if (code == 38 || code == 48) {
+                i += readExtendedColor(i);
+                if (extendedColor != INVALID_COLOR) {
+                    if (code == 38)
+                        foreground = extendedColor;
+                    else
+                        background = extendedColor;
+                }
+            } else if (code == 39)
+                foreground = DEFAULT_COLOR;
+            else if (code >= 40 && code <= 47)
+                background = code - 40;
+            else if (code == 49)
+                background = DEFAULT_COLOR;
+            else if (code >= 90 && code <= 97)
+                foreground = code - 90 + 8;
+            else if (code >= 100 && code <= 107)
+                background = code - 100 + 8;
+
+            // Subparameters of codes that are not understood are skipped
+            while (i < parameterCount && isSubparameter(i))
+                i++;
+        }
+    }
+
+    /**
+     * Reads the color of a "38" or "48" code, either "5;n" for a palette color
+     * or "2;r;g;b" for a 24-bit color (the ':' form may also hold a color
+     * space id before the RGB values). The color is left in
+     * <code>extendedColor</code>, <code>INVALID_COLOR</code> if it could not
+     * be read.
+     * @param index The index of the parameter after the "38" or "48".
+     * @return The number of parameters that belong to the color.
+     */
+    private int readExtendedColor(int index) {
+        extendedColor = INVALID_COLOR;
+        if (index >= parameterCount)
+            return 0;
+
+        int mode = parameters[index];
+        int available;
+        int rgbIndex;
+        if (isSubparameter(index)) {
+            available = 0;
+            while (index + available < parameterCount
+                    && isSubparameter(index + available))
+                available++;
+
+            rgbIndex = (available >= 5) ? index + 2 : index + 1;
+        } else {
+            available = parameterCount - index;
+            rgbIndex = index + 1;
+        }
+
+        if (mode == 5) {
+            if (available < 2)
+                return available;
+
+            if (parameters[index + 1] <= 255)
+                extendedColor = parameters[index + 1];
+
+            return isSubparameter(index) ? available : 2;
+        } else if (mode == 2) {
+            if (available < 4)
+                return available;
+
+            extendedColor = getTrueColor(parameters[rgbIndex],
+                    parameters[rgbIndex + 1], parameters[rgbIndex + 2]);
+
+            return isSubparameter(index) ? available : 4;
+        }
+
+        return isSubparameter(index) ? available : 1;
+    }
+}
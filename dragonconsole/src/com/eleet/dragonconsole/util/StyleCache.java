@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.text.Style;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+/**
+ * StyleCache creates the Styles of the console's color codes as they are
+ * needed. A Style for a foreground and background pair ("rb", "xG", ...) is
+ * only added to the Document the first time that pair is asked for, instead
+ * of adding a Style for every pair of TextColors whenever a TextColor is
+ * added. The Styles that have been created are kept in a map by their two
+ * characters, so only the pairs actually used by the console ever exist and
+ * removing a color only has to look at those.<br /><br />
+ * The Styles are named Styles of the Document, just like the ones
+ * <code>DocumentStyler.addNewColor</code> adds, so they can still be found
+ * with <code>getStyle</code> of the Document once they've been created.
+ * Changing the Color of a TextColor changes the Styles using it in place, so
+ * the text already printed with them takes the new Color without being
+ * restyled.<br /><br />
+ * A role ("defaultColor", "systemColor", ...) is a Style of it's own that has
+ * no colors, it resolves to the Style of the color code the role is currently
+ * set to. <code>getStyle</code> returns the role's Style when it's given the
+ * name of the role, so text printed in a role keeps referring to the role and
+ * pointing the role at another color code recolors all of it at once. Text
+ * printed with a color code always gets the Style of that code, even if a role
+ * is currently set to it. The cache is meant to be used on the Event Dispatch
+ * Thread only.
+ * @version 1.0
+ */
+public class StyleCache {
+    private StyledDocument document;
+
+    /**
+     * The TextColors of the console.
+     */
+    private Palette palette;
+
+    /**
+     * The Styles that have been created, by their two character name.
+     */
+    private HashMap<String, Style> styles;
+
+    /**
+     * The color code each role is set to, by the name of the role, in the
+     * order the roles were added.
+     */
+    private LinkedHashMap<String, String> roleCodes;
+
+    /**
+     * The Style of each role, by the name of the role.
+     */
+    private HashMap<String, Style> roleStyles;
+
+    /**
+     * Creates a new, empty StyleCache.
+     * @param document The Document the Styles are added to.
+     * @param palette The TextColors of the console.
+     */
+    public StyleCache(StyledDocument document, Palette palette) {
+        this.document = document;
+        this.palette = palette;
+        this.styles = new HashMap<String, Style>();
+        this.roleCodes = new LinkedHashMap<String, String>();
+        this.roleStyles = new HashMap<String, Style>();
+    }
+
+    /**
+     * Returns the Style for a two character color code, creating it if this
+     * is the first time it's been asked for, or the Style of a role if it's
+     * given the name of a role.
+     * @param name The foreground and background characters of the Style, or
+     *  the name of a role.
+     * @return The Style, or <code>null</code> if either character is not the
+     *  code of a TextColor.
+     */
+    public Style getStyle(String name) {
+        Style role = roleStyles.get(name);
+        if (role != null)
+            return role;
+
+        return getColorStyle(name);
+    }
+
+    /**
+     * Returns the Style for a two character color code, without looking at
+     * the roles.
+     */
+    private Style getColorStyle(String name) {
+        Style style = styles.get(name);
+        if (style != null || name.length() != 2)
+            return style;
+
+        TextColor foreground = palette.get(name.charAt(0));
+        TextColor background = palette.get(name.charAt(1));
+        if (foreground == null || background == null)
+            return null;
+
+        style = DocumentStyler.addNewStyle(document, foreground, background);
+        styles.put(name, style);
+
+        return style;
+    }
+
+    /**
+     * Sets the color code of a role, adding the role if it's new. All text
+     * printed with the role's Style is recolored, the Document repaints it
+     * when the Style changes. If the color code has no Style (one of it's
+     * characters is not the code of a TextColor) the role keeps it's old
+     * colors until the TextColor is added.
+     * @param role The name of the role, which can't be a two character color
+     *  code or the name of another Style of the Document.
+     * @param code The two character color code for the role.
+     * @return The Style of the role.
+     */
+    public Style setRole(String role, String code) {
+        Style style = roleStyles.get(role);
+        if (style == null) {
+            style = document.addStyle(role, null);
+            roleStyles.put(role, style);
+        }
+
+        roleCodes.put(role, code);
+        updateRole(role);
+
+        return style;
+    }
+
+    /**
+     * Points the Style of a role at the Style of it's color code, if that
+     * Style exists and isn't already it's parent.
+     */
+    private void updateRole(String role) {
+        Style style = roleStyles.get(role);
+        Style parent = getColorStyle(roleCodes.get(role));
+
+        if (parent != null && style.getResolveParent() != parent)
+            style.setResolveParent(parent);
+    }
+
+    /**
+     * Gives every Style that uses the given character as it's foreground or
+     * background the current Color of it's TextColor, the Styles are changed
+     * in place so the text printed with them is recolored, and points the
+     * roles using the character at their Styles. This is called when a
+     * TextColor is added or it's Color changes.
+     * @param code The character code of the TextColor.
+     */
+    public void updateColor(char code) {
+        for (Map.Entry<String, Style> entry : styles.entrySet()) {
+            String name = entry.getKey();
+            if (name.charAt(0) != code && name.charAt(1) != code)
+                continue;
+
+            TextColor foreground = palette.get(name.charAt(0));
+            TextColor background = palette.get(name.charAt(1));
+            if (foreground == null || background == null)
+                continue;
+
+            Style style = entry.getValue();
+            if (!foreground.getColor().equals(StyleConstants.getForeground(style)))
+                StyleConstants.setForeground(style, foreground.getColor());
+            if (!background.getColor().equals(StyleConstants.getBackground(style)))
+                StyleConstants.setBackground(style, background.getColor());
+        }
+
+        for (Map.Entry<String, String> entry : roleCodes.entrySet()) {
+            String roleCode = entry.getValue();
+            if (roleCode.length() == 2
+                    && (roleCode.charAt(0) == code || roleCode.charAt(1) == code))
+                updateRole(entry.getKey());
+        }
+    }
+
+    /**
+     * Removes every Style that uses the given character as it's foreground or
+     * background from the cache and the Document, they are created again with
+     * the current TextColors the next time they're needed. Text already
+     * printed with them keeps it's colors. This is called when a TextColor is
+     * removed.
+     * @param code The character code of the TextColor.
+     */
+    public void removeColor(char code) {
+        Iterator<String> names = styles.keySet().iterator();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (name.charAt(0) == code || name.charAt(1) == code) {
+                document.removeStyle(name);
+                names.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all Styles from the cache and the Document, the roles are kept
+     * and pointed at new Styles as TextColors are added again.
+     */
+    public void clear() {
+        for (String name : styles.keySet())
+            document.removeStyle(name);
+
+        styles.clear();
+    }
+
+    /**
+     * Returns the number of Styles that have been created.
+     * @return The size of the cache.
+     */
+    public int size() {
+        return styles.size();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import javax.swing.text.AttributeSet;
+
+/**
+ * StyledRuns is a reusable buffer of styled text. All of the text is kept in a
+ * single char array and each run is an (offset, length, style) triple over
+ * that array. Text appended with the same style as the last run is added to
+ * that run so a run is only created when the style actually changes.
+ * @version 1.0
+ */
+public class StyledRuns {
+    /**
+     * The initial capacity of the text array.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The initial capacity of the run arrays.
+     */
+    private static final int INITIAL_RUNS = 16;
+
+    /**
+     * If the text array grows larger than this it's thrown away when the
+     * buffer is cleared so that one very large batch doesn't hold on to the
+     * memory forever.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private char[] text;
+    private int length;
+
+    private int[] runOffsets;
+    private int[] runLengths;
+    private AttributeSet[] runStyles;
+    private int runCount;
+
+    /**
+     * Creates a new, empty StyledRuns buffer.
+     */
+    public StyledRuns() {
+        text = new char[INITIAL_CAPACITY];
+        runOffsets = new int[INITIAL_RUNS];
+        runLengths = new int[INITIAL_RUNS];
+        runStyles = new AttributeSet[INITIAL_RUNS];
+        length = 0;
+        runCount = 0;
+    }
+
+    /**
+     * Appends a portion of a char array with the given style.
+     * @param chars The array containing the text.
+     * @param offset The index of the first character to append.
+     * @param len The number of characters to append.
+     * @param style The style of the appended text.
+     */
+    public void append(char[] chars, int offset, int len, AttributeSet style) {
+        if (len <= 0)
+            return;
+
+        ensureCapacity(length + len);
+        System.arraycopy(chars, offset, text, length, len);
+        addRun(len, style);
+    }
+
+    /**
+     * Appends a String with the given style.
+     * @param s The String to append.
+     * @param style The style of the appended text.
+     */
+    public void append(String s, AttributeSet style) {
+        append(s, 0, s.length(), style);
+    }
+
+    /**
+     * Appends a portion of a CharSequence with the given style, the
+     * characters are copied straight into the text array.
+     * @param s The CharSequence containing the text.
+     * @param start The index of the first character to append.
+     * @param end The index after the last character to append.
+     * @param style The style of the appended text.
+     */
+    public void append(CharSequence s, int start, int end, AttributeSet style) {
+        int len = end - start;
+        if (len <= 0)
+            return;
+
+        ensureCapacity(length + len);
+        if (s instanceof String) {
+            ((String)s).getChars(start, end, text, length);
+        } else {
+            for (int i = 0; i < len; i++)
+                text[length + i] = s.charAt(start + i);
+        }
+
+        addRun(len, style);
+    }
+
+    /**
+     * Adds the last <code>len</code> characters of the text array to the
+     * last run if it has the same style, or starts a new run for them.
+     * @param len The number of characters that were just copied in.
+     * @param style The style of those characters.
+     */
+    private void addRun(int len, AttributeSet style) {
+        if (runCount > 0 && runStyles[runCount - 1] == style) {
+            runLengths[runCount - 1] += len;
+        } else {
+            if (runCount == runOffsets.length) {
+                int newSize = runCount * 2;
+                int[] newOffsets = new int[newSize];
+                int[] newLengths = new int[newSize];
+                AttributeSet[] newStyles = new AttributeSet[newSize];
+                System.arraycopy(runOffsets, 0, newOffsets, 0, runCount);
+                System.arraycopy(runLengths, 0, newLengths, 0, runCount);
+                System.arraycopy(runStyles, 0, newStyles, 0, runCount);
+                runOffsets = newOffsets;
+                runLengths = newLengths;
+                runStyles = newStyles;
+            }
+
+            runOffsets[runCount] = length;
+            runLengths[runCount] = len;
+            runStyles[runCount] = style;
+            runCount++;
+        }
+
+        length += len;
+    }
+
+    /**
+     * Makes sure the text array can hold at least the given number of
+     * characters.
+     * @param capacity The number of characters the array needs to hold.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > text.length) {
+            int newSize = Math.max(capacity, text.length * 2);
+            char[] newText = new char[newSize];
+            System.arraycopy(text, 0, newText, 0, length);
+            text = newText;
+        }
+    }
+
+    /**
+     * Removes all text and runs from this buffer so it can be reused.
+     */
+    public void clear() {
+        for (int i = 0; i < runCount; i++)
+            runStyles[i] = null;
+
+        if (text.length > MAX_RETAINED_CAPACITY)
+            text = new char[INITIAL_CAPACITY];
+
+        length = 0;
+        runCount = 0;
+    }
+
+    /**
+     * Returns the total number of characters in this buffer.
+     * @return The number of characters in all runs.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns <code>true</code> if this buffer contains no text.
+     * @return <code>true</code> if this buffer is empty.
+     */
+    public boolean isEmpty() {
+        return (length == 0);
+    }
+
+    /**
+     * Returns the array holding the text of this buffer, only the first
+     * <code>length()</code> characters are valid.
+     * @return The text array of this buffer.
+     */
+    public char[] getText() {
+        return text;
+    }
+
+    /**
+     * Returns the number of runs in this buffer.
+     * @return The number of runs.
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Returns the offset in the text array of the given run.
+     * @param run The index of the run.
+     * @return The offset of the first character of the run.
+     */
+    public int getRunOffset(int run) {
+        return runOffsets[run];
+    }
+
+    /**
+     * Returns the number of characters in the given run.
+     * @param run The index of the run.
+     * @return The length of the run.
+     */
+    public int getRunLength(int run) {
+        return runLengths[run];
+    }
+
+    /**
+     * Returns the style of the given run.
+     * @param run The index of the run.
+     * @return The AttributeSet the run should be displayed with.
+     */
+    public AttributeSet getRunStyle(int run) {
+        return runStyles[run];
+    }
+
+    /**
+     * Returns the text of this buffer as a String.
+     * @return The text of all runs.
+     */
+    @Override
+    public String toString() {
+        return new String(text, 0, length);
+    }
+}
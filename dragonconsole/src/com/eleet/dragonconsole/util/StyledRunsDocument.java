@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyledDocument;
+
+/**
+ * A StyledDocument that can insert a whole StyledRuns buffer with a single
+ * document change. The DragonConsole prints all of the output collected during
+ * a flush through this interface when it's Document supports it.
+ * @version 1.0
+ */
+public interface StyledRunsDocument extends StyledDocument {
+    /**
+     * Inserts all runs of the given StyledRuns at the given offset with a
+     * single document change, each run keeps it's own style. The insertion
+     * does not pass through the DocumentFilter.
+     * @param offset The location in the Document to insert the runs at.
+     * @param runs The styled text to insert.
+     * @throws BadLocationException If the offset is not a valid location in
+     *  the Document.
+     */
+    void insertRuns(int offset, StyledRuns runs) throws BadLocationException;
+}
@@ -125,18 +125,11 @@ public class TextColor implements Comparable {
      */
     @Override
     public int compareTo(Object o) {
-        String cName = o.getClass().getName();
-
-        if (cName.equals("java.lang.Character")) {
-            Character c = new Character(charCode);
-
-            return c.compareTo((Character)o);
-        } else if (cName.equals("com.eleet.dragonconsole.util.TextColor")) {
-            Character c = new Character(charCode);
-            Character otherC = new Character(((TextColor)o).getCharCode());
-
-            return c.compareTo(otherC);
-        }
+        if (o instanceof Character)
+            return Character.valueOf(charCode).compareTo((Character)o);
+        else if (o instanceof TextColor)
+            return Character.valueOf(charCode).compareTo(
+                    Character.valueOf(((TextColor)o).getCharCode()));
 
         return 0;
     }
@@ -156,9 +149,7 @@ public class TextColor implements Comparable {
      */
     @Override
     public boolean equals(Object o) {
-        String cName = o.getClass().getName();
-
-        if (cName.equals("com.eleet.dragonconsole.util.TextColor")) {
+        if (o instanceof TextColor) {
             TextColor otc = (TextColor)o;
 
             if (otc.getColor() == null || color == null)
@@ -166,11 +157,9 @@ public class TextColor implements Comparable {
             else
                 return ((color.equals(otc.getColor())));
 
-        } else if (cName.equals("java.lang.Character")) {
-            Character oc = (Character)o;
-
-            return ((charCode == oc.toString().charAt(0)));
-        } else
+        } else if (o instanceof Character)
+            return (charCode == ((Character)o).charValue());
+        else
             return false;
     }
 
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a HistoryFile keeps it's entries across runs, recovers from
+ * appends that didn't finish and sees the entries other HistoryFiles append
+ * to the same files.
+ * @version 1.0
+ */
+public class HistoryFileTest {
+    private File file;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("history", ".txt");
+        indexFile = new File(file.getPath() + ".idx");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void entriesAreKeptAcrossRuns() throws IOException {
+        HistoryFile history = new HistoryFile(file);
+        history.add("first");
+        history.add("двa ünï");
+        history.add("");
+        history.close();
+
+        history = new HistoryFile(file);
+        assertEquals(3, history.size());
+        assertEquals("first", history.get(0));
+        assertEquals("двa ünï", history.get(1));
+        assertEquals("", history.get(2));
+        history.close();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPastTheEndFails() throws IOException {
+        HistoryFile history = new HistoryFile(file);
+        try {
+            history.add("only");
+            history.get(1);
+        } finally {
+            history.close();
+        }
+    }
+
+    @Test
+    public void unfinishedAppendIsDroppedAndWrittenOver() throws IOException {
+        HistoryFile history = new HistoryFile(file);
+        history.add("a");
+        history.add("b");
+        history.close();
+
+        // An append that stopped part way through it's record and offset
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(raw.length());
+        raw.writeInt(12);
+        raw.write("0123".getBytes("UTF-8"));
+        raw.writeInt(2);
+        raw.write("zz".getBytes("UTF-8"));
+        raw.close();
+        raw = new RandomAccessFile(indexFile, "rw");
+        raw.seek(raw.length());
+        raw.write(new byte[] {0, 0, 0});
+        raw.close();
+        long length = file.length();
+
+        history = new HistoryFile(file);
+        assertEquals(2, history.size());
+
+        history.add("c");
+        assertEquals(3, history.size());
+        assertEquals("c", history.get(2));
+        history.close();
+
+        // The files are never cut, what's left of the record stays behind
+        // the new entry without being read as one
+        assertEquals(length, file.length());
+        history = new HistoryFile(file);
+        assertEquals(3, history.size());
+        assertEquals("a", history.get(0));
+        assertEquals("b", history.get(1));
+        assertEquals("c", history.get(2));
+        history.close();
+    }
+
+    @Test
+    public void offsetPastTheHistoryIsIgnored() throws IOException {
+        HistoryFile history = new HistoryFile(file);
+        history.add("a");
+        history.close();
+
+        RandomAccessFile raw = new RandomAccessFile(indexFile, "rw");
+        raw.seek(raw.length());
+        raw.writeLong(99999);
+        raw.close();
+
+        history = new HistoryFile(file);
+        assertEquals(1, history.size());
+        history.add("b");
+        assertEquals(2, history.size());
+        assertEquals("b", history.get(1));
+        history.close();
+    }
+
+    @Test
+    public void appendsOfOtherInstancesAreSeen() throws IOException {
+        HistoryFile first = new HistoryFile(file);
+        HistoryFile second = new HistoryFile(file);
+        try {
+            first.add("one");
+            assertEquals(1, second.size());
+            assertEquals("one", second.get(0));
+
+            second.add("two");
+            first.add("three");
+            assertEquals(3, first.size());
+            assertEquals(3, second.size());
+            for (int i = 0; i < 3; i++)
+                assertEquals(first.get(i), second.get(i));
+            assertEquals("two", first.get(1));
+            assertEquals("three", second.get(2));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void concurrentAppendsAreAllKept() throws Exception {
+        final int perThread = 200;
+        Thread[] writers = new Thread[4];
+        final IOException[] failure = new IOException[1];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        HistoryFile history = new HistoryFile(file);
+                        for (int i = 0; i < perThread; i++)
+                            history.add(id + ":" + i);
+                        history.close();
+                    } catch (IOException exc) {
+                        failure[0] = exc;
+                    }
+                }
+            };
+            writers[t].start();
+        }
+
+        for (int t = 0; t < writers.length; t++)
+            writers[t].join();
+        assertNull(failure[0]);
+
+        HistoryFile history = new HistoryFile(file);
+        assertEquals(writers.length * perThread, history.size());
+
+        int[] next = new int[writers.length];
+        for (int i = 0; i < history.size(); i++) {
+            String entry = history.get(i);
+            int id = Integer.parseInt(entry.substring(0, entry.indexOf(':')));
+            assertEquals(id + ":" + next[id], entry);
+            next[id]++;
+        }
+        history.close();
+    }
+
+    @Test
+    public void appendsOfOtherProgramsAreAllKept() throws Exception {
+        String java = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        Process[] writers = new Process[3];
+        for (int p = 0; p < writers.length; p++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"),
+                    HistoryFileTest.class.getName(), file.getPath(),
+                    String.valueOf(p), "100");
+            builder.redirectErrorStream(true);
+            writers[p] = builder.start();
+        }
+
+        for (int p = 0; p < writers.length; p++) {
+            InputStream output = writers[p].getInputStream();
+            while (output.read() != -1) { }
+            assertEquals(0, writers[p].waitFor());
+        }
+
+        HistoryFile history = new HistoryFile(file);
+        assertEquals(writers.length * 100, history.size());
+        history.close();
+    }
+
+    /**
+     * Appends entries to a HistoryFile, run as another program by
+     * <code>appendsOfOtherProgramsAreAllKept</code>.
+     * @param args The history file, the id of the program and the number of
+     *  entries to append.
+     * @throws IOException If the entries could not be appended.
+     */
+    public static void main(String[] args) throws IOException {
+        HistoryFile history = new HistoryFile(new File(args[0]));
+        int entries = Integer.parseInt(args[2]);
+        for (int i = 0; i < entries; i++)
+            history.add(args[1] + ":" + i);
+        history.close();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.Color;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that ColorCodeConverter turns DCCCs into ANSI codes and back without
+ * changing the colors, no matter how the text is cut into pieces.
+ * @version 1.0
+ */
+public class ColorCodeConverterTest {
+    private Palette palette;
+
+    @Before
+    public void setUp() throws Exception {
+        palette = new Palette();
+        palette.add(new TextColor('r', ANSI.INTENSE_RED));
+        palette.add(new TextColor('R', ANSI.RED));
+        palette.add(new TextColor('g', ANSI.INTENSE_GREEN));
+        palette.add(new TextColor('G', ANSI.GREEN));
+        palette.add(new TextColor('l', ANSI.INTENSE_BLUE));
+        palette.add(new TextColor('L', ANSI.BLUE));
+        palette.add(new TextColor('x', ANSI.WHITE));
+        palette.add(new TextColor('b', ANSI.BLACK));
+        palette.add(new TextColor('w', ANSI.INTENSE_WHITE));
+        palette.add(new TextColor('o', new Color(255, 165, 0))); // Not ANSI
+    }
+
+    private static String convert(ColorCodeConverter converter,
+            String... pieces) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < pieces.length; i++)
+            converter.convert(pieces[i], 0, pieces[i].length(), out);
+        converter.finish(out);
+
+        return out.toString();
+    }
+
+    private String toANSI(String... pieces) throws IOException {
+        return convert(ColorCodeConverter.toANSI(palette, '&'), pieces);
+    }
+
+    private String toDC(String... pieces) throws IOException {
+        return convert(ColorCodeConverter.toDC(palette, '&', "xb"), pieces);
+    }
+
+    @Test
+    public void convertsDCCCsToANSI() throws IOException {
+        assertEquals("\033[0;1;31;40mred \033[0;31;40mdark&& \033[0;37;44m",
+                toANSI("&rbred &Rbdark&& &xL"));
+    }
+
+    @Test
+    public void convertsANSIToDCCCs() throws IOException {
+        assertEquals("&rbX&xb &rbY&rbZ&Gb", toDC("\033[1;31;40mX\033[0m "
+                + "\033[38;5;9mY\033[38;2;255;0;0mZ\033[32m"));
+    }
+
+    @Test
+    public void dcccsSurviveARoundTrip() throws IOException {
+        String dc = "&rbred &RLdark&& &gbgreen &Gx &lb&Lb&wb&bx&xb plain";
+        assertEquals(dc, toDC(toANSI(dc)));
+    }
+
+    @Test
+    public void ansiSurvivesARoundTrip() throws IOException {
+        String[] sequences = {"\033[1;31;40m", "\033[32;44m", "\033[0m",
+                "\033[97;40m", "\033[38;5;12;48;5;0m"};
+        for (int i = 0; i < sequences.length; i++) {
+            String ansi = toANSI(toDC(sequences[i]));
+            assertEquals(sequences[i], applied(sequences[i]), applied(ansi));
+        }
+    }
+
+    /**
+     * Returns the colors an ANSI sequence sets on a fresh SGRState, with the
+     * console's default colors filled in.
+     */
+    private static String applied(String sequence) {
+        SGRState sgr = new SGRState();
+        sgr.update(sequence, 0, sequence.length());
+        int foreground = sgr.getForeground();
+        int background = sgr.getBackground();
+
+        return ((foreground == SGRState.DEFAULT_COLOR) ? 7 : foreground) + "/"
+                + ((background == SGRState.DEFAULT_COLOR) ? 0 : background);
+    }
+
+    @Test
+    public void colorsWithoutANSICodesBecomeTheDefault() throws IOException {
+        assertEquals("\033[0;40mor", toANSI("&obor"));
+        assertEquals("&xbx", toDC("\033[38;5;208mx"));
+    }
+
+    @Test
+    public void intenseBackgroundsLoseTheirIntensity() throws IOException {
+        // Just like ANSI.getANSICodeFromDCCode, backgrounds use the 8 colors
+        assertEquals("\033[0;31;47m", toANSI("&Rw"));
+        assertEquals("&Rx", toDC(toANSI("&Rw")));
+    }
+
+    @Test
+    public void otherCodesAreCopied() throws IOException {
+        assertEquals("a&r", toANSI("a&r"));
+        assertEquals("\033[2Jclear\033[1;31", toDC("\033[2Jclear\033[1;31"));
+        assertEquals("50%", toDC("50%"));
+    }
+
+    @Test
+    public void codesSplitBetweenPiecesAreConverted() throws IOException {
+        String dc = "a&rbb&&c&Gxd&";
+        String ansi = "a\033[1;31;40mb\033[2Jc\033[38;2;0;255;0md\033[";
+        String wholeANSI = toANSI(dc);
+        String wholeDC = toDC(ansi);
+        for (int i = 0; i <= dc.length(); i++) {
+            assertEquals("split at " + i, wholeANSI, toANSI(dc.substring(0, i),
+                    dc.substring(i)));
+        }
+
+        for (int i = 0; i <= ansi.length(); i++) {
+            assertEquals("split at " + i, wholeDC, toDC(ansi.substring(0, i),
+                    ansi.substring(i)));
+        }
+    }
+
+    @Test
+    public void convertsCharArrays() throws IOException {
+        char[] chars = "xx&rbyy".toCharArray();
+        StringBuilder out = new StringBuilder();
+        ColorCodeConverter converter = ColorCodeConverter.toANSI(palette, '&');
+        converter.convert(chars, 2, 5, out);
+        converter.finish(out);
+
+        assertEquals("\033[0;1;31;40myy", out.toString());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that an InputString holds the same text as a String edited the same
+ * way, wherever it's gap has to be moved for an edit.
+ * @version 1.0
+ */
+public class InputStringTest {
+    private static void assertContents(String expected, InputString input) {
+        assertEquals(expected, input.get());
+        assertEquals(expected.length(), input.length());
+        for (int i = 0; i < expected.length(); i++)
+            assertEquals(expected.charAt(i), input.charAt(i));
+    }
+
+    @Test
+    public void editsMoveTheGap() {
+        InputString input = new InputString("hello world");
+        input.insert(0, ">");
+        assertContents(">hello world", input);
+        input.insert(12, "!");
+        assertContents(">hello world!", input);
+        input.insert(6, ",");
+        assertContents(">hello, world!", input);
+        input.remove(0, 1);
+        assertContents("hello, world!", input);
+        input.remove(12, 1);
+        assertContents("hello, world", input);
+        input.replace(7, 5, "there");
+        assertContents("hello, there", input);
+        input.append(".");
+        assertContents("hello, there.", input);
+    }
+
+    @Test
+    public void insertsLongerThanTheGapGrowIt() {
+        InputString input = new InputString("ab");
+        StringBuilder expected = new StringBuilder("ab");
+        for (int i = 0; i < 20; i++) {
+            String s = "0123456789abcdefghij".substring(0, i);
+            input.insert(1, s);
+            expected.insert(1, s);
+            assertContents(expected.toString(), input);
+        }
+    }
+
+    @Test
+    public void editsOutsideTheContentsAreIgnored() {
+        InputString input = new InputString("abc");
+        input.insert(4, "x");
+        input.remove(3, 1);
+        input.remove(1, 3);
+        assertContents("abc", input);
+
+        // A replace outside of the contents appends instead
+        input.replace(5, 1, "d");
+        assertContents("abcd", input);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void charAtPastTheEndFails() {
+        new InputString("abc").charAt(3);
+    }
+
+    @Test
+    public void rangedEditsKeepTheLength() {
+        InputString input = new InputString("     ");
+        assertTrue(input.endIsEmpty());
+        assertTrue(input.rangeInsert(0, "a"));
+        assertTrue(input.rangeInsert(1, "b"));
+        assertTrue(input.rangeInsert(0, "c"));
+        assertContents("cab  ", input);
+
+        input.rangeRemove(1, 1);
+        assertContents("cb   ", input);
+
+        input.rangeInsert(2, "d");
+        input.rangeInsert(3, "e");
+        input.rangeInsert(4, "f");
+        assertContents("cbdef", input);
+        assertFalse(input.endIsEmpty());
+        assertFalse(input.rangeInsert(0, "g"));
+        assertContents("cbdef", input);
+    }
+
+    @Test
+    public void setReplacesTheContents() {
+        InputString input = new InputString("abc");
+        input.insert(1, "x");
+        input.set("new");
+        assertContents("new", input);
+        input.insert(0, "a ");
+        assertContents("a new", input);
+    }
+
+    @Test
+    public void randomEditsMatchAString() {
+        Random random = new Random(23);
+        InputString input = new InputString("");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            int length = expected.length();
+            int location = random.nextInt(length + 1);
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    String s = Integer.toString(random.nextInt(100000), 36);
+                    input.insert(location, s);
+                    expected.insert(location, s);
+                    break;
+                case 2:
+                    if (location < length) {
+                        int count = random.nextInt(length - location) + 1;
+                        input.remove(location, count);
+                        expected.delete(location, location + count);
+                    }
+                    break;
+                default:
+                    if (location < length) {
+                        int count = random.nextInt(length - location) + 1;
+                        input.replace(location, count, "r");
+                        expected.replace(location, location + count, "r");
+                    }
+                    break;
+            }
+
+            assertEquals(expected.toString(), input.get());
+            if (expected.length() > 0) {
+                int index = random.nextInt(expected.length());
+                assertEquals(expected.charAt(index), input.charAt(index));
+            }
+        }
+    }
+}
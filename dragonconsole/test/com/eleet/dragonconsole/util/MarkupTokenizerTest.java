@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the MarkupTokenizer finds the same codes and text no matter how
+ * the text is cut into pieces, and that <code>stripText</code> keeps every
+ * code of the text and nothing else.
+ * @version 1.0
+ */
+public class MarkupTokenizerTest {
+    /**
+     * Text with every kind of code, escapes and codes that aren't complete.
+     */
+    private static final String MARKUP = "plain &rbred&& \033[1;31mbold\033[0m"
+            + " 100%% %i5;after &x- %ix; \033[38;2;1;2;3mrgb &";
+
+    /**
+     * Writes everything a MarkupTokenizer finds to a String, the text as it
+     * is and the codes between brackets.
+     */
+    private static class Recorder implements MarkupTokenizer.Handler {
+        private StringBuilder log = new StringBuilder();
+        private boolean textOnly;
+
+        private Recorder(boolean textOnly) {
+            this.textOnly = textOnly;
+        }
+
+        public void text(char[] chars, int offset, int length) {
+            if (!textOnly)
+                log.append(chars, offset, length);
+        }
+
+        public void colorCode(char foreground, char background) {
+            log.append("[").append(foreground).append(background).append("]");
+        }
+
+        public void escape(char[] sequence, int offset, int length) {
+            log.append("<").append(sequence, offset + 1, length - 1)
+                    .append(">");
+        }
+
+        public boolean input(char[] script, int offset, int length) {
+            log.append("{").append(script, offset, length).append("}");
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return log.toString();
+        }
+    }
+
+    private static String tokenize(String... pieces) {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        Recorder recorder = new Recorder(false);
+        for (int i = 0; i < pieces.length; i++)
+            tokenizer.feed(pieces[i], 0, pieces[i].length(), recorder);
+        tokenizer.finish(recorder);
+
+        return recorder.toString();
+    }
+
+    private static String codesOf(String s) {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        Recorder recorder = new Recorder(true);
+        tokenizer.feed(s, 0, s.length(), recorder);
+        tokenizer.finish(recorder);
+
+        return recorder.toString();
+    }
+
+    @Test
+    public void findsEveryKindOfCode() {
+        assertEquals("plain [rb]red& <[1;31m>bold<[0m> 100% {%i5;}after "
+                + "[x-] %ix; <[38;2;1;2;3m>rgb &", tokenize(MARKUP));
+    }
+
+    @Test
+    public void incompleteEscapeIsDroppedAtTheEnd() {
+        assertEquals("ab", tokenize("ab\033[1;3"));
+        assertEquals("ab&r", tokenize("ab&r"));
+        assertEquals("ab%i12", tokenize("ab%i12"));
+    }
+
+    @Test
+    public void textIsHandledWithoutInputScripts() {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        tokenizer.setProcessInput(false);
+        Recorder recorder = new Recorder(false);
+        String s = "50%% %i5;";
+        tokenizer.feed(s, 0, s.length(), recorder);
+        tokenizer.finish(recorder);
+
+        assertEquals(s, recorder.toString());
+    }
+
+    @Test
+    public void colorCodeCharCanBeChanged() {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        tokenizer.setColorCodeChar('#');
+        Recorder recorder = new Recorder(false);
+        String s = "&rb#rb##";
+        tokenizer.feed(s, 0, s.length(), recorder);
+        tokenizer.finish(recorder);
+
+        assertEquals("&rb[rb]#", recorder.toString());
+    }
+
+    @Test
+    public void codesSplitInTwoAreFound() {
+        String whole = tokenize(MARKUP);
+        for (int i = 0; i <= MARKUP.length(); i++) {
+            assertEquals("split at " + i, whole, tokenize(
+                    MARKUP.substring(0, i), MARKUP.substring(i)));
+        }
+    }
+
+    @Test
+    public void codesSplitInThreeAreFound() {
+        String whole = tokenize(MARKUP);
+        for (int i = 0; i <= MARKUP.length(); i++) {
+            for (int j = i; j <= MARKUP.length(); j++) {
+                assertEquals("split at " + i + " and " + j, whole, tokenize(
+                        MARKUP.substring(0, i), MARKUP.substring(i, j),
+                        MARKUP.substring(j)));
+            }
+        }
+    }
+
+    @Test
+    public void feedingCharArraysMatchesStrings() {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        Recorder recorder = new Recorder(false);
+        char[] chars = ("xx" + MARKUP + "yy").toCharArray();
+        tokenizer.feed(chars, 2, MARKUP.length(), recorder);
+        tokenizer.finish(recorder);
+
+        assertEquals(tokenize(MARKUP), recorder.toString());
+    }
+
+    @Test
+    public void stripTextKeepsOnlyTheCodes() {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        assertEquals("&rb\033[1;31m\033[0m%i5;&x-\033[38;2;1;2;3m",
+                tokenizer.stripText(MARKUP, false));
+        assertEquals(codesOf(MARKUP), codesOf(tokenizer.stripText(MARKUP,
+                false)));
+        assertEquals("", tokenizer.stripText("no codes at all", false));
+    }
+
+    @Test
+    public void strippedChunksKeepTheCodesOfTheStream() {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        String codes = codesOf(MARKUP);
+        for (int i = 0; i <= MARKUP.length(); i++) {
+            for (int j = i; j <= MARKUP.length(); j++) {
+                String stripped = tokenizer.stripText(MARKUP.substring(0, i),
+                        true) + tokenizer.stripText(MARKUP.substring(i, j),
+                        true) + tokenizer.stripText(MARKUP.substring(j), true);
+                assertEquals("chunks end at " + i + " and " + j, codes,
+                        codesOf(stripped));
+            }
+        }
+    }
+
+    @Test
+    public void stripTextLeavesTheTokenizerAsItWas() {
+        MarkupTokenizer tokenizer = new MarkupTokenizer('&');
+        tokenizer.setProcessInput(false);
+        tokenizer.stripText("&rb%i5;", false);
+
+        Recorder recorder = new Recorder(false);
+        tokenizer.feed("%i5;", 0, 4, recorder);
+        tokenizer.finish(recorder);
+        assertEquals("%i5;", recorder.toString());
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests what each backpressure policy of the OutputQueue does with output
+ * added to a full queue.
+ * @version 1.0
+ */
+public class OutputQueueTest {
+    /**
+     * Ten characters of plain text, one line.
+     */
+    private static final String LINE = "123456789\n";
+
+    private OutputQueue queue;
+
+    @Before
+    public void setUp() {
+        // The test drains the queue itself
+        queue = new OutputQueue(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+            }
+        });
+    }
+
+    /**
+     * Adds output on another Thread, which may wait for room in the queue.
+     */
+    private Thread addLater(final int type, final String text) {
+        Thread adder = new Thread() {
+            @Override
+            public void run() {
+                queue.add(type, text, "xb");
+            }
+        };
+        adder.setDaemon(true);
+        adder.start();
+
+        return adder;
+    }
+
+    @Test
+    public void unboundedQueueKeepsEverything() {
+        for (int i = 0; i < 100; i++)
+            queue.add(OutputQueue.PLAIN, LINE, "xb");
+
+        assertEquals(100, queue.getQueuedEntries());
+        assertEquals(1000, queue.getQueuedCharacters());
+        assertEquals(100, queue.drain().size());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.getQueuedCharacters());
+    }
+
+    @Test
+    public void emptyQueueTakesOutputOfAnyLength() {
+        queue.setPolicy(OutputQueue.DROP);
+        queue.setMaxQueuedCharacters(5);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+
+        assertEquals(1, queue.getQueuedEntries());
+        assertEquals(0, queue.getDroppedCharacters());
+    }
+
+    @Test
+    public void dropThrowsAwayNewText() {
+        queue.setPolicy(OutputQueue.DROP);
+        queue.setMaxQueuedCharacters(35);
+        for (int i = 0; i < 5; i++)
+            queue.add(OutputQueue.PLAIN, LINE, "xb");
+
+        assertEquals(3, queue.getQueuedEntries());
+        assertEquals(2, queue.getDroppedLines());
+        assertEquals(20, queue.getDroppedCharacters());
+
+        ArrayList<OutputQueue.Entry> drained = queue.drain();
+        assertEquals(4, drained.size());
+        OutputQueue.Entry marker = drained.get(3);
+        assertEquals(OutputQueue.SUPPRESSED, marker.getType());
+        assertEquals("[2 lines suppressed]", marker.getText());
+
+        // The marker is only added for what was dropped since the last drain
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        assertEquals(1, queue.drain().size());
+    }
+
+    @Test
+    public void dropCutsProcessedTextDownToItsCodes() {
+        queue.setPolicy(OutputQueue.DROP);
+        queue.setMaxQueuedCharacters(40);
+        for (int i = 0; i < 3; i++)
+            queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.add(OutputQueue.PROCESS, "&rbred text\033[1mbold\n", null);
+
+        assertEquals(4, queue.getQueuedEntries());
+        assertEquals(30 + 7, queue.getQueuedCharacters());
+        assertEquals(20, queue.getDroppedCharacters());
+
+        ArrayList<OutputQueue.Entry> drained = queue.drain();
+        OutputQueue.Entry collapsed = drained.get(3);
+        assertTrue(collapsed.isCollapsed());
+        assertEquals("&rb\033[1m", collapsed.getText());
+        assertEquals(7, collapsed.getLength());
+    }
+
+    @Test
+    public void dropUsesTheColorCodeChar() {
+        queue.setPolicy(OutputQueue.DROP);
+        queue.setMaxQueuedCharacters(15);
+        queue.setColorCodeChar('#');
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.add(OutputQueue.PROCESS, "&rb #rb text", null);
+
+        assertEquals("#rb", queue.drain().get(1).getText());
+    }
+
+    @Test
+    public void dropKeepsTheEndOfStreamsAndRegions() {
+        queue.setPolicy(OutputQueue.DROP);
+        queue.setMaxQueuedCharacters(10);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.addStream(new MarkupTokenizer('&'), "last chunk", true);
+        Object region = new Object();
+        queue.add(OutputQueue.REGION, region, 5);
+
+        ArrayList<OutputQueue.Entry> drained = queue.drain();
+        assertEquals(3, drained.size());
+        assertEquals("last chunk", drained.get(1).getText());
+        assertFalse(drained.get(1).isCollapsed());
+        assertSame(region, drained.get(2).getData());
+    }
+
+    @Test
+    public void dropEmptiesTemplates() {
+        queue.setPolicy(OutputQueue.DROP);
+        queue.setMaxQueuedCharacters(10);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.addTemplate(new Object(), new String[] {"value"}, 20);
+
+        OutputQueue.Entry template = queue.drain().get(1);
+        assertTrue(template.isCollapsed());
+        assertEquals(0, template.getLength());
+        assertEquals(0, template.getValues().length);
+    }
+
+    @Test
+    public void summarizeThrowsAwayOldText() {
+        queue.setPolicy(OutputQueue.SUMMARIZE);
+        queue.setMaxQueuedCharacters(30);
+        queue.add(OutputQueue.PLAIN, "a" + LINE, "xb");
+        queue.add(OutputQueue.PLAIN, "b" + LINE, "xb");
+        queue.add(OutputQueue.PLAIN, "c" + LINE, "xb");
+
+        // Only the newest output is left, the queue is at most half full
+        assertEquals(1, queue.getQueuedEntries());
+        assertEquals(2, queue.getDroppedLines());
+
+        ArrayList<OutputQueue.Entry> drained = queue.drain();
+        assertEquals(2, drained.size());
+        assertEquals(OutputQueue.SUPPRESSED, drained.get(0).getType());
+        assertEquals("[2 lines omitted]", drained.get(0).getText());
+        assertEquals("c" + LINE, drained.get(1).getText());
+    }
+
+    @Test
+    public void summarizeKeepsTheCodesOfOldProcessedText() {
+        queue.setPolicy(OutputQueue.SUMMARIZE);
+        queue.setMaxQueuedCharacters(30);
+        queue.add(OutputQueue.PROCESS, "&rbold text\n", null);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.add(OutputQueue.PLAIN, LINE + LINE, "xb");
+
+        ArrayList<OutputQueue.Entry> drained = queue.drain();
+        assertEquals(3, drained.size());
+        assertTrue(drained.get(1).isCollapsed());
+        assertEquals("&rb", drained.get(1).getText());
+        assertEquals(LINE + LINE, drained.get(2).getText());
+    }
+
+    @Test
+    public void blockWaitsUntilTheQueueIsDrained() throws Exception {
+        queue.setMaxQueuedCharacters(15);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+
+        Thread adder = addLater(OutputQueue.PLAIN, LINE);
+        adder.join(200);
+        assertTrue(adder.isAlive());
+        assertEquals(1, queue.getQueuedEntries());
+
+        assertEquals(1, queue.drain().size());
+        adder.join(5000);
+        assertFalse(adder.isAlive());
+        assertEquals(1, queue.getQueuedEntries());
+        assertEquals(0, queue.getDroppedCharacters());
+    }
+
+    @Test
+    public void changingThePolicyReleasesWaitingThreads() throws Exception {
+        queue.setMaxQueuedCharacters(15);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+
+        Thread adder = addLater(OutputQueue.PLAIN, LINE);
+        adder.join(200);
+        assertTrue(adder.isAlive());
+
+        queue.setPolicy(OutputQueue.DROP);
+        adder.join(5000);
+        assertFalse(adder.isAlive());
+        assertEquals(2, queue.getQueuedEntries());
+    }
+
+    @Test
+    public void offerNeverWaits() {
+        queue.setMaxQueuedCharacters(15);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.offer(OutputQueue.PLAIN, LINE, "xb");
+
+        assertEquals(1, queue.getQueuedEntries());
+        assertEquals(10, queue.getDroppedCharacters());
+        assertEquals(OutputQueue.BLOCK, queue.getPolicy());
+    }
+
+    @Test
+    public void clearThrowsAwayTheQueue() {
+        queue.setPolicy(OutputQueue.DROP);
+        queue.setMaxQueuedCharacters(15);
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.add(OutputQueue.PLAIN, LINE, "xb");
+        queue.clear();
+
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.drain().size());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2010 3l33t Software Developers, L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.eleet.dragonconsole.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that SGRState reads the parameters of SGR sequences and applies them
+ * to the colors the way a terminal does.
+ * @version 1.0
+ */
+public class SGRStateTest {
+    private SGRState sgr;
+
+    @Before
+    public void setUp() {
+        sgr = new SGRState();
+    }
+
+    private boolean update(String sequence) {
+        return sgr.update(sequence, 0, sequence.length());
+    }
+
+    @Test
+    public void startsWithTheDefaultColors() {
+        assertTrue(sgr.isDefault());
+        assertEquals(SGRState.DEFAULT_COLOR, sgr.getForeground());
+        assertEquals(SGRState.DEFAULT_COLOR, sgr.getBackground());
+        assertEquals(0, sgr.getFlags());
+    }
+
+    @Test
+    public void readsParameters() {
+        assertEquals(3, sgr.parse("\033[1;;31m", 0, 8));
+        assertEquals(1, sgr.getParameter(0));
+        assertEquals(0, sgr.getParameter(1));
+        assertEquals(31, sgr.getParameter(2));
+
+        assertEquals(0, sgr.parse("\033[m", 0, 3));
+        assertEquals(2, sgr.parse("\033[;m", 0, 4));
+        assertTrue(sgr.isDefault()); // parse doesn't apply anything
+    }
+
+    @Test
+    public void readsParametersFromCharArrays() {
+        char[] chars = "xx\033[38:5:200myy".toCharArray();
+        assertEquals(3, sgr.parse(chars, 2, 11));
+        assertEquals(38, sgr.getParameter(0));
+        assertFalse(sgr.isSubparameter(0));
+        assertTrue(sgr.isSubparameter(1));
+        assertTrue(sgr.isSubparameter(2));
+
+        assertTrue(sgr.update(chars, 2, 11));
+        assertEquals(200, sgr.getForeground());
+    }
+
+    @Test
+    public void malformedSequencesChangeNothing() {
+        update("\033[31m");
+        assertFalse(update("\033[1;xm"));
+        assertFalse(update("\033[1;32"));
+        assertFalse(update("\033[32mm"));
+        assertFalse(update("[32m"));
+        assertEquals(-1, sgr.parse("\033(32m", 0, 5));
+        assertEquals(0, sgr.getParameterCount());
+        assertEquals(1, sgr.getForeground());
+    }
+
+    @Test
+    public void appliesBasicColors() {
+        assertTrue(update("\033[31;42m"));
+        assertEquals(1, sgr.getForeground());
+        assertEquals(2, sgr.getBackground());
+
+        update("\033[39m");
+        assertEquals(SGRState.DEFAULT_COLOR, sgr.getForeground());
+        assertEquals(2, sgr.getBackground());
+
+        update("\033[49m");
+        assertTrue(sgr.isDefault());
+    }
+
+    @Test
+    public void boldMakesTheFollowingForegroundIntense() {
+        update("\033[1;31;44m");
+        assertEquals(9, sgr.getForeground());
+        assertEquals(4, sgr.getBackground());
+
+        // Bold only lasts for the rest of it's own sequence
+        update("\033[32m");
+        assertEquals(2, sgr.getForeground());
+
+        update("\033[31;1m");
+        assertEquals(1, sgr.getForeground());
+    }
+
+    @Test
+    public void appliesIntenseColors() {
+        update("\033[97;100m");
+        assertEquals(15, sgr.getForeground());
+        assertEquals(8, sgr.getBackground());
+    }
+
+    @Test
+    public void appliesAttributes() {
+        update("\033[3;4m");
+        assertEquals(SGRState.ITALIC | SGRState.UNDERLINE, sgr.getFlags());
+        update("\033[23m");
+        assertEquals(SGRState.UNDERLINE, sgr.getFlags());
+        update("\033[24m");
+        assertEquals(0, sgr.getFlags());
+    }
+
+    @Test
+    public void resetReturnsToTheDefaults() {
+        update("\033[1;3;31;42m");
+        update("\033[0m");
+        assertTrue(sgr.isDefault());
+
+        update("\033[31;0;32m");
+        assertEquals(2, sgr.getForeground());
+
+        update("\033[m");
+        assertTrue(sgr.isDefault());
+    }
+
+    @Test
+    public void appliesPaletteColors() {
+        update("\033[38;5;200;48;5;17m");
+        assertEquals(200, sgr.getForeground());
+        assertEquals(17, sgr.getBackground());
+
+        update("\033[38:5:100m");
+        assertEquals(100, sgr.getForeground());
+
+        // A color past the palette is ignored, the codes after it still count
+        update("\033[38;5;300;4m");
+        assertEquals(100, sgr.getForeground());
+        assertEquals(SGRState.UNDERLINE, sgr.getFlags());
+    }
+
+    @Test
+    public void appliesTrueColors() {
+        update("\033[38;2;10;20;30m");
+        assertEquals(SGRState.getTrueColor(10, 20, 30), sgr.getForeground());
+        assertEquals(0x0A141E, sgr.getForeground() & 0xFFFFFF);
+        assertEquals(-1, sgr.getStyleKey());
+
+        update("\033[48:2::1:2:3m");
+        assertEquals(SGRState.getTrueColor(1, 2, 3), sgr.getBackground());
+
+        update("\033[38:2:4:5:6m");
+        assertEquals(SGRState.getTrueColor(4, 5, 6), sgr.getForeground());
+    }
+
+    @Test
+    public void incompleteExtendedColorsAreIgnored() {
+        update("\033[31m");
+        update("\033[38;2;10;20m");
+        assertEquals(1, sgr.getForeground());
+        update("\033[38;5m");
+        assertEquals(1, sgr.getForeground());
+        update("\033[38m");
+        assertEquals(1, sgr.getForeground());
+    }
+
+    @Test
+    public void subparametersOfUnknownCodesAreSkipped() {
+        update("\033[4:3;31m");
+        assertEquals(1, sgr.getForeground());
+        assertEquals(SGRState.UNDERLINE, sgr.getFlags());
+
+        update("\033[0;58:2::1:2:3;32m");
+        assertEquals(2, sgr.getForeground());
+    }
+
+    @Test
+    public void longParametersAreClamped() {
+        assertEquals(1, sgr.parse("\033[99999999999999999999m", 0, 23));
+        assertEquals(9999, sgr.getParameter(0));
+    }
+
+    @Test
+    public void styleKeysPackTheState() {
+        assertEquals(SGRState.packStyleKey(SGRState.DEFAULT_COLOR,
+                SGRState.DEFAULT_COLOR, 0), sgr.getStyleKey());
+
+        update("\033[3;38;5;255;41m");
+        assertEquals(SGRState.packStyleKey(255, 1, SGRState.ITALIC),
+                sgr.getStyleKey());
+        assertFalse(SGRState.packStyleKey(255, 1, 0)
+                == SGRState.packStyleKey(1, 255, 0));
+    }
+}